@@ -0,0 +1,324 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the rents of a training set straight from a tar, gzip compressed tar or
+ * zip archive, without unpacking it to disk. Movie entries are the entries whose
+ * name contains <code>.txt</code>, as in {@link DBFolderIterator#listMovieFiles(String)},
+ * and entries whose name ends with <code>.gz</code> are gunzipped.
+ * <p>
+ * The archive is read, and decompressed if the archive itself is compressed, by a
+ * reader thread. Compressed entries are gunzipped by a pool of inflater threads,
+ * while the calling thread parses the entries in archive order with a
+ * {@link RentsFileParser}. Hence decompression overlaps with parsing, and for an
+ * archive whose entries are in name order (as the original training set) the
+ * handler gets the same rents, in the same order, as when parsing the unpacked
+ * folder.
+ *
+ * @author Assaf Mizrachi
+ *
+ */
+public class ArchiveRentsReader {
+
+	//number of entries read ahead of the parser
+	private static final int QUEUE_SIZE = 64;
+
+	private static final int TAR_BLOCK = 512;
+
+	//marks the end of the entries in the queue
+	private static final Future<byte[]> END = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+		@Override
+		public byte[] call() {
+			return null;
+		}
+	});
+
+	private File archive;
+
+	private int numOfThreads;
+
+	private volatile Throwable failure;
+
+	/**
+	 * @param archive a tar, tar.gz, tgz or zip archive
+	 * @param numOfThreads number of threads gunzipping compressed entries
+	 */
+	public ArchiveRentsReader(File archive, int numOfThreads) {
+		if (numOfThreads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.archive = archive;
+		this.numOfThreads = numOfThreads;
+	}
+
+	/**
+	 * @param file a file
+	 * @return <code>true</code> if the file name is of an archive read by this class.
+	 */
+	public static boolean isArchive(File file) {
+		String name = file.getName().toLowerCase();
+		return file.isFile() && (name.endsWith(".tar") || name.endsWith(".tar.gz")
+				|| name.endsWith(".tgz") || name.endsWith(".zip"));
+	}
+
+	/**
+	 * Parses the rents of all movie entries of the archive.
+	 *
+	 * @param handler handler of the parsed rents
+	 * @return the number of rents parsed
+	 * @throws IOException if the archive could not be read or an entry is malformed
+	 */
+	public long parse(RentHandler handler) throws IOException {
+		final BlockingQueue<Future<byte[]>> entries = new ArrayBlockingQueue<Future<byte[]>>(QUEUE_SIZE);
+		final ExecutorService inflaters = Executors.newFixedThreadPool(numOfThreads, new ThreadFactory() {
+
+			private int count;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ArchiveInflater-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		failure = null;
+		Thread reader = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					readEntries(entries, inflaters);
+				} catch (Throwable t) {
+					failure = t;
+				} finally {
+					try {
+						entries.put(END);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "ArchiveReader");
+		reader.setDaemon(true);
+		reader.start();
+
+		RentsFileParser parser = new RentsFileParser();
+		long rents = 0;
+		try {
+			Future<byte[]> entry;
+			while ((entry = entries.take()) != END) {
+				rents += parser.parse(ByteBuffer.wrap(entry.get()), true, handler);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading " + archive);
+		} catch (ExecutionException e) {
+			throw (IOException) new IOException("Error while inflating an entry of " + archive)
+					.initCause(e.getCause());
+		} finally {
+			reader.interrupt();
+			inflaters.shutdownNow();
+		}
+		if (failure != null) {
+			throw (IOException) new IOException("Error while reading " + archive)
+					.initCause(failure);
+		}
+		return rents;
+	}
+
+	private void readEntries(BlockingQueue<Future<byte[]>> entries, ExecutorService inflaters)
+			throws IOException, InterruptedException {
+		InputStream in = new BufferedInputStream(new FileInputStream(archive), 1 << 16);
+		try {
+			in.mark(2);
+			boolean gzipped = in.read() == 0x1f && in.read() == 0x8b;
+			in.reset();
+			if (gzipped) {
+				in = new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+			}
+			if (archive.getName().toLowerCase().endsWith(".zip")) {
+				readZip(new ZipInputStream(in), entries, inflaters);
+			} else {
+				readTar(new DataInputStream(in), entries, inflaters);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void readZip(ZipInputStream zip, BlockingQueue<Future<byte[]>> entries,
+			ExecutorService inflaters) throws IOException, InterruptedException {
+		ZipEntry entry;
+		while ((entry = zip.getNextEntry()) != null) {
+			if (!entry.isDirectory() && isMovieEntry(entry.getName())) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+						entry.getSize() > 0 ? (int) entry.getSize() : 1 << 16);
+				byte[] buf = new byte[1 << 16];
+				int read;
+				while ((read = zip.read(buf)) > 0) {
+					bytes.write(buf, 0, read);
+				}
+				enqueue(entry.getName(), bytes.toByteArray(), entries, inflaters);
+			}
+		}
+	}
+
+	private void readTar(DataInputStream tar, BlockingQueue<Future<byte[]>> entries,
+			ExecutorService inflaters) throws IOException, InterruptedException {
+		byte[] header = new byte[TAR_BLOCK];
+		String longName = null;
+		while (true) {
+			try {
+				tar.readFully(header);
+			} catch (EOFException e) {
+				return;
+			}
+			if (header[0] == 0) {
+				//end of archive block
+				return;
+			}
+			String name = longName != null ? longName : tarName(header);
+			longName = null;
+			long size = parseOctal(header, 124, 12);
+			byte type = header[156];
+			byte[] data = null;
+			if (type == 'L' || ((type == '0' || type == 0) && isMovieEntry(name))) {
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException("Entry " + name + " is too big");
+				}
+				data = new byte[(int) size];
+				tar.readFully(data);
+			} else {
+				skipFully(tar, size);
+			}
+			skipFully(tar, (TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK);
+			if (type == 'L') {
+				//GNU long name of the next entry
+				int length = 0;
+				while (length < data.length && data[length] != 0) {
+					length++;
+				}
+				longName = new String(data, 0, length, "ISO-8859-1");
+			} else if (data != null) {
+				enqueue(name, data, entries, inflaters);
+			}
+		}
+	}
+
+	private void enqueue(String name, final byte[] data, BlockingQueue<Future<byte[]>> entries,
+			ExecutorService inflaters) throws InterruptedException {
+		Future<byte[]> entry;
+		if (name.endsWith(".gz")) {
+			entry = inflaters.submit(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() throws IOException {
+					return gunzip(data);
+				}
+			});
+		} else {
+			FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() {
+					return data;
+				}
+			});
+			task.run();
+			entry = task;
+		}
+		entries.put(entry);
+	}
+
+	private static byte[] gunzip(byte[] data) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data), 1 << 16);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+			byte[] buf = new byte[1 << 16];
+			int read;
+			while ((read = in.read(buf)) > 0) {
+				out.write(buf, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean isMovieEntry(String name) {
+		return name.substring(name.lastIndexOf('/') + 1).contains(".txt");
+	}
+
+	private static String tarName(byte[] header) throws IOException {
+		String name = cString(header, 0, 100);
+		//ustar archives keep a prefix of long names apart
+		if (cString(header, 257, 5).equals("ustar")) {
+			String prefix = cString(header, 345, 155);
+			if (prefix.length() > 0) {
+				name = prefix + "/" + name;
+			}
+		}
+		return name;
+	}
+
+	private static String cString(byte[] bytes, int offset, int length) throws IOException {
+		int end = offset;
+		while (end < offset + length && bytes[end] != 0) {
+			end++;
+		}
+		return new String(bytes, offset, end - offset, "ISO-8859-1");
+	}
+
+	private static long parseOctal(byte[] bytes, int offset, int length) throws IOException {
+		long value = 0;
+		for (int i = offset; i < offset + length; i++) {
+			byte b = bytes[i];
+			if (b == 0 || b == ' ') {
+				if (value != 0) {
+					break;
+				}
+			} else if (b >= '0' && b <= '7') {
+				value = (value << 3) + (b - '0');
+			} else {
+				throw new IOException("Malformed tar header");
+			}
+		}
+		return value;
+	}
+
+	private static void skipFully(InputStream in, long bytes) throws IOException {
+		while (bytes > 0) {
+			long skipped = in.skip(bytes);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException("Unexpected end of archive");
+				}
+				skipped = 1;
+			}
+			bytes -= skipped;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Converts the Netflix text files into the binary columnar format read by
+ * {@link ColumnarRentsFile}. The input is parsed twice by a {@link RentsFileParser},
+ * once to count the rents of every movie and once to write every rent into its
+ * row, so rows end up sorted by movie id whatever the order of the input is.
+ * <p>
+ * Usage: ColumnarRentsConverter &lt;training set folder or archive&gt; &lt;output file&gt;
+ * <br>
+ * or: ColumnarRentsConverter -q &lt;questions file&gt; &lt;output file&gt;
+ *
+ * @author Assaf Mizrachi
+ *
+ */
+public class ColumnarRentsConverter {
+
+	/**
+	 * Converts a set of rents files.
+	 *
+	 * @param files the rents files
+	 * @param out the output file
+	 * @return the number of rents written
+	 * @throws IOException if one of the files could not be read or written
+	 */
+	public static int convertRents(final File[] files, File out) throws IOException {
+		return convert(new Input() {
+
+			@Override
+			public void parse(RentHandler handler) throws IOException {
+				RentsFileParser.parseRents(files, handler);
+			}
+		}, 0, out);
+	}
+
+	/**
+	 * Converts the rents of a tar, tar.gz or zip archive, see {@link ArchiveRentsReader}.
+	 *
+	 * @param archive the archive
+	 * @param numOfThreads number of threads inflating the archive entries
+	 * @param out the output file
+	 * @return the number of rents written
+	 * @throws IOException if the archive could not be read or the output written
+	 */
+	public static int convertArchive(final File archive, final int numOfThreads, File out)
+			throws IOException {
+		return convert(new Input() {
+
+			@Override
+			public void parse(RentHandler handler) throws IOException {
+				new ArchiveRentsReader(archive, numOfThreads).parse(handler);
+			}
+		}, 0, out);
+	}
+
+	/**
+	 * Converts a questions (qualifying or probe) file.
+	 *
+	 * @param questionsFile the questions file
+	 * @param out the output file
+	 * @return the number of questions written
+	 * @throws IOException if the file could not be read or written
+	 */
+	public static int convertQuestions(final File questionsFile, File out) throws IOException {
+		return convert(new Input() {
+
+			@Override
+			public void parse(RentHandler handler) throws IOException {
+				RentsFileParser.parseQuestions(questionsFile, handler);
+			}
+		}, ColumnarRentsFile.QUESTIONS_FLAG, out);
+	}
+
+	private static int convert(Input input, int flags, File out) throws IOException {
+		//first pass - counting the rents of every movie
+		Counter counter = new Counter();
+		input.parse(counter);
+		int maxMovieId = counter.maxMovieId;
+		int size = counter.size;
+		int[] offsets = new int[maxMovieId + 2];
+		for (int movieId = 0; movieId <= maxMovieId; movieId++) {
+			offsets[movieId + 1] = offsets[movieId] + counter.counts[movieId];
+		}
+
+		if (out.exists()) {
+			out.delete();
+		}
+		RandomAccessFile raf = new RandomAccessFile(out, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			long offsetsSize = 4L * (maxMovieId + 2);
+			long length = ColumnarRentsFile.HEADER_SIZE + offsetsSize + 9L * size;
+			raf.setLength(length);
+
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					ColumnarRentsFile.HEADER_SIZE + offsetsSize);
+			header.putInt(ColumnarRentsFile.MAGIC);
+			header.putInt(ColumnarRentsFile.VERSION);
+			header.putInt(flags);
+			header.putInt(maxMovieId);
+			header.putInt(size);
+			header.asIntBuffer().put(offsets);
+
+			long position = ColumnarRentsFile.HEADER_SIZE + offsetsSize;
+			MappedByteBuffer movieIds = channel.map(FileChannel.MapMode.READ_WRITE, position, 2L * size);
+			position += 2L * size;
+			MappedByteBuffer userIds = channel.map(FileChannel.MapMode.READ_WRITE, position, 4L * size);
+			position += 4L * size;
+			MappedByteBuffer days = channel.map(FileChannel.MapMode.READ_WRITE, position, 2L * size);
+			position += 2L * size;
+			MappedByteBuffer rates = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+
+			//second pass - writing every rent into the next free row of its movie
+			Writer writer = new Writer(offsets, movieIds.asCharBuffer(), userIds.asIntBuffer(),
+					days.asShortBuffer(), rates);
+			input.parse(writer);
+
+			header.force();
+			movieIds.force();
+			userIds.force();
+			days.force();
+			rates.force();
+		} finally {
+			raf.close();
+		}
+		return size;
+	}
+
+	public static void main(String[] args) throws IOException {
+		long start = System.currentTimeMillis();
+		int size;
+		if (args[0].equals("-q")) {
+			size = convertQuestions(new File(args[1]), new File(args[2]));
+		} else if (ArchiveRentsReader.isArchive(new File(args[0]))) {
+			size = convertArchive(new File(args[0]), Runtime.getRuntime().availableProcessors(),
+					new File(args[1]));
+		} else {
+			size = convertRents(DBFolderIterator.listMovieFiles(args[0]), new File(args[1]));
+		}
+		System.out.println("Converted " + size + " rents in "
+				+ (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	private interface Input {
+
+		public void parse(RentHandler handler) throws IOException;
+	}
+
+	private static class Counter implements RentHandler {
+
+		private int[] counts = new int[17771];
+
+		private int maxMovieId;
+
+		private int size;
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			if (movieId > Character.MAX_VALUE) {
+				throw new IllegalArgumentException("Movie id " + movieId + " is too big for the columnar format");
+			}
+			if (movieId >= counts.length) {
+				counts = Arrays.copyOf(counts, Math.max(movieId + 1, counts.length * 2));
+			}
+			counts[movieId]++;
+			maxMovieId = Math.max(maxMovieId, movieId);
+			size++;
+		}
+	}
+
+	private static class Writer implements RentHandler {
+
+		//next free row of every movie
+		private int[] next;
+
+		private CharBuffer movieIds;
+
+		private IntBuffer userIds;
+
+		private ShortBuffer days;
+
+		private MappedByteBuffer rates;
+
+		public Writer(int[] offsets, CharBuffer movieIds, IntBuffer userIds, ShortBuffer days,
+				MappedByteBuffer rates) {
+			this.next = Arrays.copyOf(offsets, offsets.length);
+			this.movieIds = movieIds;
+			this.userIds = userIds;
+			this.days = days;
+			this.rates = rates;
+		}
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			int row = next[movieId]++;
+			movieIds.put(row, (char) movieId);
+			userIds.put(row, userId);
+			days.put(row, day);
+			rates.put(row, (byte) rate);
+		}
+	}
+}
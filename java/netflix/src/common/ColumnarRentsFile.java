@@ -0,0 +1,256 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import dbanalysis.Rent;
+
+/**
+ * Reader of a binary columnar rents file written by {@link ColumnarRentsConverter}.
+ * The file is memory mapped, so opening it costs nothing and reading it is bounded
+ * by the disk bandwidth only.
+ * <p>
+ * The file layout (big endian) is:
+ * <pre>
+ * int magic ('NFXR'), int version, int flags, int maxMovieId, int size
+ * int[maxMovieId + 2] movie offsets - rents of movie m are rows [offsets[m], offsets[m + 1])
+ * char[size]  movie ids
+ * int[size]   user ids
+ * short[size] days (see {@link DayCodec})
+ * byte[size]  rates
+ * </pre>
+ * Rows are sorted by movie id. Instances are thread safe.
+ *
+ * @author Assaf Mizrachi
+ *
+ */
+public class ColumnarRentsFile implements Iterable<Rent> {
+
+	static final int MAGIC = 0x4E465852;
+
+	static final int VERSION = 1;
+
+	/**
+	 * Flag of a file holding questions rather than rents.
+	 */
+	public static final int QUESTIONS_FLAG = 1;
+
+	static final int HEADER_SIZE = 5 * 4;
+
+	private int flags;
+
+	private int maxMovieId;
+
+	private int size;
+
+	private IntBuffer offsets;
+
+	private CharBuffer movieIds;
+
+	private IntBuffer userIds;
+
+	private ShortBuffer days;
+
+	private ByteBuffer rates;
+
+	/**
+	 * Opens a columnar rents file.
+	 *
+	 * @param file the file
+	 * @throws IOException if the file could not be read or is not a columnar rents file.
+	 */
+	public ColumnarRentsFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException(file + " is not a columnar rents file");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported columnar rents file version " + version);
+			}
+			flags = header.getInt();
+			maxMovieId = header.getInt();
+			size = header.getInt();
+
+			long position = HEADER_SIZE;
+			offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * (maxMovieId + 2)).asIntBuffer();
+			position += 4L * (maxMovieId + 2);
+			movieIds = channel.map(FileChannel.MapMode.READ_ONLY, position, 2L * size).asCharBuffer();
+			position += 2L * size;
+			userIds = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * size).asIntBuffer();
+			position += 4L * size;
+			days = channel.map(FileChannel.MapMode.READ_ONLY, position, 2L * size).asShortBuffer();
+			position += 2L * size;
+			rates = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		} finally {
+			//the mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param file a file
+	 * @return <code>true</code> if the file is a columnar rents file.
+	 */
+	public static boolean isColumnar(File file) {
+		if (!file.isFile() || file.length() < HEADER_SIZE) {
+			return false;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				return in.readInt() == MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the file holds questions rather than rents.
+	 */
+	public boolean isQuestions() {
+		return (flags & QUESTIONS_FLAG) != 0;
+	}
+
+	/**
+	 * @return the number of rows.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the biggest movie id of the file.
+	 */
+	public int getMaxMovieId() {
+		return maxMovieId;
+	}
+
+	/**
+	 * @param movieId the movie id
+	 * @return the first row of the movie.
+	 */
+	public int getMovieStart(int movieId) {
+		return movieId > maxMovieId ? size : offsets.get(movieId);
+	}
+
+	/**
+	 * @param movieId the movie id
+	 * @return the row following the last row of the movie.
+	 */
+	public int getMovieEnd(int movieId) {
+		return movieId > maxMovieId ? size : offsets.get(movieId + 1);
+	}
+
+	public int getMovieId(int row) {
+		return movieIds.get(row);
+	}
+
+	public int getUserId(int row) {
+		return userIds.get(row);
+	}
+
+	public short getDay(int row) {
+		return days.get(row);
+	}
+
+	public int getRate(int row) {
+		return rates.get(row);
+	}
+
+	/**
+	 * Bulk reads consecutive rows into primitive arrays. Any of the arrays may be
+	 * <code>null</code> in which case its column is not read.
+	 *
+	 * @param from the first row to read
+	 * @param length number of rows to read
+	 * @param movieIdsDst destination of the movie ids, from index 0
+	 * @param userIdsDst destination of the user ids, from index 0
+	 * @param daysDst destination of the days, from index 0
+	 * @param ratesDst destination of the rates, from index 0
+	 */
+	public void read(int from, int length, int[] movieIdsDst, int[] userIdsDst,
+			short[] daysDst, byte[] ratesDst) {
+		if (movieIdsDst != null) {
+			for (int i = 0; i < length; i++) {
+				movieIdsDst[i] = movieIds.get(from + i);
+			}
+		}
+		if (userIdsDst != null) {
+			IntBuffer src = userIds.duplicate();
+			src.position(from);
+			src.get(userIdsDst, 0, length);
+		}
+		if (daysDst != null) {
+			ShortBuffer src = days.duplicate();
+			src.position(from);
+			src.get(daysDst, 0, length);
+		}
+		if (ratesDst != null) {
+			ByteBuffer src = rates.duplicate();
+			src.position(from);
+			src.get(ratesDst, 0, length);
+		}
+	}
+
+	/**
+	 * Passes all rows, in order, to the specified handler.
+	 *
+	 * @param handler the handler
+	 */
+	public void scan(RentHandler handler) {
+		for (int i = 0; i < size; i++) {
+			handler.handleRent(movieIds.get(i), userIds.get(i), rates.get(i), days.get(i));
+		}
+	}
+
+	/**
+	 * @param row the row
+	 * @return a new rent of the specified row.
+	 */
+	public Rent getRent(int row) {
+		return new Rent(movieIds.get(row), userIds.get(row), days.get(row), rates.get(row));
+	}
+
+	@Override
+	public Iterator<Rent> iterator() {
+		return new Iterator<Rent>() {
+
+			private int row = 0;
+
+			@Override
+			public boolean hasNext() {
+				return row < size;
+			}
+
+			@Override
+			public Rent next() {
+				if (row >= size) {
+					throw new NoSuchElementException();
+				}
+				return getRent(row++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Netflix DB is ReadOnly");
+			}
+		};
+	}
+}
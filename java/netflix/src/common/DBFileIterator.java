@@ -4,10 +4,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 
@@ -20,13 +16,11 @@ public class DBFileIterator implements Iterator<Rent> {
 	private String line;
 	private StringTokenizer lineTokenizer;
 	private String lineDelimiter = ",";
-	DateFormat dateFormat;
 	
 	public DBFileIterator(String fileName) {
 		try {
 			br = new BufferedReader(new FileReader(new File(fileName)));			
 			line = br.readLine();
-			dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -45,14 +39,14 @@ public class DBFileIterator implements Iterator<Rent> {
 		int movieId = Integer.valueOf(lineTokenizer.nextToken());
 		int userId = Integer.valueOf(lineTokenizer.nextToken());
 		int rate = Integer.valueOf(lineTokenizer.nextToken());
-		Date date = null;
+		short day = DayCodec.NO_DAY;
 		try {
-			date = dateFormat.parse(lineTokenizer.nextToken());
-		} catch (ParseException e1) {
+			day = DayCodec.parse(lineTokenizer.nextToken());
+		} catch (IllegalArgumentException e1) {
 			// TODO Auto-generated catch block
 			e1.printStackTrace();
 		}
-		Rent rent = new Rent(movieId, userId, date, rate);
+		Rent rent = new Rent(movieId, userId, day, rate);
 		
 		//reading next line
 		try {
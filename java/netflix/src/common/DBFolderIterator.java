@@ -5,10 +5,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 
@@ -17,31 +14,30 @@ import dbanalysis.Rent;
 public class DBFolderIterator implements Iterator<Rent> {
 
 	private BufferedReader br;
-	private File folder;
 	private File[] files;
 	private int current;
 	private String line;
 	private StringTokenizer lineTokenizer;
 	private String lineDelimiter = ",";
 	private String newFileIndicator = ":";
-	private DateFormat dateFormat;
 	private int movieId;
 	
 	public DBFolderIterator(String path) {
+		this(listMovieFiles(path));
+	}
+	
+	/**
+	 * Creates an iterator over the rents of the specified movie files, in the
+	 * order they are given.
+	 * 
+	 * @param files the movie files to iterate.
+	 */
+	public DBFolderIterator(File[] files) {
 		try {
-			folder = new File(path);
-			files = folder.listFiles(new FilenameFilter() {
-
-				@Override
-				public boolean accept(File dir, String name) {
-					return name.contains(".txt");
-				}
-				
-			});
+			this.files = files;
 			current = 0;
 			br = new BufferedReader(new FileReader(currentFile()));			
 			line = br.readLine();
-			dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 		} catch (IOException e) {
 			System.err.println("Error while initializing iterator.");
 			e.printStackTrace();
@@ -89,15 +85,15 @@ public class DBFolderIterator implements Iterator<Rent> {
 		lineTokenizer = new StringTokenizer(line, lineDelimiter);					
 		int userId = Integer.valueOf(lineTokenizer.nextToken());
 		int rate = Integer.valueOf(lineTokenizer.nextToken());
-		Date date = null;
+		short day = DayCodec.NO_DAY;
 		try {
-			date = dateFormat.parse(lineTokenizer.nextToken());
-		} catch (ParseException e1) {
+			day = DayCodec.parse(lineTokenizer.nextToken());
+		} catch (IllegalArgumentException e1) {
 			System.err.println("Error while parsing file " + currentFile().getName()
 					+ ". line = " + line);
 			e1.printStackTrace();
 		}
-		return new Rent(movieId, userId, date, rate);
+		return new Rent(movieId, userId, day, rate);
 	}
 	
 	@Override
@@ -105,6 +101,26 @@ public class DBFolderIterator implements Iterator<Rent> {
 		throw new UnsupportedOperationException("Netflix DB is ReadOnly");
 	}
 	
+	/**
+	 * Lists the movie files of the specified training set folder sorted by name,
+	 * which is the order in which {@link #DBFolderIterator(String)} reads them.
+	 * 
+	 * @param path the training set folder.
+	 * @return the movie files of the folder.
+	 */
+	public static File[] listMovieFiles(String path) {
+		File[] files = new File(path).listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.contains(".txt");
+			}
+			
+		});
+		Arrays.sort(files);
+		return files;
+	}
+	
 	private boolean filesExhausted() {
 		return current == files.length - 1;
 	}
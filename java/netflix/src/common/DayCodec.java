@@ -0,0 +1,225 @@
+package common;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Encodes rent dates as a 16 bit number of days since the dataset epoch
+ * (1998-01-01), which covers the years 1908 to 2087. Unlike a shared
+ * {@link SimpleDateFormat} all methods are thread safe and, except
+ * {@link #toDate(short)}, {@link #format(short)} and {@link #newDateFormat()},
+ * allocation free.
+ * <p>
+ * Dates are interpreted in the default time zone, the same way
+ * {@link SimpleDateFormat} parsed them, so {@link #toDate(short)} of a parsed
+ * day equals the date the format would have parsed.
+ *
+ * @author Assaf Mizrachi
+ *
+ */
+public final class DayCodec {
+
+	/**
+	 * Day of a rent with no date (e.g. a probe question).
+	 */
+	public static final short NO_DAY = Short.MIN_VALUE;
+
+	/**
+	 * The format of the dates in the Netflix files.
+	 */
+	public static final String DATE_PATTERN = "yyyy-MM-dd";
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	//days from 1970-01-01 to the dataset epoch 1998-01-01
+	private static final int EPOCH = daysFromCivil(1998, 1, 1);
+
+	private DayCodec() {
+	}
+
+	/**
+	 * @param year the year
+	 * @param month the month (1-12)
+	 * @param dayOfMonth the day of month (1-31)
+	 * @return the day number of the date.
+	 * @throws IllegalArgumentException if the date is out of the encoded range.
+	 */
+	public static short toDay(int year, int month, int dayOfMonth) {
+		if (month < 1 || month > 12 || dayOfMonth < 1 || dayOfMonth > 31) {
+			throw new IllegalArgumentException("Illegal date " + year + "-" + month + "-" + dayOfMonth);
+		}
+		return checkRange(daysFromCivil(year, month, dayOfMonth) - EPOCH);
+	}
+
+	/**
+	 * Parses a <code>yyyy-MM-dd</code> date.
+	 *
+	 * @param date the date text
+	 * @return the day number of the date.
+	 * @throws IllegalArgumentException if the text is not a valid date.
+	 */
+	public static short parse(CharSequence date) {
+		if (date.length() != DATE_PATTERN.length() || date.charAt(4) != '-' || date.charAt(7) != '-') {
+			throw new IllegalArgumentException("Unparseable date: " + date);
+		}
+		return toDay(digits(date, 0, 4), digits(date, 5, 7), digits(date, 8, 10));
+	}
+
+	/**
+	 * @param date the date, may be <code>null</code>
+	 * @return the day number of the date, {@link #NO_DAY} if it is <code>null</code>.
+	 */
+	public static short fromDate(Date date) {
+		if (date == null) {
+			return NO_DAY;
+		}
+		long millis = date.getTime();
+		millis += TimeZone.getDefault().getOffset(millis);
+		return checkRange(floorDiv(millis, MILLIS_PER_DAY) - EPOCH);
+	}
+
+	/**
+	 * Creates a date of the specified day at midnight of the default time zone.
+	 * When daylight saving time starts at midnight, e.g. in America/Sao_Paulo,
+	 * the date is the first instant of the day, as a lenient {@link Calendar}
+	 * and {@link SimpleDateFormat} create it.
+	 *
+	 * @param day the day number
+	 * @return the date of the day, <code>null</code> for {@link #NO_DAY}.
+	 */
+	public static Date toDate(short day) {
+		if (day == NO_DAY) {
+			return null;
+		}
+		Calendar calendar = new GregorianCalendar();
+		calendar.clear();
+		calendar.set(getYear(day), getMonth(day) - 1, getDayOfMonth(day));
+		return calendar.getTime();
+	}
+
+	/**
+	 * @param day the day number
+	 * @return the year of the day.
+	 */
+	public static int getYear(short day) {
+		int z = EPOCH + day + 719468;
+		int era = (z >= 0 ? z : z - 146096) / 146097;
+		int doe = z - era * 146097;
+		int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		int mp = (5 * doy + 2) / 153;
+		return yoe + era * 400 + (mp < 10 ? 0 : 1);
+	}
+
+	/**
+	 * @param day the day number
+	 * @return the month (1-12) of the day.
+	 */
+	public static int getMonth(short day) {
+		int mp = (5 * dayOfYearFromMarch(day) + 2) / 153;
+		return mp < 10 ? mp + 3 : mp - 9;
+	}
+
+	/**
+	 * @param day the day number
+	 * @return the day of month (1-31) of the day.
+	 */
+	public static int getDayOfMonth(short day) {
+		int doy = dayOfYearFromMarch(day);
+		int mp = (5 * doy + 2) / 153;
+		return doy - (153 * mp + 2) / 5 + 1;
+	}
+
+	/**
+	 * Appends the <code>yyyy-MM-dd</code> text of the day to a builder.
+	 *
+	 * @param day the day number
+	 * @param builder the builder to append to
+	 * @return the builder
+	 */
+	public static StringBuilder format(short day, StringBuilder builder) {
+		if (day == NO_DAY) {
+			return builder.append("null");
+		}
+		int year = getYear(day);
+		int month = getMonth(day);
+		int dayOfMonth = getDayOfMonth(day);
+		builder.append(year).append('-');
+		if (month < 10) {
+			builder.append('0');
+		}
+		builder.append(month).append('-');
+		if (dayOfMonth < 10) {
+			builder.append('0');
+		}
+		return builder.append(dayOfMonth);
+	}
+
+	/**
+	 * @param day the day number
+	 * @return the <code>yyyy-MM-dd</code> text of the day.
+	 */
+	public static String format(short day) {
+		return format(day, new StringBuilder(10)).toString();
+	}
+
+	/**
+	 * {@link DateFormat} is not thread safe so a new instance is created on
+	 * every call.
+	 *
+	 * @return a new <code>yyyy-MM-dd</code> date format.
+	 */
+	public static DateFormat newDateFormat() {
+		return new SimpleDateFormat(DATE_PATTERN);
+	}
+
+	private static int dayOfYearFromMarch(short day) {
+		int z = EPOCH + day + 719468;
+		int era = (z >= 0 ? z : z - 146096) / 146097;
+		int doe = z - era * 146097;
+		int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		return doe - (365 * yoe + yoe / 4 - yoe / 100);
+	}
+
+	//days from 1970-01-01 of a proleptic gregorian date
+	private static int daysFromCivil(int year, int month, int dayOfMonth) {
+		int y = month <= 2 ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yoe = y - era * 400;
+		int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	private static int digits(CharSequence text, int from, int to) {
+		int value = 0;
+		char c;
+		for (int i = from; i < to; i++) {
+			c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new IllegalArgumentException("Unparseable date: " + text);
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static short checkRange(long day) {
+		if (day <= NO_DAY || day > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Day " + day + " is out of the encoded range");
+		}
+		return (short) day;
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0)) {
+			q--;
+		}
+		return q;
+	}
+}
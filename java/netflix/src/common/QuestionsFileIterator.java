@@ -4,10 +4,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Iterator;
 import java.util.StringTokenizer;
 
@@ -20,7 +16,6 @@ public class QuestionsFileIterator implements Iterator<Rent> {
 	private String line;
 	private StringTokenizer lineTokenizer;
 	private String lineDelimiter = ",";
-	DateFormat dateFormat;
 
 	private int movieId;
 
@@ -28,7 +23,6 @@ public class QuestionsFileIterator implements Iterator<Rent> {
 		try {
 			br = new BufferedReader(new FileReader(new File(fileName)));
 			line = br.readLine();
-			dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -53,16 +47,16 @@ public class QuestionsFileIterator implements Iterator<Rent> {
 		}
 		lineTokenizer = new StringTokenizer(line, lineDelimiter);
 		int userId = Integer.valueOf(lineTokenizer.nextToken());
-		Date date = null;
+		short day = DayCodec.NO_DAY;
 		if (lineTokenizer.hasMoreTokens()) {
 			try {
-				date = dateFormat.parse(lineTokenizer.nextToken());
-			} catch (ParseException e) {
+				day = DayCodec.parse(lineTokenizer.nextToken());
+			} catch (IllegalArgumentException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
 		}
-		Rent rent = new Rent(movieId, userId, date, 0);
+		Rent rent = new Rent(movieId, userId, day, 0);
 		// reading next line
 		try {
 			line = br.readLine();
@@ -0,0 +1,22 @@
+package common;
+
+/**
+ * Receives the rents decoded by a {@link RentsFileParser}. All values are passed
+ * as primitives so no object is created per line.
+ *
+ * @author Assaf Mizrachi
+ *
+ */
+public interface RentHandler {
+
+	/**
+	 * Handles a single rent.
+	 *
+	 * @param movieId the movie id
+	 * @param userId the user id
+	 * @param rate the rate, 0 for questions
+	 * @param day the day number of the rent as encoded by {@link DayCodec},
+	 * {@link DayCodec#NO_DAY} if the line has no date
+	 */
+	public void handleRent(int movieId, int userId, int rate, short day);
+}
@@ -0,0 +1,212 @@
+package common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import dbanalysis.RatingStats;
+
+/**
+ * Parses Netflix rents and questions files directly from their bytes. Files are
+ * memory mapped and every line is decoded into primitives which are passed to a
+ * {@link RentHandler}, so unlike {@link DBFolderIterator}, {@link DBFileIterator}
+ * and {@link QuestionsFileIterator} no object is created per line.
+ * <p>
+ * A rents file has a <code>movieId:</code> header followed by
+ * <code>userId,rate,yyyy-MM-dd</code> lines, of rates 1 to 5. A questions file has
+ * <code>movieId:</code> headers followed by <code>userId</code> (probe) or
+ * <code>userId,yyyy-MM-dd</code> (qualifying) lines.
+ * <p>
+ * A parser instance is not thread safe. The static methods may be used
+ * concurrently.
+ *
+ * @author Assaf Mizrachi
+ *
+ */
+public class RentsFileParser {
+
+	private ByteBuffer buf;
+
+	private int pos;
+
+	private int limit;
+
+	//number of digits read by the last call to readInt()
+	private int digits;
+
+	/**
+	 * Parses a rents file.
+	 *
+	 * @param file the rents file
+	 * @param handler handler of the parsed rents
+	 * @return the number of rents parsed
+	 * @throws IOException if the file could not be read or is malformed
+	 */
+	public static int parseRents(File file, RentHandler handler) throws IOException {
+		return new RentsFileParser().parse(map(file), true, handler);
+	}
+
+	/**
+	 * Parses all rents files of the specified array, in their order.
+	 *
+	 * @param files the rents files
+	 * @param handler handler of the parsed rents
+	 * @return the number of rents parsed
+	 * @throws IOException if one of the files could not be read or is malformed
+	 */
+	public static long parseRents(File[] files, RentHandler handler) throws IOException {
+		RentsFileParser parser = new RentsFileParser();
+		long rents = 0;
+		for (File file : files) {
+			rents += parser.parse(map(file), true, handler);
+		}
+		return rents;
+	}
+
+	/**
+	 * Parses a questions (qualifying or probe) file. Questions are passed to
+	 * the handler with a rate of 0.
+	 *
+	 * @param file the questions file
+	 * @param handler handler of the parsed questions
+	 * @return the number of questions parsed
+	 * @throws IOException if the file could not be read or is malformed
+	 */
+	public static int parseQuestions(File file, RentHandler handler) throws IOException {
+		return new RentsFileParser().parse(map(file), false, handler);
+	}
+
+	/**
+	 * Parses the remaining bytes of the specified buffer. The buffer position
+	 * is not changed.
+	 *
+	 * @param buffer the bytes to parse
+	 * @param rated <code>true</code> for rents lines, <code>false</code> for
+	 * questions lines
+	 * @param handler handler of the parsed lines
+	 * @return the number of lines passed to the handler
+	 * @throws IOException if the bytes are malformed
+	 */
+	public int parse(ByteBuffer buffer, boolean rated, RentHandler handler) throws IOException {
+		buf = buffer;
+		pos = buffer.position();
+		limit = buffer.limit();
+		int movieId = 0;
+		int lines = 0;
+		int lineStart, userId, rate, year, month, dayOfMonth;
+		short day;
+		boolean dated;
+		while (pos < limit) {
+			lineStart = pos;
+			userId = readInt();
+			if (digits == 0) {
+				//empty line
+				skipLine(lineStart);
+				continue;
+			}
+			if (peek() == ':') {
+				movieId = userId;
+				pos++;
+				skipLine(lineStart);
+				continue;
+			}
+			rate = 0;
+			day = DayCodec.NO_DAY;
+			dated = rated;
+			if (rated) {
+				expect(',', lineStart);
+				rate = readInt();
+				if (digits == 0 || rate < RatingStats.MIN_RATE || rate > RatingStats.MAX_RATE) {
+					throw malformed(lineStart);
+				}
+				expect(',', lineStart);
+			} else if (peek() == ',') {
+				//qualifying lines are dated, probe lines are not
+				pos++;
+				dated = true;
+			}
+			if (dated) {
+				year = readInt();
+				expect('-', lineStart);
+				month = readInt();
+				expect('-', lineStart);
+				dayOfMonth = readInt();
+				if (digits == 0) {
+					throw malformed(lineStart);
+				}
+				try {
+					day = DayCodec.toDay(year, month, dayOfMonth);
+				} catch (IllegalArgumentException e) {
+					throw malformed(lineStart);
+				}
+			}
+			skipLine(lineStart);
+			handler.handleRent(movieId, userId, rate, day);
+			lines++;
+		}
+		return lines;
+	}
+
+	private int readInt() {
+		int value = 0;
+		int start = pos;
+		byte b;
+		while (pos < limit && (b = buf.get(pos)) >= '0' && b <= '9') {
+			value = value * 10 + (b - '0');
+			pos++;
+		}
+		digits = pos - start;
+		return value;
+	}
+
+	private int peek() {
+		return pos < limit ? buf.get(pos) : -1;
+	}
+
+	private void expect(char c, int lineStart) throws IOException {
+		if (peek() != c) {
+			throw malformed(lineStart);
+		}
+		pos++;
+	}
+
+	private void skipLine(int lineStart) throws IOException {
+		byte b;
+		while (pos < limit) {
+			b = buf.get(pos++);
+			if (b == '\n') {
+				return;
+			} else if (b != '\r') {
+				throw malformed(lineStart);
+			}
+		}
+	}
+
+	private IOException malformed(int lineStart) {
+		int end = lineStart;
+		while (end < limit && end - lineStart < 80 && buf.get(end) != '\n') {
+			end++;
+		}
+		byte[] line = new byte[end - lineStart];
+		for (int i = 0; i < line.length; i++) {
+			line[i] = buf.get(lineStart + i);
+		}
+		return new IOException("Malformed line at byte " + lineStart + ": " + new String(line));
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File is too big to be mapped: " + file);
+			}
+			//the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+}
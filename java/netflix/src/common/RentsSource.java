@@ -0,0 +1,86 @@
+package common;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A source of rents or questions which may be parsed any number of times, for
+ * stores that are presized by a counting pass before they are filled.
+ *
+ * @author Assaf Mizrachi
+ *
+ */
+public abstract class RentsSource {
+
+	/**
+	 * Passes all rents of the source, in order, to the specified handler.
+	 *
+	 * @param handler the handler
+	 * @return the number of rents passed to the handler
+	 * @throws IOException if the source could not be read
+	 */
+	public abstract long parse(RentHandler handler) throws IOException;
+
+	/**
+	 * Opens a training set, which may be a folder of movie files, an archive read
+	 * by {@link ArchiveRentsReader} or a columnar rents file.
+	 *
+	 * @param source the training set
+	 * @param numOfThreads number of threads inflating the entries of an archive
+	 * @return the rents source
+	 */
+	public static RentsSource forRents(final File source, final int numOfThreads) {
+		if (ColumnarRentsFile.isColumnar(source)) {
+			return forColumnar(source);
+		}
+		if (ArchiveRentsReader.isArchive(source)) {
+			return new RentsSource() {
+
+				@Override
+				public long parse(RentHandler handler) throws IOException {
+					return new ArchiveRentsReader(source, numOfThreads).parse(handler);
+				}
+			};
+		}
+		return new RentsSource() {
+
+			@Override
+			public long parse(RentHandler handler) throws IOException {
+				return RentsFileParser.parseRents(DBFolderIterator.listMovieFiles(source.getPath()),
+						handler);
+			}
+		};
+	}
+
+	/**
+	 * Opens a questions (qualifying or probe) file, which may be a text file or a
+	 * columnar rents file.
+	 *
+	 * @param source the questions file
+	 * @return the questions source
+	 */
+	public static RentsSource forQuestions(final File source) {
+		if (ColumnarRentsFile.isColumnar(source)) {
+			return forColumnar(source);
+		}
+		return new RentsSource() {
+
+			@Override
+			public long parse(RentHandler handler) throws IOException {
+				return RentsFileParser.parseQuestions(source, handler);
+			}
+		};
+	}
+
+	private static RentsSource forColumnar(final File source) {
+		return new RentsSource() {
+
+			@Override
+			public long parse(RentHandler handler) throws IOException {
+				ColumnarRentsFile file = new ColumnarRentsFile(source);
+				file.scan(handler);
+				return file.size();
+			}
+		};
+	}
+}
@@ -15,6 +15,7 @@ import dbanalysis.FastNetflixDB;
 import dbanalysis.FastestNetflixDB;
 import dbanalysis.NetflixAnalyzer;
 import dbanalysis.NetflixDB;
+import dbanalysis.NetflixDBSnapshot;
 import dbanalysis.Rent;
 
 public class Utilities {
@@ -108,6 +109,13 @@ public class Utilities {
 		}
 	}
 	
+	/**
+	 * Serializes an object to a file. A {@link NetflixDB} saved to a file with the
+	 * {@link NetflixDBSnapshot#EXTENSION} extension is written as a DB snapshot.
+	 * 
+	 * @param obj the object
+	 * @param fileName the file name
+	 */
 	public static void saveObjectToFile(Object obj, String fileName) {
 		ObjectOutputStream oos;
 		try {
@@ -116,6 +124,11 @@ public class Utilities {
 			if (file.exists()) {
 				file.delete();
 			}
+			if (obj instanceof NetflixDB && fileName.endsWith(NetflixDBSnapshot.EXTENSION)) {
+				NetflixDBSnapshot.write((NetflixDB) obj, file);
+				System.out.println("Finished.");
+				return;
+			}
 			file.createNewFile();
 			oos = new ObjectOutputStream(new FileOutputStream(file));
 			oos.writeObject(obj);
@@ -0,0 +1,195 @@
+package dbanalysis;
+
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live progress of a DB build. The counters are updated by the builder (and its
+ * loader threads) and read through JMX under {@link #OBJECT_NAME} and by a
+ * periodic log line, so a slow build can be told from a stuck one.
+ *
+ * @author mizrachi
+ *
+ */
+public class BuildProgress implements BuildProgressMBean {
+
+	/**
+	 * JMX name the progress is registered under.
+	 */
+	public static final String OBJECT_NAME = "dbanalysis:type=NetflixDBBuilder";
+
+	private volatile String phase = "Starting";
+
+	private AtomicLong rentsRead = new AtomicLong();
+
+	private AtomicLong questionsRead = new AtomicLong();
+
+	private AtomicInteger filesDone = new AtomicInteger();
+
+	private volatile int totalFiles;
+
+	//counters at the time the build (or resume) started, for the rates
+	private volatile long startTime = System.currentTimeMillis();
+
+	private volatile long startRents;
+
+	private volatile int startFiles;
+
+	private volatile long lastCheckpointTime;
+
+	private Timer timer;
+
+	private ObjectName name;
+
+	/**
+	 * Sets the counters restored from a checkpoint. Rates are measured from now on.
+	 *
+	 * @param rents number of rents already read
+	 * @param files number of files already read
+	 */
+	public void resume(long rents, int files) {
+		rentsRead.set(rents);
+		filesDone.set(files);
+		startRents = rents;
+		startFiles = files;
+		startTime = System.currentTimeMillis();
+	}
+
+	public void setPhase(String phase) {
+		this.phase = phase;
+	}
+
+	public void setTotalFiles(int totalFiles) {
+		this.totalFiles = totalFiles;
+	}
+
+	public void addRents(long rents) {
+		rentsRead.addAndGet(rents);
+	}
+
+	public void addQuestions(long questions) {
+		questionsRead.addAndGet(questions);
+	}
+
+	public void fileDone() {
+		filesDone.incrementAndGet();
+	}
+
+	public void checkpointWritten() {
+		lastCheckpointTime = System.currentTimeMillis();
+	}
+
+	@Override
+	public String getPhase() {
+		return phase;
+	}
+
+	@Override
+	public long getRentsRead() {
+		return rentsRead.get();
+	}
+
+	@Override
+	public long getQuestionsRead() {
+		return questionsRead.get();
+	}
+
+	@Override
+	public int getFilesDone() {
+		return filesDone.get();
+	}
+
+	@Override
+	public int getTotalFiles() {
+		return totalFiles;
+	}
+
+	@Override
+	public double getRentsPerSecond() {
+		long elapsed = System.currentTimeMillis() - startTime;
+		return elapsed == 0 ? 0 : (rentsRead.get() - startRents) * 1000.0 / elapsed;
+	}
+
+	@Override
+	public long getEtaSeconds() {
+		int done = filesDone.get() - startFiles;
+		if (done <= 0 || totalFiles == 0) {
+			return -1;
+		}
+		long elapsed = System.currentTimeMillis() - startTime;
+		return elapsed * (totalFiles - filesDone.get()) / done / 1000;
+	}
+
+	@Override
+	public long getHeapUsed() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@Override
+	public long getLastCheckpointTime() {
+		return lastCheckpointTime;
+	}
+
+	@Override
+	public String toString() {
+		return phase + ": " + getFilesDone() + "/" + totalFiles + " files, "
+				+ getRentsRead() + " rents, " + getQuestionsRead() + " questions, "
+				+ Math.round(getRentsPerSecond()) + " rents/sec, ETA " + getEtaSeconds()
+				+ " sec, heap used " + (getHeapUsed() >> 20) + " MB";
+	}
+
+	/**
+	 * Registers the progress in the platform MBean server and starts logging it.
+	 *
+	 * @param logIntervalMillis interval of the log line, 0 for no logging
+	 */
+	public void start(long logIntervalMillis) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			System.err.println("Unable to register build progress MBean. " + e.getMessage());
+			name = null;
+		}
+		if (logIntervalMillis > 0) {
+			timer = new Timer("BuildProgressLogger", true);
+			timer.schedule(new TimerTask() {
+
+				@Override
+				public void run() {
+					System.out.println(BuildProgress.this);
+				}
+			}, logIntervalMillis, logIntervalMillis);
+		}
+	}
+
+	/**
+	 * Stops logging and unregisters the progress.
+	 */
+	public void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				System.err.println("Unable to unregister build progress MBean. " + e.getMessage());
+			}
+			name = null;
+		}
+	}
+}
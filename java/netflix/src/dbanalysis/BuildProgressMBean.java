@@ -0,0 +1,55 @@
+package dbanalysis;
+
+/**
+ * JMX management interface of {@link BuildProgress}.
+ *
+ * @author mizrachi
+ *
+ */
+public interface BuildProgressMBean {
+
+	/**
+	 * @return the current build phase
+	 */
+	public String getPhase();
+
+	/**
+	 * @return number of rents read so far, including the ones of a resumed checkpoint
+	 */
+	public long getRentsRead();
+
+	/**
+	 * @return number of questions read so far
+	 */
+	public long getQuestionsRead();
+
+	/**
+	 * @return number of rents files read so far, including the ones of a resumed checkpoint
+	 */
+	public int getFilesDone();
+
+	/**
+	 * @return total number of rents files to read
+	 */
+	public int getTotalFiles();
+
+	/**
+	 * @return the rents read per second since the build (or resume) started
+	 */
+	public double getRentsPerSecond();
+
+	/**
+	 * @return estimated seconds left until all rents files are read, -1 if unknown
+	 */
+	public long getEtaSeconds();
+
+	/**
+	 * @return bytes of heap currently used
+	 */
+	public long getHeapUsed();
+
+	/**
+	 * @return time of the last checkpoint in milliseconds, 0 if none was written
+	 */
+	public long getLastCheckpointTime();
+}
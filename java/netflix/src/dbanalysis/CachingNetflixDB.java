@@ -0,0 +1,468 @@
+package dbanalysis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import common.DayCodec;
+
+/**
+ * Read-through cache in front of another DB, usually a {@link SqlReadOnlyNetflixDB}
+ * where every read is a round trip to the server. Users, movies and rents read
+ * through the cache are kept in a least recently used cache of a bounded number of
+ * entries. The bound counts entries, not bytes: a user or movie takes as much as
+ * its rents, so a cache of popular movies takes far more memory than a cache of as
+ * many rents. Missing objects are cached too, so ids which are not in the DB are not
+ * looked up again. A {@link SqlReadOnlyNetflixDB} returns a user without rents for
+ * an id which is not in the DB, which the cache keeps, and returns, as missing.
+ * <p>
+ * With prefetching, a rent missing from the cache is read by reading its user, so
+ * the following rents of the same user are cache hits, and a user missing from the
+ * cache is read along with the users of the following ids. Neighbouring users are
+ * read by a single query of {@link SqlReadOnlyNetflixDB#readUsers(int[])}, other
+ * DBs are asked for the requested user only.
+ * <p>
+ * Writes go to the DB and drop the cached entries of their user, movie and rent.
+ * Objects returned by the cache are shared by all callers and must not be changed.
+ * Streams of the DB bypass the cache, so bulk reads do not evict its entries.
+ * Instances are thread safe if the DB is.
+ *
+ * @author mizrachi
+ *
+ */
+public class CachingNetflixDB implements NetflixDB, Closeable {
+
+	//cached result of a read of an object which is not in the DB
+	private static final Object MISSING = new Object();
+
+	private NetflixDB db;
+
+	private int maxObjects;
+
+	private int prefetch;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	//access ordered, guarded by itself
+	private LinkedHashMap<Object, Object> cache;
+
+	/**
+	 * Creates a cache without prefetching.
+	 *
+	 * @param db the cached DB
+	 * @param maxObjects maximal number of cached users, movies and rents, counted
+	 * as one entry each whatever their number of rents
+	 */
+	public CachingNetflixDB(NetflixDB db, int maxObjects) {
+		this(db, maxObjects, 0);
+	}
+
+	/**
+	 * @param db the cached DB
+	 * @param maxObjects maximal number of cached users, movies and rents, counted
+	 * as one entry each whatever their number of rents
+	 * @param prefetch number of users following a missing user id to read with it,
+	 * 0 for no prefetching
+	 */
+	public CachingNetflixDB(NetflixDB db, int maxObjects, int prefetch) {
+		if (maxObjects <= 0) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+		if (prefetch < 0) {
+			throw new IllegalArgumentException("Prefetch must not be negative");
+		}
+		this.db = db;
+		this.maxObjects = maxObjects;
+		this.prefetch = prefetch;
+		cache = new LinkedHashMap<Object, Object>(1024, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+				if (size() > CachingNetflixDB.this.maxObjects) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached DB
+	 */
+	public NetflixDB getDB() {
+		return db;
+	}
+
+	/**
+	 * @return the number of reads answered by the cache
+	 */
+	public long getHits() {
+		synchronized (cache) {
+			return hits;
+		}
+	}
+
+	/**
+	 * @return the number of reads passed to the DB
+	 */
+	public long getMisses() {
+		synchronized (cache) {
+			return misses;
+		}
+	}
+
+	/**
+	 * @return the number of entries evicted from the cache
+	 */
+	public long getEvictions() {
+		synchronized (cache) {
+			return evictions;
+		}
+	}
+
+	/**
+	 * @return the ratio of the reads answered by the cache, {@link Double#NaN} before
+	 * the first read
+	 */
+	public double getHitRatio() {
+		synchronized (cache) {
+			return (double) hits / (hits + misses);
+		}
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public int getCachedObjects() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Drops all the cached entries.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Closes the cached DB if it may be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		clear();
+		if (db instanceof Closeable) {
+			((Closeable) db).close();
+		}
+	}
+
+	@Override
+	public DBMovie readMovie(int movieId) {
+		Object key = new ObjectKey(false, movieId);
+		Object movie = lookup(key);
+		if (movie == null) {
+			movie = db.readMovie(movieId);
+			cache(key, movie);
+		}
+		return movie == MISSING ? null : (DBMovie) movie;
+	}
+
+	@Override
+	public DBUser readUser(int userId) {
+		Object key = new ObjectKey(true, userId);
+		Object user = lookup(key);
+		if (user == null) {
+			if (prefetch > 0 && db instanceof SqlReadOnlyNetflixDB) {
+				user = prefetchUsers(userId);
+			} else {
+				user = orMissing(db.readUser(userId));
+				cache(key, user);
+			}
+		}
+		return user == MISSING ? null : (DBUser) user;
+	}
+
+	@Override
+	public Rent readRent(int movieId, int userId, Date date) {
+		short day = date == null ? DayCodec.NO_DAY : DayCodec.fromDate(date);
+		Object key = new RentKey(movieId, userId, day);
+		Object rent;
+		synchronized (cache) {
+			rent = cache.get(key);
+			if (rent == null) {
+				//answering from a cached user
+				Object user = cache.get(new ObjectKey(true, userId));
+				if (user != null) {
+					rent = user == MISSING ? MISSING : findRent((DBUser) user, movieId, day);
+				}
+			}
+			if (rent != null) {
+				hits++;
+			}
+		}
+		if (rent == null) {
+			if (prefetch > 0) {
+				//the user is read with its other rents and the next users
+				DBUser user = readUser(userId);
+				rent = user == null ? MISSING : findRent(user, movieId, day);
+			} else {
+				synchronized (cache) {
+					misses++;
+				}
+				rent = db.readRent(movieId, userId, date);
+				cache(key, rent);
+			}
+		}
+		return rent == MISSING ? null : (Rent) rent;
+	}
+
+	@Override
+	public int rateOf(int movieId, int userId) {
+		Rent rent = readRent(movieId, userId, null);
+		return rent == null ? DBUser.NO_RATE : rent.getRate();
+	}
+
+	@Override
+	public Rent readQuestion(int movieId, int userId, Date date) {
+		return db.readQuestion(movieId, userId, date);
+	}
+
+	@Override
+	public void writeMovie(DBMovie movie) {
+		db.writeMovie(movie);
+		invalidate(new ObjectKey(false, movie.getId()));
+	}
+
+	@Override
+	public void writeUser(DBUser user) {
+		db.writeUser(user);
+		invalidate(new ObjectKey(true, user.getId()));
+	}
+
+	@Override
+	public void writeRent(Rent rent) {
+		db.writeRent(rent);
+		invalidate(rent);
+	}
+
+	@Override
+	public void writeQuestion(Rent unratedRent) {
+		db.writeQuestion(unratedRent);
+	}
+
+	@Override
+	public void removeRent(Rent rent) {
+		db.removeRent(rent);
+		invalidate(rent);
+	}
+
+	@Override
+	public void freeze() {
+		db.freeze();
+	}
+
+	@Override
+	public DBMovie[] getAllMovies() {
+		return db.getAllMovies();
+	}
+
+	@Override
+	public DBUser[] getAllUsers() {
+		return db.getAllUsers();
+	}
+
+	@Override
+	public int getNumberOfMovies() {
+		return db.getNumberOfMovies();
+	}
+
+	@Override
+	public int getNumberOfUsers() {
+		return db.getNumberOfUsers();
+	}
+
+	@Override
+	public UserIdMap getUserIdMap() {
+		return db.getUserIdMap();
+	}
+
+	@Override
+	public DateFormat getDateFormat() {
+		return db.getDateFormat();
+	}
+
+	@Override
+	public Iterator<Rent> rentsIterator() {
+		return db.rentsIterator();
+	}
+
+	@Override
+	public Stream<Rent> ratingsStream() {
+		return db.ratingsStream();
+	}
+
+	@Override
+	public Stream<DBUser> usersStream() {
+		return db.usersStream();
+	}
+
+	@Override
+	public Stream<DBMovie> moviesStream() {
+		return db.moviesStream();
+	}
+
+	private Object prefetchUsers(int userId) {
+		int[] userIds = new int[prefetch + 1];
+		for (int i = 0; i < userIds.length; i++) {
+			userIds[i] = userId + i;
+		}
+		DBUser[] users = ((SqlReadOnlyNetflixDB) db).readUsers(userIds);
+		if (users == null) {
+			//DB error, already reported
+			return MISSING;
+		}
+		synchronized (cache) {
+			for (int i = users.length - 1; i > 0; i--) {
+				Object key = new ObjectKey(true, userIds[i]);
+				if (!cache.containsKey(key)) {
+					cache.put(key, orMissing(users[i]));
+				}
+			}
+		}
+		Object user = orMissing(users[0]);
+		cache(new ObjectKey(true, userId), user);
+		return user;
+	}
+
+	/**
+	 * @param user a user read from the DB, <code>null</code> if it is missing
+	 * @return the user, {@link #MISSING} if it is <code>null</code> or an empty user
+	 * of a {@link SqlReadOnlyNetflixDB}, which has no other way to tell that the user
+	 * is not in the DB
+	 */
+	private Object orMissing(DBUser user) {
+		if (user == null || (db instanceof SqlReadOnlyNetflixDB && user.getRentStore().size() == 0)) {
+			return MISSING;
+		}
+		return user;
+	}
+
+	private static Object findRent(DBUser user, int movieId, short day) {
+		for (Rent rent : user.getRentsForMovieId(movieId)) {
+			if (day == DayCodec.NO_DAY || rent.getDay() == day) {
+				return rent;
+			}
+		}
+		return MISSING;
+	}
+
+	private Object lookup(Object key) {
+		synchronized (cache) {
+			Object value = cache.get(key);
+			if (value != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+			return value;
+		}
+	}
+
+	private void cache(Object key, Object value) {
+		synchronized (cache) {
+			cache.put(key, value == null ? MISSING : value);
+		}
+	}
+
+	private void invalidate(Object key) {
+		synchronized (cache) {
+			cache.remove(key);
+		}
+	}
+
+	private void invalidate(Rent rent) {
+		synchronized (cache) {
+			cache.remove(new ObjectKey(true, rent.getUserId()));
+			cache.remove(new ObjectKey(false, rent.getMovieId()));
+			cache.remove(new RentKey(rent.getMovieId(), rent.getUserId(), rent.getDay()));
+			//a rent read without a date
+			cache.remove(new RentKey(rent.getMovieId(), rent.getUserId(), DayCodec.NO_DAY));
+		}
+	}
+
+	/**
+	 * Key of a cached user or movie.
+	 */
+	private static final class ObjectKey {
+
+		private final boolean user;
+
+		private final int id;
+
+		ObjectKey(boolean user, int id) {
+			this.user = user;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ObjectKey)) {
+				return false;
+			}
+			ObjectKey other = (ObjectKey) obj;
+			return user == other.user && id == other.id;
+		}
+
+		@Override
+		public int hashCode() {
+			return user ? ~id : id;
+		}
+	}
+
+	/**
+	 * Key of a cached rent, {@link DayCodec#NO_DAY} for a rent read without a date.
+	 */
+	private static final class RentKey {
+
+		private final int movieId;
+
+		private final int userId;
+
+		private final short day;
+
+		RentKey(int movieId, int userId, short day) {
+			this.movieId = movieId;
+			this.userId = userId;
+			this.day = day;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RentKey)) {
+				return false;
+			}
+			RentKey other = (RentKey) obj;
+			return movieId == other.movieId && userId == other.userId && day == other.day;
+		}
+
+		@Override
+		public int hashCode() {
+			return (userId * 31 + movieId) * 31 + day;
+		}
+	}
+}
@@ -0,0 +1,544 @@
+package dbanalysis;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import common.DayCodec;
+
+/**
+ * DB for builders writing from several threads. Users and movies are kept in
+ * concurrent maps, and the rents of a user or movie are changed under one of a
+ * fixed set of locks chosen by the user or movie id (lock striping), so writers
+ * of different users and movies do not contend.
+ * <p>
+ * {@link #upsertRent(Rent)} adds a rent, replacing the rent the user already has
+ * for the movie, and updates the statistics of both in one call, instead of the
+ * read, update and write sequence of {@link NetflixDBBuilder}. The user lock is
+ * always taken before the movie lock, so concurrent upserts of the same user and
+ * movie are applied in the same order to both. The movie ids of every user are
+ * kept in a hash set while the DB is written, so a rent of a new movie is added
+ * in constant time whatever the order of the rents, and the rents of the user are
+ * searched only when the user may have the movie already. The sets take about 8
+ * bytes per rent and are dropped by {@link #freeze()}.
+ * <p>
+ * {@link #freeze()} makes the DB immutable: the rents of the users and movies are
+ * moved into a single frozen store, which every user and movie holds a read only
+ * view of, see {@link SharedRents}, the users and movies are kept in arrays read
+ * without locks, and every write operation throws
+ * {@link UnsupportedOperationException}. The arrays returned by
+ * {@link #getAllUsers()} and {@link #getAllMovies()} are copies. A thawed DB copies
+ * the rents of a user or movie back into a store of its own when they are written.
+ * Questions are looked up in an index built on the first lookup after a question
+ * is written, see {@link RatingIndex}.
+ * Reading a user or movie while it is written is not safe before the DB is frozen.
+ *
+ * @author mizrachi
+ *
+ */
+public class ConcurrentNetflixDB implements Serializable, NetflixDB {
+
+	private static final long serialVersionUID = 6488020725113391470L;
+
+	private static final int STRIPES = 256;
+
+	private ConcurrentHashMap<Integer, DBMovie> movies;
+
+	private ConcurrentHashMap<Integer, DBUser> users;
+
+	private ConcurrentLinkedQueue<Rent> questions;
+
+	private volatile boolean frozen;
+
+	private transient Object[] userLocks;
+
+	private transient Object[] movieLocks;
+
+	//movie ids of the rents of every user, by user id, while the DB is written
+	private transient ConcurrentHashMap<Integer, MovieIds> userMovieIds;
+
+	private transient volatile RatingIndex questionIndex;
+
+	//read optimized view, built by freeze()
+	private transient DBMovie[] frozenMovies;
+
+	private transient UserIdMap frozenUserIds;
+
+	private transient DBUser[] frozenUsers;
+
+	//the rents of all the users and movies of a frozen DB
+	private transient RentStore sharedRents;
+
+	public ConcurrentNetflixDB() {
+		movies = new ConcurrentHashMap<Integer, DBMovie>(32768, 0.75f, STRIPES);
+		users = new ConcurrentHashMap<Integer, DBUser>(1 << 20, 0.75f, STRIPES);
+		questions = new ConcurrentLinkedQueue<Rent>();
+		createLocks();
+	}
+
+	/**
+	 * Adds a rent, creating its user and movie if needed. A rent the user already
+	 * has for the movie is replaced and the statistics of both are updated.
+	 *
+	 * @param rent the rent
+	 * @return the replaced rent, <code>null</code> if the user had no rent of the movie
+	 */
+	public Rent upsertRent(Rent rent) {
+		checkWritable();
+		DBUser user = users.get(rent.getUserId());
+		if (user == null) {
+			DBUser created = new DBUser(rent.getUserId());
+			user = users.putIfAbsent(rent.getUserId(), created);
+			if (user == null) {
+				user = created;
+			}
+		}
+		DBMovie movie = movies.get(rent.getMovieId());
+		if (movie == null) {
+			DBMovie created = new DBMovie(rent.getMovieId());
+			movie = movies.putIfAbsent(rent.getMovieId(), created);
+			if (movie == null) {
+				movie = created;
+			}
+		}
+		synchronized (userLocks[stripe(rent.getUserId())]) {
+			user.unshareRents();
+			RentStore userRents = user.getRentStore();
+			//a new movie of the user is not searched for
+			int index = movieIdsOf(user).add(rent.getMovieId()) ? -1 : userRents.indexOfMovieId(rent.getMovieId());
+			Rent previous = index < 0 ? null : userRents.getRent(index);
+			if (previous != null && previous.equals(rent)) {
+				return previous;
+			}
+			if (previous != null) {
+				userRents.remove(index);
+				user.revertRent(previous);
+			}
+			user.updateRent(rent);
+			user.addRent(rent);
+			synchronized (movieLocks[stripe(rent.getMovieId())]) {
+				movie.unshareRents();
+				if (previous != null) {
+					movie.getRentStore().remove(previous);
+					movie.revertRent(previous);
+				}
+				movie.updateRent(rent);
+				movie.addRent(rent);
+			}
+			return previous;
+		}
+	}
+
+	/**
+	 * @param user a user of the DB, whose lock is held
+	 * @return the movie ids of the rents of the user, collected on the first call
+	 */
+	private MovieIds movieIdsOf(DBUser user) {
+		MovieIds movieIds = userMovieIds.get(user.getId());
+		if (movieIds == null) {
+			RentStore rents = user.getRentStore();
+			movieIds = new MovieIds(rents.size());
+			for (int i = 0; i < rents.size(); i++) {
+				movieIds.add(rents.getMovieId(i));
+			}
+			userMovieIds.put(user.getId(), movieIds);
+		}
+		return movieIds;
+	}
+
+	/**
+	 * Makes the DB immutable and read optimized. Calling it again does nothing.
+	 */
+	@Override
+	public synchronized void freeze() {
+		if (frozen) {
+			return;
+		}
+		buildFrozenView();
+		userMovieIds.clear();
+		frozen = true;
+	}
+
+	/**
+	 * @return <code>true</code> if the DB was frozen
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	/**
+	 * Makes a frozen DB writable again. The users and movies keep their views of
+	 * the frozen rents until their rents are written.
+	 */
+	public synchronized void thaw() {
+		frozen = false;
+		sharedRents = null;
+	}
+
+	private void buildFrozenView() {
+		int maxMovieId = 0;
+		for (Integer movieId : movies.keySet()) {
+			maxMovieId = Math.max(maxMovieId, movieId);
+		}
+		frozenMovies = new DBMovie[maxMovieId + 1];
+		for (DBMovie movie : movies.values()) {
+			movie.freeze();
+			frozenMovies[movie.getId()] = movie;
+		}
+		frozenUsers = sortedUsers();
+		int[] ids = new int[frozenUsers.length];
+		for (int i = 0; i < ids.length; i++) {
+			frozenUsers[i].freeze();
+			ids[i] = frozenUsers[i].getId();
+		}
+		frozenUserIds = new UserIdMap(ids, ids.length);
+		sharedRents = SharedRents.share(frozenMovies, frozenUserIds, frozenUsers);
+	}
+
+	private DBUser[] sortedUsers() {
+		DBUser[] all = users.values().toArray(new DBUser[0]);
+		Arrays.sort(all);
+		return all;
+	}
+
+	private void checkWritable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("DB is frozen.");
+		}
+	}
+
+	private static int stripe(int id) {
+		return (id & Integer.MAX_VALUE) % STRIPES;
+	}
+
+	private void createLocks() {
+		userMovieIds = new ConcurrentHashMap<Integer, MovieIds>(1 << 20, 0.75f, STRIPES);
+		userLocks = new Object[STRIPES];
+		movieLocks = new Object[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			userLocks[i] = new Object();
+			movieLocks[i] = new Object();
+		}
+	}
+
+	@Override
+	public DateFormat getDateFormat() {
+		return DayCodec.newDateFormat();
+	}
+
+	@Override
+	public DBMovie readMovie(int movieId) {
+		if (frozen) {
+			return movieId >= 0 && movieId < frozenMovies.length ? frozenMovies[movieId] : null;
+		}
+		return movies.get(movieId);
+	}
+
+	@Override
+	public DBUser readUser(int userId) {
+		if (frozen) {
+			int index = frozenUserIds.indexOf(userId);
+			return index == UserIdMap.NO_INDEX ? null : frozenUsers[index];
+		}
+		return users.get(userId);
+	}
+
+	@Override
+	public Rent readRent(int movieId, int userId, Date date) {
+		DBUser user = readUser(userId);
+		if (user == null) {
+			return null;
+		}
+		short day = date == null ? DayCodec.NO_DAY : DayCodec.fromDate(date);
+		for (Rent rent : user.getRentsForMovieId(movieId)) {
+			if (date == null || rent.getDay() == day) {
+				return rent;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int rateOf(int movieId, int userId) {
+		DBUser user = readUser(userId);
+		return user == null ? DBUser.NO_RATE : user.getRateForMovieId(movieId);
+	}
+	
+	/**
+	 * Looks the question up in an index of all the questions, built on the first
+	 * call after a question is written.
+	 */
+	@Override
+	public Rent readQuestion(int movieId, int userId, Date date) {
+		RatingIndex index = questionIndex;
+		if (index == null) {
+			synchronized (this) {
+				if (questionIndex == null) {
+					questionIndex = RatingIndex.of(questions, questions.size(), 0);
+				}
+				index = questionIndex;
+			}
+		}
+		return index.getRent(movieId, userId, date);
+	}
+
+	@Override
+	public void writeMovie(DBMovie movie) {
+		checkWritable();
+		movies.put(movie.getId(), movie);
+	}
+
+	@Override
+	public void writeUser(DBUser user) {
+		checkWritable();
+		synchronized (userLocks[stripe(user.getId())]) {
+			users.put(user.getId(), user);
+			userMovieIds.remove(user.getId());
+		}
+	}
+
+	/**
+	 * Adds the rent to its user and movie, which must have been written already.
+	 * Unlike {@link #upsertRent(Rent)} the statistics are not updated.
+	 */
+	@Override
+	public void writeRent(Rent rent) {
+		checkWritable();
+		synchronized (userLocks[stripe(rent.getUserId())]) {
+			DBUser user = users.get(rent.getUserId());
+			user.unshareRents();
+			movieIdsOf(user).add(rent.getMovieId());
+			user.addRent(rent);
+		}
+		synchronized (movieLocks[stripe(rent.getMovieId())]) {
+			DBMovie movie = movies.get(rent.getMovieId());
+			movie.unshareRents();
+			movie.addRent(rent);
+		}
+	}
+
+	@Override
+	public void writeQuestion(Rent unratedRent) {
+		checkWritable();
+		questions.add(unratedRent);
+		questionIndex = null;
+	}
+
+	@Override
+	public void removeRent(Rent rent) {
+		checkWritable();
+		synchronized (userLocks[stripe(rent.getUserId())]) {
+			DBUser user = users.get(rent.getUserId());
+			user.unshareRents();
+			user.removeRent(rent);
+		}
+		synchronized (movieLocks[stripe(rent.getMovieId())]) {
+			DBMovie movie = movies.get(rent.getMovieId());
+			movie.unshareRents();
+			movie.removeRent(rent);
+		}
+	}
+
+	/**
+	 * @return the movies by their id
+	 */
+	@Override
+	public DBMovie[] getAllMovies() {
+		if (frozen) {
+			return Arrays.copyOf(frozenMovies, frozenMovies.length);
+		}
+		DBMovie[] all = new DBMovie[getNumberOfMovies()];
+		for (DBMovie movie : movies.values()) {
+			if (movie.getId() < all.length) {
+				all[movie.getId()] = movie;
+			}
+		}
+		return all;
+	}
+
+	/**
+	 * @return the users sorted by their id
+	 */
+	@Override
+	public DBUser[] getAllUsers() {
+		if (frozen) {
+			return Arrays.copyOf(frozenUsers, frozenUsers.length);
+		}
+		return sortedUsers();
+	}
+
+	@Override
+	public int getNumberOfMovies() {
+		if (frozen) {
+			return frozenMovies.length;
+		}
+		int maxMovieId = 0;
+		for (Integer movieId : movies.keySet()) {
+			maxMovieId = Math.max(maxMovieId, movieId);
+		}
+		return maxMovieId + 1;
+	}
+
+	@Override
+	public int getNumberOfUsers() {
+		return frozen ? frozenUsers.length : users.size();
+	}
+
+	/**
+	 * Before the DB is frozen a new map of the current users is created on every call.
+	 */
+	@Override
+	public UserIdMap getUserIdMap() {
+		if (frozen) {
+			return frozenUserIds;
+		}
+		DBUser[] all = sortedUsers();
+		int[] ids = new int[all.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = all[i].getId();
+		}
+		return new UserIdMap(ids, ids.length);
+	}
+
+	/**
+	 * Iterates the rents by movie.
+	 */
+	@Override
+	public Iterator<Rent> rentsIterator() {
+		final DBMovie[] all = frozen ? frozenMovies : getAllMovies();
+		return new Iterator<Rent>() {
+
+			private int movieId = -1;
+
+			private RentStore rents = new RentStore();
+
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				while (next == rents.size() && movieId + 1 < all.length) {
+					movieId++;
+					rents = all[movieId] == null ? new RentStore() : all[movieId].getRentStore();
+					next = 0;
+				}
+				return next < rents.size();
+			}
+
+			@Override
+			public Rent next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return rents.getRent(next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Netflix DB is ReadOnly");
+			}
+		};
+	}
+
+	/**
+	 * Rents of a frozen DB are read from the store shared by the users and movies,
+	 * sized and split in halves, and by their movies otherwise.
+	 */
+	@Override
+	public Stream<Rent> ratingsStream() {
+		if (frozen) {
+			return StreamSupport.stream(sharedRents.spliterator(), false);
+		}
+		return NetflixDB.super.ratingsStream();
+	}
+
+	/**
+	 * Streams the users sorted by their id, exactly sized.
+	 */
+	@Override
+	public Stream<DBUser> usersStream() {
+		return Arrays.stream(frozen ? frozenUsers : sortedUsers());
+	}
+
+	/**
+	 * Streams the movies sorted by their id, exactly sized.
+	 */
+	@Override
+	public Stream<DBMovie> moviesStream() {
+		DBMovie[] all = frozen ? frozenMovies : getAllMovies();
+		DBMovie[] present = new DBMovie[all.length];
+		int count = 0;
+		for (DBMovie movie : all) {
+			if (movie != null) {
+				present[count++] = movie;
+			}
+		}
+		return Arrays.stream(present, 0, count);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		createLocks();
+		if (frozen) {
+			buildFrozenView();
+		}
+	}
+
+	/**
+	 * Open addressing hash set of the movie ids of a user. Ids of removed rents are
+	 * kept, so a movie id in the set may not be a rent of the user any more, while a
+	 * movie id missing from the set is surely not.
+	 */
+	private static class MovieIds {
+
+		//movie id + 1 by slot, 0 for an empty slot
+		private int[] slots;
+
+		private int size;
+
+		MovieIds(int expectedSize) {
+			slots = new int[Integer.highestOneBit(Math.max(4, expectedSize) * 2) * 2];
+		}
+
+		/**
+		 * @param movieId the movie id
+		 * @return <code>true</code> if the movie id was not in the set
+		 */
+		boolean add(int movieId) {
+			int key = movieId + 1;
+			int mask = slots.length - 1;
+			int hash = key * 0x9E3779B9;
+			int slot = (hash ^ hash >>> 16) & mask;
+			while (slots[slot] != 0) {
+				if (slots[slot] == key) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = key;
+			if (++size * 2 > slots.length) {
+				grow();
+			}
+			return true;
+		}
+
+		private void grow() {
+			int[] old = slots;
+			slots = new int[old.length * 2];
+			size = 0;
+			for (int key : old) {
+				if (key != 0) {
+					add(key - 1);
+				}
+			}
+		}
+	}
+}
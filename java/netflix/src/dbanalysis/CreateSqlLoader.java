@@ -5,7 +5,10 @@ package dbanalysis;
  * http://setupandconfig.blogspot.com/2008/04/loading-up-netflix-prize-data-into.html
  * @author mizrachi
  *
+ * @deprecated prints a MySQL script of a hard coded folder, use {@link SqlBulkLoader}
+ * which loads both rating tables in parallel through JDBC
  */
+@Deprecated
 public class CreateSqlLoader {  
 	 
 	   public static void main (String[] arg) {  
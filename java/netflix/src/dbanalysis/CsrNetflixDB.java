@@ -0,0 +1,857 @@
+package dbanalysis;
+
+import java.io.DataInput;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import common.DayCodec;
+import common.RentHandler;
+import common.RentsSource;
+
+/**
+ * Read only DB keeping the rents in two compressed sparse row (CSR) layouts in
+ * off-heap memory. The movie-major layout keeps the user id, day and rate of
+ * every rent grouped by movie, the user-major layout keeps the movie id, day and
+ * rate grouped by user. Rents of movie m are the movie rows
+ * [{@link #getMovieStart(int)}, {@link #getMovieEnd(int)}) and rents of user u are
+ * the user rows [{@link #getUserStart(int)}, {@link #getUserEnd(int)}), each in
+ * the order of the source. Rents of a single user are looked up by a binary search
+ * of the user rows when the rows of every user are sorted by movie id, as they are
+ * for a source ordered by movie, e.g. the training set folder.
+ * <p>
+ * A rent takes 12 bytes off-heap (7 movie-major, 5 user-major) and the row
+ * offsets take 4 bytes per movie id and per user on the heap, so the full training
+ * set of 100M rents takes about 1.2 GB. Users are kept by their dense index in a
+ * {@link UserIdMap}, given in ascending user id order. The store is presized by a counting pass
+ * over the source and filled by a second pass, see {@link #load(RentsSource, RentsSource)},
+ * or memory mapped from a {@link NetflixDBSnapshot}.
+ * <p>
+ * {@link #readUser(int)} and {@link #readMovie(int)} create a new {@link DBUser} or
+ * {@link DBMovie} view of the rows on every call, and the row accessors read the
+ * rows without creating any object. All write operations throw
+ * {@link UnsupportedOperationException}.
+ * 
+ * @author mizrachi
+ *
+ */
+public class CsrNetflixDB implements Serializable, NetflixDB {
+
+	private static final long serialVersionUID = -1954125537094874150L;
+	
+	//bytes per rent of each layout
+	private static final int MOVIE_ROW_SIZE = 4 + 2 + 1;
+	
+	private static final int USER_ROW_SIZE = 2 + 2 + 1;
+
+	private int size;
+	
+	private UserIdMap userIds;
+	
+	//rows of movie m are [movieOffsets[m], movieOffsets[m + 1])
+	private int[] movieOffsets;
+	
+	//rows of the user of dense index u are [userOffsets[u], userOffsets[u + 1])
+	private int[] userOffsets;
+	
+	private int[] movieQuestions;
+	
+	private int[] userQuestions;
+	
+	//the sections are written by writeObject
+	private transient ByteBuffer movieUserIdsSection;
+	
+	private transient ByteBuffer movieDaysSection;
+	
+	private transient ByteBuffer movieRatesSection;
+	
+	private transient ByteBuffer userMovieIdsSection;
+	
+	private transient ByteBuffer userDaysSection;
+	
+	private transient ByteBuffer userRatesSection;
+	
+	private transient IntBuffer movieUserIds;
+	
+	private transient ShortBuffer movieDays;
+	
+	private transient ByteBuffer movieRates;
+	
+	private transient CharBuffer userMovieIds;
+	
+	private transient ShortBuffer userDays;
+	
+	private transient ByteBuffer userRates;
+	
+	//whether the rows of every user are sorted by movie id, null until checked
+	private transient volatile Boolean userRowsByMovie;
+	
+	private CsrNetflixDB() {
+	}
+	
+	/**
+	 * Creates a DB over existing sections, see {@link #sections()} for their order.
+	 */
+	CsrNetflixDB(int size, UserIdMap userIds, int[] movieOffsets, int[] userOffsets, 
+			int[] movieQuestions, int[] userQuestions, ByteBuffer[] sections) {
+		this.size = size;
+		this.userIds = userIds;
+		this.movieOffsets = movieOffsets;
+		this.userOffsets = userOffsets;
+		this.movieQuestions = movieQuestions;
+		this.userQuestions = userQuestions;
+		movieUserIdsSection = sections[0];
+		movieDaysSection = sections[1];
+		movieRatesSection = sections[2];
+		userMovieIdsSection = sections[3];
+		userDaysSection = sections[4];
+		userRatesSection = sections[5];
+		createViews();
+	}
+	
+	/**
+	 * Builds the DB from a rents source and an optional questions source. The
+	 * rents source is parsed twice, once to count the rents of every user and
+	 * movie and once to write them into their rows.
+	 * 
+	 * @param rents the rents source
+	 * @param questions the questions source, may be <code>null</code>
+	 * @return the DB
+	 * @throws IOException if one of the sources could not be read
+	 */
+	public static CsrNetflixDB load(RentsSource rents, RentsSource questions) throws IOException {
+		CsrNetflixDB db = new CsrNetflixDB();
+		
+		//first pass - counting the rents of every user and movie
+		Counter counter = new Counter();
+		rents.parse(counter);
+		if (counter.size > Integer.MAX_VALUE / MOVIE_ROW_SIZE) {
+			throw new IOException("Too many rents for a CSR DB: " + counter.size);
+		}
+		db.size = (int) counter.size;
+		db.movieOffsets = toOffsets(counter.movieCounts, counter.maxMovieId);
+		//giving dense indices in ascending user id order
+		int[] ids = new int[counter.maxUserId + 1];
+		int numOfUsers = 0;
+		for (int userId = 0; userId <= counter.maxUserId; userId++) {
+			if (counter.userCounts[userId] > 0) {
+				counter.userCounts[numOfUsers] = counter.userCounts[userId];
+				ids[numOfUsers++] = userId;
+			}
+		}
+		db.userIds = new UserIdMap(ids, numOfUsers);
+		db.userOffsets = toOffsets(counter.userCounts, numOfUsers - 1);
+		db.movieQuestions = new int[db.movieOffsets.length - 1];
+		db.userQuestions = new int[numOfUsers];
+		db.allocate();
+		
+		//second pass - writing every rent into the next free row of its user and movie
+		rents.parse(new Writer(db));
+		
+		if (questions != null) {
+			questions.parse(new QuestionsCounter(db));
+		}
+		return db;
+	}
+	
+	/**
+	 * Builds the DB from the specified files.
+	 * 
+	 * @param rentsSource training set folder, archive or columnar rents file
+	 * @param questionsFile questions file, may be <code>null</code>
+	 * @return the DB
+	 * @throws IOException if one of the files could not be read
+	 */
+	public static CsrNetflixDB load(File rentsSource, File questionsFile) throws IOException {
+		return load(RentsSource.forRents(rentsSource, Runtime.getRuntime().availableProcessors()),
+				questionsFile == null ? null : RentsSource.forQuestions(questionsFile));
+	}
+	
+	/**
+	 * Copies the rents and questions counts of another DB.
+	 * 
+	 * @param source the DB to copy
+	 * @return the DB
+	 */
+	public static CsrNetflixDB copyOf(final NetflixDB source) {
+		if (source instanceof CsrNetflixDB) {
+			return (CsrNetflixDB) source;
+		}
+		CsrNetflixDB db;
+		try {
+			db = load(new RentsSource() {
+				
+				@Override
+				public long parse(RentHandler handler) {
+					long rents = 0;
+					Iterator<Rent> iterator = source.rentsIterator();
+					while (iterator.hasNext()) {
+						Rent rent = iterator.next();
+						handler.handleRent(rent.getMovieId(), rent.getUserId(), rent.getRate(), 
+								rent.getDay());
+						rents++;
+					}
+					return rents;
+				}
+			}, null);
+		} catch (IOException e) {
+			//the source above does not throw
+			throw new IllegalStateException(e);
+		}
+		for (DBMovie movie : source.getAllMovies()) {
+			if (movie != null && movie.getId() < db.movieQuestions.length) {
+				db.movieQuestions[movie.getId()] = movie.getNumOfQuestions();
+			}
+		}
+		for (DBUser user : source.getAllUsers()) {
+			int index = db.userIds.indexOf(user.getId());
+			if (index != UserIdMap.NO_INDEX) {
+				db.userQuestions[index] = user.getNumOfQuestions();
+			}
+		}
+		return db;
+	}
+	
+	private static int[] toOffsets(int[] counts, int maxId) {
+		int[] offsets = new int[maxId + 2];
+		for (int id = 0; id <= maxId; id++) {
+			offsets[id + 1] = offsets[id] + counts[id];
+		}
+		return offsets;
+	}
+	
+	private void allocate() {
+		movieUserIdsSection = ByteBuffer.allocateDirect(4 * size);
+		movieDaysSection = ByteBuffer.allocateDirect(2 * size);
+		movieRatesSection = ByteBuffer.allocateDirect(size);
+		userMovieIdsSection = ByteBuffer.allocateDirect(2 * size);
+		userDaysSection = ByteBuffer.allocateDirect(2 * size);
+		userRatesSection = ByteBuffer.allocateDirect(size);
+		createViews();
+	}
+	
+	private void createViews() {
+		movieUserIds = movieUserIdsSection.asIntBuffer();
+		movieDays = movieDaysSection.asShortBuffer();
+		movieRates = movieRatesSection;
+		userMovieIds = userMovieIdsSection.asCharBuffer();
+		userDays = userDaysSection.asShortBuffer();
+		userRates = userRatesSection;
+	}
+	
+	/**
+	 * @return number of rents of the DB
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return bytes of off-heap memory taken by the rents
+	 */
+	public long getOffHeapBytes() {
+		return (long) (MOVIE_ROW_SIZE + USER_ROW_SIZE) * size;
+	}
+	
+	public int getMaxMovieId() {
+		return movieOffsets.length - 2;
+	}
+	
+	public int getMaxUserId() {
+		return userIds.getMaxUserId();
+	}
+	
+	/**
+	 * @param movieId the movie id
+	 * @return the first row of the movie, the number of rows for an id out of the
+	 * range of the movie ids
+	 */
+	public int getMovieStart(int movieId) {
+		return movieId < 0 || movieId > getMaxMovieId() ? size : movieOffsets[movieId];
+	}
+	
+	/**
+	 * @param movieId the movie id
+	 * @return the row following the last row of the movie, the number of rows for an
+	 * id out of the range of the movie ids
+	 */
+	public int getMovieEnd(int movieId) {
+		return movieId < 0 || movieId > getMaxMovieId() ? size : movieOffsets[movieId + 1];
+	}
+	
+	public int getMovieRowUserId(int row) {
+		return movieUserIds.get(row);
+	}
+	
+	public short getMovieRowDay(int row) {
+		return movieDays.get(row);
+	}
+	
+	public int getMovieRowRate(int row) {
+		return movieRates.get(row);
+	}
+	
+	public int getUserStart(int userId) {
+		int index = userIds.indexOf(userId);
+		return index == UserIdMap.NO_INDEX ? size : userOffsets[index];
+	}
+	
+	public int getUserEnd(int userId) {
+		int index = userIds.indexOf(userId);
+		return index == UserIdMap.NO_INDEX ? size : userOffsets[index + 1];
+	}
+	
+	public int getUserRowMovieId(int row) {
+		return userMovieIds.get(row);
+	}
+	
+	public short getUserRowDay(int row) {
+		return userDays.get(row);
+	}
+	
+	public int getUserRowRate(int row) {
+		return userRates.get(row);
+	}
+
+	@Override
+	public DateFormat getDateFormat() {
+		return DayCodec.newDateFormat();
+	}
+
+	@Override
+	public DBMovie readMovie(int movieId) {
+		int start = getMovieStart(movieId);
+		int end = getMovieEnd(movieId);
+		if (start == end) {
+			return null;
+		}
+		RentStore rents = new RentStore(end - start);
+		RatingStats stats = new RatingStats();
+		for (int row = start; row < end; row++) {
+			int rate = movieRates.get(row);
+			rents.add(movieId, movieUserIds.get(row), movieDays.get(row), rate);
+			stats.add(rate);
+		}
+		rents.sortByUserId();
+		rents.freeze();
+		DBMovie movie = new DBMovie(movieId);
+		movie.shareRents(rents, stats);
+		movie.updateQuestions(movieQuestions[movieId]);
+		return movie;
+	}
+
+	@Override
+	public DBUser readUser(int userId) {
+		int start = getUserStart(userId);
+		int end = getUserEnd(userId);
+		if (start == end) {
+			return null;
+		}
+		RentStore rents = new RentStore(end - start);
+		RatingStats stats = new RatingStats();
+		for (int row = start; row < end; row++) {
+			int rate = userRates.get(row);
+			rents.add(userMovieIds.get(row), userId, userDays.get(row), rate);
+			stats.add(rate);
+		}
+		rents.sortByMovieId();
+		rents.freeze();
+		DBUser user = new DBUser(userId);
+		user.shareRents(rents, stats);
+		user.updateQuestions(userQuestions[userIds.indexOf(userId)]);
+		return user;
+	}
+
+	@Override
+	public Rent readRent(int movieId, int userId, Date date) {
+		short day = date == null ? DayCodec.NO_DAY : DayCodec.fromDate(date);
+		int end = getUserEnd(userId);
+		boolean byMovie = isUserRowsByMovie();
+		for (int row = findUserRow(movieId, getUserStart(userId), end); row >= 0 && row < end; row++) {
+			int rowMovieId = userMovieIds.get(row);
+			if (rowMovieId == movieId) {
+				if (date == null || userDays.get(row) == day) {
+					return new Rent(movieId, userId, userDays.get(row), userRates.get(row));
+				}
+			} else if (byMovie) {
+				break;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int rateOf(int movieId, int userId) {
+		int row = findUserRow(movieId, getUserStart(userId), getUserEnd(userId));
+		return row < 0 ? DBUser.NO_RATE : userRates.get(row);
+	}
+	
+	/**
+	 * @param movieId the movie id
+	 * @param start the first row of the user
+	 * @param end the row following the last row of the user
+	 * @return the first user row of the movie, -1 if there is none
+	 */
+	private int findUserRow(int movieId, int start, int end) {
+		if (!isUserRowsByMovie()) {
+			for (int row = start; row < end; row++) {
+				if (userMovieIds.get(row) == movieId) {
+					return row;
+				}
+			}
+			return -1;
+		}
+		int low = start;
+		int high = end;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (userMovieIds.get(middle) < movieId) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low < end && userMovieIds.get(low) == movieId ? low : -1;
+	}
+	
+	/**
+	 * @return <code>true</code> if the rows of every user are sorted by movie id,
+	 * checked by a scan of the user rows on the first call
+	 */
+	private boolean isUserRowsByMovie() {
+		Boolean byMovie = userRowsByMovie;
+		if (byMovie == null) {
+			byMovie = Boolean.TRUE;
+			for (int index = 0; index < userIds.size() && byMovie; index++) {
+				for (int row = userOffsets[index] + 1; row < userOffsets[index + 1]; row++) {
+					if (userMovieIds.get(row - 1) > userMovieIds.get(row)) {
+						byMovie = Boolean.FALSE;
+						break;
+					}
+				}
+			}
+			userRowsByMovie = byMovie;
+		}
+		return byMovie;
+	}
+	
+	@Override
+	public Rent readQuestion(int movieId, int userId, Date date) {
+		throw new UnsupportedOperationException("Unsupported operation");
+	}
+
+	@Override
+	public void writeMovie(DBMovie movie) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	@Override
+	public void writeUser(DBUser user) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	@Override
+	public void writeRent(Rent rent) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	@Override
+	public void writeQuestion(Rent unratedRent) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	@Override
+	public void removeRent(Rent rent) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	/**
+	 * The DB is read only already.
+	 */
+	@Override
+	public void freeze() {
+	}
+
+	/**
+	 * Creates a view of every movie, hence all the rents are created.
+	 */
+	@Override
+	public DBMovie[] getAllMovies() {
+		DBMovie[] movies = new DBMovie[getMaxMovieId() + 1];
+		for (int movieId = 0; movieId < movies.length; movieId++) {
+			movies[movieId] = readMovie(movieId);
+		}
+		return movies;
+	}
+
+	/**
+	 * Creates a view of every user, hence all the rents are created.
+	 */
+	@Override
+	public DBUser[] getAllUsers() {
+		DBUser[] users = new DBUser[userIds.size()];
+		for (int index = 0; index < users.length; index++) {
+			users[index] = readUser(userIds.getUserId(index));
+		}
+		return users;
+	}
+
+	@Override
+	public int getNumberOfMovies() {
+		return getMaxMovieId() + 1;
+	}
+
+	@Override
+	public int getNumberOfUsers() {
+		return userIds.size();
+	}
+	
+	@Override
+	public UserIdMap getUserIdMap() {
+		return userIds;
+	}
+
+	/**
+	 * Iterates the rents by movie.
+	 */
+	@Override
+	public Iterator<Rent> rentsIterator() {
+		return new Iterator<Rent>() {
+			
+			private int row = 0;
+			
+			private int movieId = 0;
+
+			@Override
+			public boolean hasNext() {
+				return row < size;
+			}
+
+			@Override
+			public Rent next() {
+				if (row >= size) {
+					throw new NoSuchElementException();
+				}
+				while (movieOffsets[movieId + 1] <= row) {
+					movieId++;
+				}
+				Rent rent = new Rent(movieId, movieUserIds.get(row), movieDays.get(row), 
+						movieRates.get(row));
+				row++;
+				return rent;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Netflix DB is ReadOnly");
+			}
+		};
+	}
+	
+	/**
+	 * Creates a spliterator of the rents by movie, which splits the remaining movie
+	 * rows in halves and knows the exact size of every part, so the rents may be
+	 * processed in parallel without creating the movies.
+	 * 
+	 * @return a new spliterator of the rents
+	 */
+	public Spliterator<Rent> rentsSpliterator() {
+		return new RowSpliterator(0, size);
+	}
+	
+	/**
+	 * Reads the movie rows, see {@link #rentsSpliterator()}.
+	 */
+	@Override
+	public Stream<Rent> ratingsStream() {
+		return StreamSupport.stream(rentsSpliterator(), false);
+	}
+	
+	/**
+	 * Reads the movies which have rows, exactly sized.
+	 */
+	@Override
+	public Stream<DBMovie> moviesStream() {
+		int[] movieIds = new int[getMaxMovieId() + 1];
+		int count = 0;
+		for (int movieId = 0; movieId < movieIds.length; movieId++) {
+			if (getMovieStart(movieId) < getMovieEnd(movieId)) {
+				movieIds[count++] = movieId;
+			}
+		}
+		return Arrays.stream(movieIds, 0, count).mapToObj(this::readMovie);
+	}
+	
+	/**
+	 * @return the movie of the specified movie row
+	 */
+	private int movieOfRow(int row) {
+		//the last movie whose rows start at or before the row
+		int low = 0;
+		int high = movieOffsets.length - 2;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (movieOffsets[middle] <= row) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Spliterator of a range of movie rows.
+	 */
+	private final class RowSpliterator implements Spliterator<Rent> {
+		
+		private int row;
+		
+		private final int end;
+		
+		//movie of the current row, found by the first advance
+		private int movieId = -1;
+		
+		RowSpliterator(int row, int end) {
+			this.row = row;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Rent> action) {
+			if (row >= end) {
+				return false;
+			}
+			action.accept(next());
+			return true;
+		}
+		
+		@Override
+		public void forEachRemaining(Consumer<? super Rent> action) {
+			while (row < end) {
+				action.accept(next());
+			}
+		}
+		
+		private Rent next() {
+			if (movieId < 0) {
+				movieId = movieOfRow(row);
+			}
+			while (movieOffsets[movieId + 1] <= row) {
+				movieId++;
+			}
+			Rent rent = new Rent(movieId, movieUserIds.get(row), movieDays.get(row), 
+					movieRates.get(row));
+			row++;
+			return rent;
+		}
+
+		@Override
+		public Spliterator<Rent> trySplit() {
+			int middle = (row + end) >>> 1;
+			if (middle <= row) {
+				return null;
+			}
+			RowSpliterator prefix = new RowSpliterator(row, middle);
+			prefix.movieId = movieId;
+			row = middle;
+			movieId = -1;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - row;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		for (ByteBuffer section : sections()) {
+			writeSection(section, out);
+		}
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		allocate();
+		for (ByteBuffer section : sections()) {
+			readSection(section, in);
+		}
+	}
+	
+	int[] getMovieOffsets() {
+		return movieOffsets;
+	}
+	
+	int[] getUserOffsets() {
+		return userOffsets;
+	}
+	
+	int[] getMovieQuestions() {
+		return movieQuestions;
+	}
+	
+	int[] getUserQuestions() {
+		return userQuestions;
+	}
+	
+	/**
+	 * @return the off-heap sections: movie rows user ids, days and rates followed by 
+	 * user rows movie ids, days and rates.
+	 */
+	ByteBuffer[] sections() {
+		return new ByteBuffer[] {movieUserIdsSection, movieDaysSection, movieRatesSection,
+				userMovieIdsSection, userDaysSection, userRatesSection};
+	}
+	
+	static void writeSection(ByteBuffer section, OutputStream out) throws IOException {
+		ByteBuffer src = section.duplicate();
+		src.clear();
+		byte[] chunk = new byte[1 << 16];
+		while (src.hasRemaining()) {
+			int length = Math.min(chunk.length, src.remaining());
+			src.get(chunk, 0, length);
+			out.write(chunk, 0, length);
+		}
+	}
+	
+	static void readSection(ByteBuffer section, DataInput in) throws IOException {
+		ByteBuffer dst = section.duplicate();
+		dst.clear();
+		byte[] chunk = new byte[1 << 16];
+		while (dst.hasRemaining()) {
+			int length = Math.min(chunk.length, dst.remaining());
+			in.readFully(chunk, 0, length);
+			dst.put(chunk, 0, length);
+		}
+	}
+	
+	/**
+	 * Usage: CsrNetflixDB &lt;training set folder, archive or columnar file&gt; [questions file]
+	 * <br>
+	 * Builds the DB and saves it as {@link NetflixDBBuilder#saveDB(NetflixDB, File)} does.
+	 */
+	public static void main(String[] args) throws IOException {
+		File source = new File(args[0]);
+		System.out.println("Started DB building.");
+		CsrNetflixDB db = load(source, args.length > 1 ? new File(args[1]) : null);
+		System.out.println("Finished DB building. " + db.size() + " rents of " 
+				+ db.getNumberOfUsers() + " users take " + (db.getOffHeapBytes() >> 20) 
+				+ " MB off-heap.");
+		NetflixDBBuilder.saveDB(db, source.isDirectory() ? source : source.getParentFile());
+	}
+	
+	/**
+	 * Counts the rents of every user and movie.
+	 */
+	private static class Counter implements RentHandler {
+		
+		private int[] movieCounts = new int[17771];
+		
+		private int[] userCounts = new int[2649430];
+		
+		private int maxMovieId;
+		
+		private int maxUserId;
+		
+		private long size;
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			if (movieId > Character.MAX_VALUE) {
+				throw new IllegalArgumentException("Movie id " + movieId + " is too big for a CSR DB");
+			}
+			if (movieId >= movieCounts.length) {
+				movieCounts = Arrays.copyOf(movieCounts, Math.max(movieId + 1, movieCounts.length * 2));
+			}
+			if (userId >= userCounts.length) {
+				userCounts = Arrays.copyOf(userCounts, Math.max(userId + 1, userCounts.length * 2));
+			}
+			movieCounts[movieId]++;
+			userCounts[userId]++;
+			maxMovieId = Math.max(maxMovieId, movieId);
+			maxUserId = Math.max(maxUserId, userId);
+			size++;
+		}
+	}
+	
+	/**
+	 * Writes every rent into the next free row of its user and movie.
+	 */
+	private static class Writer implements RentHandler {
+		
+		private CsrNetflixDB db;
+		
+		//next free row of every movie and user
+		private int[] nextMovieRow;
+		
+		private int[] nextUserRow;
+		
+		public Writer(CsrNetflixDB db) {
+			this.db = db;
+			nextMovieRow = Arrays.copyOf(db.movieOffsets, db.movieOffsets.length);
+			nextUserRow = Arrays.copyOf(db.userOffsets, db.userOffsets.length);
+		}
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			int row = nextMovieRow[movieId]++;
+			db.movieUserIds.put(row, userId);
+			db.movieDays.put(row, day);
+			db.movieRates.put(row, (byte) rate);
+			row = nextUserRow[db.userIds.indexOf(userId)]++;
+			db.userMovieIds.put(row, (char) movieId);
+			db.userDays.put(row, day);
+			db.userRates.put(row, (byte) rate);
+		}
+	}
+	
+	/**
+	 * Counts the questions of every user and movie of the DB.
+	 */
+	private static class QuestionsCounter implements RentHandler {
+		
+		private CsrNetflixDB db;
+		
+		public QuestionsCounter(CsrNetflixDB db) {
+			this.db = db;
+		}
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			int index = db.userIds.indexOf(userId);
+			if (index != UserIdMap.NO_INDEX) {
+				db.userQuestions[index]++;
+			} else {
+				System.err.println("Could not find user with id: " + userId);
+			}
+			if (movieId < db.movieQuestions.length && db.getMovieStart(movieId) < db.getMovieEnd(movieId)) {
+				db.movieQuestions[movieId]++;
+			} else {
+				System.err.println("Could not find movie with id: " + movieId);
+			}
+		}
+	}
+}
@@ -3,7 +3,6 @@ package dbanalysis;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 
 import common.Compartors;
@@ -19,6 +18,27 @@ public class DBMovie extends NetflixObject {
 		super(id);
 	}
 	
+	/**
+	 * Sorts the rents by user id, so they are found by binary search.
+	 */
+	@Override
+	public void freeze() {
+		getRentStore().sortByUserId();
+	}
+	
+	/**
+	 * Finds the rate of a user without creating any object. The lookup is a binary
+	 * search once the movie is {@link #freeze() frozen}.
+	 * 
+	 * @param userId the user id
+	 * @return the rate of the user, {@link DBUser#NO_RATE} if the user did not rate the movie
+	 */
+	public int getRateForUserId(int userId) {
+		RentStore rents = getRentStore();
+		int index = rents.indexOfUserId(userId);
+		return index < 0 ? DBUser.NO_RATE : rents.getRate(index);
+	}
+	
 	/**
 	 * Collects and returns all the rents of given user id.
 	 * 
@@ -27,7 +47,21 @@ public class DBMovie extends NetflixObject {
 	 * @return all the rents for specified user id.
 	 */
 	public List<Rent> getRentsForUserId(int userId) {
-		return getRentsForUserId(getRents(), userId);
+		RentStore rents = getRentStore();
+		ArrayList<Rent> matches = new ArrayList<Rent>(1);
+		if (rents.isSortedByUserId()) {
+			for (int i = rents.indexOfUserId(userId); i >= 0 && i < rents.size() 
+					&& rents.getUserId(i) == userId; i++) {
+				matches.add(rents.getRent(i));
+			}
+			return matches;
+		}
+		for (int i = 0; i < rents.size(); i++) {
+			if (rents.getUserId(i) == userId) {
+				matches.add(rents.getRent(i));
+			}
+		}
+		return matches;
 	}
 	
 	/**
@@ -89,15 +123,18 @@ public class DBMovie extends NetflixObject {
 	 * @return array contains all IDs of user rented this movie.
 	 */
 	public int[] getAllUsersIds() {
-		HashSet<Integer> ids = new HashSet<Integer>();
-		for (Rent rent : getRents()) {
-			ids.add(rent.getUserId());			
+		int[] ids = getRentStore().copyUserIds();
+		if (ids.length == 0) {
+			return ids;
 		}
-		int[] result = new int[ids.size()];
-		int i = 0;
-		for (Integer id : ids) {
-			result[i++] = id;
+		//removing duplicates
+		Arrays.sort(ids);
+		int distinct = 1;
+		for (int i = 1; i < ids.length; i++) {
+			if (ids[i] != ids[distinct - 1]) {
+				ids[distinct++] = ids[i];
+			}
 		}
-		return result;
+		return Arrays.copyOf(ids, distinct);
 	}
 }
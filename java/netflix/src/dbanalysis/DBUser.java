@@ -14,10 +14,36 @@ public class DBUser extends NetflixObject {
 	 */
 	private static final long serialVersionUID = -405697599467403828L;
 	
+	/**
+	 * Rate returned for a movie the user did not rate.
+	 */
+	public static final int NO_RATE = 0;
+	
 	public DBUser(int id) {
 		super(id);
 	}
 	
+	/**
+	 * Sorts the rents by movie id, so they are found by binary search.
+	 */
+	@Override
+	public void freeze() {
+		getRentStore().sortByMovieId();
+	}
+	
+	/**
+	 * Finds the rate of a movie without creating any object. The lookup is a binary
+	 * search once the user is {@link #freeze() frozen}.
+	 * 
+	 * @param movieId the movie id
+	 * @return the rate of the movie, {@link #NO_RATE} if the user did not rate it
+	 */
+	public int getRateForMovieId(int movieId) {
+		RentStore rents = getRentStore();
+		int index = rents.indexOfMovieId(movieId);
+		return index < 0 ? NO_RATE : rents.getRate(index);
+	}
+	
 	/**
 	 * Collects and returns all the rents of given movie.
 	 * 
@@ -25,7 +51,21 @@ public class DBUser extends NetflixObject {
 	 * @return all the rents for specified movie id.
 	 */
 	public List<Rent> getRentsForMovieId(int movieId) {
-		return getRentsForMovieId(getRents(), movieId);
+		RentStore rents = getRentStore();
+		ArrayList<Rent> matches = new ArrayList<Rent>(1);
+		if (rents.isSortedByMovieId()) {
+			for (int i = rents.indexOfMovieId(movieId); i >= 0 && i < rents.size() 
+					&& rents.getMovieId(i) == movieId; i++) {
+				matches.add(rents.getRent(i));
+			}
+			return matches;
+		}
+		for (int i = 0; i < rents.size(); i++) {
+			if (rents.getMovieId(i) == movieId) {
+				matches.add(rents.getRent(i));
+			}
+		}
+		return matches;
 	}
 	
 	/**
@@ -81,25 +121,63 @@ public class DBUser extends NetflixObject {
 		return matches;
 	}
 	
+	/**
+	 * Collects the rents of this user for movies rented by the other user too. The
+	 * movie ids of the bigger of the two users are sorted and searched for every
+	 * movie id of the smaller one, on primitive arrays.
+	 * 
+	 * @param other another user
+	 * @return the rents of this user of movies common to both users
+	 */
 	public List<Rent> getCommonMoviesWith(DBUser other) {
 		ArrayList<Rent> matches = new ArrayList<Rent>();
+		RentStore fromUserMovies = this.getRentStore();
+		RentStore toUserMovies = other.getRentStore();
 		
-		Rent[] fromUserMovies = this.getRents().toArray(new Rent[0]);
-		Rent[] toUserMovies = other.getRents().toArray(new Rent[0]);		
-		Rent[] biggerArray = fromUserMovies.length > toUserMovies.length ? fromUserMovies : toUserMovies;
-		Rent[] smallerArray = fromUserMovies == biggerArray ? toUserMovies : fromUserMovies;
-		
-		//array must be sorted before the binary search
-		Comparator<Rent> byMovieId = Compartors.createMovieIdComparator();
-		Arrays.sort(biggerArray, byMovieId);		
-		int index;
-		for (Rent rent : smallerArray) {
-			index = Arrays.binarySearch(biggerArray, rent, byMovieId);
-			if (index >= 0) {
-				matches.add(fromUserMovies == biggerArray ? biggerArray[index] : rent);
+		if (fromUserMovies.isSortedByMovieId() && toUserMovies.isSortedByMovieId()) {
+			//both users are frozen - merging
+			int i = 0;
+			int j = 0;
+			while (i < fromUserMovies.size() && j < toUserMovies.size()) {
+				int fromMovieId = fromUserMovies.getMovieId(i);
+				int toMovieId = toUserMovies.getMovieId(j);
+				if (fromMovieId < toMovieId) {
+					i++;
+				} else if (fromMovieId > toMovieId) {
+					j++;
+				} else {
+					matches.add(fromUserMovies.getRent(i));
+					i++;
+					j++;
+				}
+			}
+		} else if (fromUserMovies.size() > toUserMovies.size()) {
+			//searching our rents, keeping the row of every movie id next to it
+			long[] byMovieId = new long[fromUserMovies.size()];
+			for (int i = 0; i < byMovieId.length; i++) {
+				byMovieId[i] = ((long) fromUserMovies.getMovieId(i) << 32) | i;
+			}
+			Arrays.sort(byMovieId);
+			for (int i = 0; i < toUserMovies.size(); i++) {
+				long key = (long) toUserMovies.getMovieId(i) << 32;
+				int index = Arrays.binarySearch(byMovieId, key);
+				if (index < 0) {
+					index = -index - 1;
+				}
+				if (index < byMovieId.length && (byMovieId[index] & 0xFFFFFFFF00000000L) == key) {
+					matches.add(fromUserMovies.getRent((int) byMovieId[index]));
+				}
+			}
+		} else {
+			//array must be sorted before the binary search
+			int[] toUserMovieIds = toUserMovies.copyMovieIds();
+			Arrays.sort(toUserMovieIds);
+			for (int i = 0; i < fromUserMovies.size(); i++) {
+				if (Arrays.binarySearch(toUserMovieIds, fromUserMovies.getMovieId(i)) >= 0) {
+					matches.add(fromUserMovies.getRent(i));
+				}
 			}
 		}
-		
 		return matches;
 	}
 	
@@ -109,15 +187,6 @@ public class DBUser extends NetflixObject {
 	 * @return array contains all IDs of movies rented by this user.
 	 */
 	public int[] getAllMoviesIds() {
-		List<Integer> ids = new ArrayList<Integer>(getRents().size());
-		for (Rent rent : getRents()) {
-			ids.add(rent.getMovieId());			
-		}
-		int[] result = new int[ids.size()];
-		int i = 0;
-		for (Integer id : ids) {
-			result[i++] = id;
-		}
-		return result;
+		return getRentStore().copyMovieIds();
 	}
 }
@@ -1,120 +1,44 @@
 package dbanalysis;
 
-import java.io.Serializable;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Spliterator;
 
 
 
-public class FastestNetflixDB implements Serializable, NetflixDB {
+public class FastestNetflixDB extends InMemoryNetflixDB {
 
-	private static final long serialVersionUID = 8817643692567754106L;
-
-	private static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
-	
-	private DBMovie[] movies;
+	//fields moved to InMemoryNetflixDB, files of the older layout can not be read
+	private static final long serialVersionUID = -3719405874623040146L;
 	
+	//users by their dense index
 	private DBUser[] users;
 	
-	private ArrayList<Rent> rents;
-	
-	private ArrayList<Rent> questions;
-	
 	public FastestNetflixDB() {
-		//MovieIDs range from 1 to 17770 sequentially.		
-		movies = new DBMovie[17771];
-		//CustomerIDs range from 1 to 2649429, with gaps. There are 480189 users.
-		users = new DBUser[2649430];
-		
-		rents = new ArrayList<Rent>();
-		questions = new ArrayList<Rent>();
+		users = new DBUser[1024];
 	}
 	
 	@Override
-	public DateFormat getDateFormat() {
-		return DATE_FORMAT;
-	}
-
-	@Override
-	public DBMovie readMovie(int movieId) {
-		return movies[movieId];
-	}
-
-	@Override
-	public Rent readQuestion(int movieId, int userId, Date date) {
-		throw new UnsupportedOperationException("Unsupported operation");
-	}
-
-	@Override
-	public Rent readRent(int movieId, int userId, Date date) {
-		throw new UnsupportedOperationException("Unsupported operation");
-	}
-
-	@Override
-	public DBUser readUser(int userId) {
-		return users[userId];
-	}
-
-	@Override
-	public void writeMovie(DBMovie movie) {
-		movies[movie.getId()] = movie;
+	DBUser userAt(int index) {
+		return users[index];
 	}
-
-	@Override
-	public void writeQuestion(Rent unratedRent) {
-		questions.add(unratedRent);
-	}
-
-	@Override
-	public void writeRent(Rent rent) {
-		rents.add(rent);
-		users[rent.getUserId()].addRent(rent);
-		movies[rent.getMovieId()].addRent(rent);
-	}
-
-	@Override
-	public void writeUser(DBUser user) {
-		users[user.getId()] = user;
-	}
-
-	@Override
-	public DBMovie[] getAllMovies() {
-		return movies;
-	}
-
+	
 	@Override
-	public DBUser[] getAllUsers() {
-		ArrayList<DBUser> nonNull = new ArrayList<DBUser>(10000);
-		for (DBUser user : users) {
-			if (user != null) {
-				nonNull.add(user);
-			}
+	void setUser(int index, DBUser user) {
+		if (index == users.length) {
+			users = Arrays.copyOf(users, users.length + (users.length >> 1));
 		}
-		return nonNull.toArray(new DBUser[0]);
+		users[index] = user;
 	}
 	
 	@Override
-	public int getNumberOfMovies() {
-		return movies.length;
+	DBUser[] trimUsers() {
+		users = Arrays.copyOf(users, getNumberOfUsers());
+		return users;
 	}
-
+	
 	@Override
-	public int getNumberOfUsers() {
-		int nonNull = 0;
-		for (DBUser user : users) {
-			if (user != null) {
-				nonNull++;
-			}
-		}
-		return nonNull;
+	Spliterator<DBUser> usersSpliterator() {
+		return Arrays.spliterator(users, 0, getNumberOfUsers());
 	}
 
-	@Override
-	public Iterator<Rent> rentsIterator() {
-		return rents.iterator();
-	}	
-
 }
@@ -0,0 +1,415 @@
+package dbanalysis;
+
+import java.io.Serializable;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import common.DayCodec;
+
+/**
+ * Base of the DBs keeping all the users, movies and rents on the heap. Movies are
+ * kept by their id, rents in their users and movies, and point lookups go through
+ * a {@link RatingIndex} built on the first lookup after a write. Once
+ * {@link #freeze() frozen} the rents are kept once, in a store shared by all the
+ * users and movies. Subclasses differ only in how they keep the users by their
+ * dense index, see {@link UserIdMap}.
+ *
+ * @author mizrachi
+ *
+ */
+public abstract class InMemoryNetflixDB implements Serializable, NetflixDB {
+
+	private static final long serialVersionUID = 3164466402538815512L;
+
+	private DBMovie[] movies;
+
+	private UserIdMap userIds;
+
+	private ArrayList<Rent> questions;
+
+	//all the rents once the DB is frozen, null otherwise
+	private RentStore sharedRents;
+
+	private boolean frozen;
+
+	//point lookup indices, built on the first lookup and dropped by writes
+	private transient volatile RatingIndex rentIndex;
+
+	private transient volatile RatingIndex questionIndex;
+
+	//the users sorted by their id, built on the first call and dropped by new users
+	private transient volatile DBUser[] sortedUsers;
+
+	private int bloomBitsPerRent;
+
+	protected InMemoryNetflixDB() {
+		//MovieIDs range from 1 to 17770 sequentially.
+		movies = new DBMovie[17771];
+		//CustomerIDs range from 1 to 2649429, with gaps. There are 480189 users,
+		//kept by their dense index.
+		userIds = new UserIdMap();
+
+		questions = new ArrayList<Rent>();
+	}
+
+	/**
+	 * @param index a dense user index
+	 * @return the user of the index
+	 */
+	abstract DBUser userAt(int index);
+
+	/**
+	 * Keeps a user by its dense index, which is the number of users for a new user.
+	 *
+	 * @param index the dense index of the user
+	 * @param user the user
+	 */
+	abstract void setUser(int index, DBUser user);
+
+	/**
+	 * Trims the growth slack of the users.
+	 *
+	 * @return the users by their dense index
+	 */
+	abstract DBUser[] trimUsers();
+
+	/**
+	 * @return a spliterator of the users by their dense index
+	 */
+	abstract Spliterator<DBUser> usersSpliterator();
+
+	@Override
+	public DateFormat getDateFormat() {
+		return DayCodec.newDateFormat();
+	}
+
+	@Override
+	public DBMovie readMovie(int movieId) {
+		return movies[movieId];
+	}
+
+	/**
+	 * Looks the question up in an index of all the questions, built on the first
+	 * call after the DB is written.
+	 */
+	@Override
+	public Rent readQuestion(int movieId, int userId, Date date) {
+		return getQuestionIndex().getRent(movieId, userId, date);
+	}
+
+	/**
+	 * Looks the rent up in an index of all the rents, built on the first call
+	 * after the DB is written, see {@link RatingIndex}.
+	 */
+	@Override
+	public Rent readRent(int movieId, int userId, Date date) {
+		return getRatingIndex().getRent(movieId, userId, date);
+	}
+
+	@Override
+	public int rateOf(int movieId, int userId) {
+		return getRatingIndex().rateOf(movieId, userId);
+	}
+
+	/**
+	 * @return the index of all the rents, built if the DB was written since the
+	 * last call
+	 */
+	public RatingIndex getRatingIndex() {
+		RatingIndex index = rentIndex;
+		if (index == null) {
+			synchronized (this) {
+				if (rentIndex == null) {
+					rentIndex = frozen ? RatingIndex.of(sharedRents, bloomBitsPerRent) : indexMovies();
+				}
+				index = rentIndex;
+			}
+		}
+		return index;
+	}
+
+	private RatingIndex indexMovies() {
+		int size = 0;
+		for (DBMovie movie : movies) {
+			if (movie != null) {
+				size += movie.getRentStore().size();
+			}
+		}
+		RatingIndex index = new RatingIndex(size, bloomBitsPerRent);
+		for (DBMovie movie : movies) {
+			if (movie != null) {
+				RentStore rents = movie.getRentStore();
+				for (int i = 0; i < rents.size(); i++) {
+					index.add(rents.getMovieId(i), rents.getUserId(i), rents.getDay(i), rents.getRate(i));
+				}
+			}
+		}
+		return index;
+	}
+
+	private RatingIndex getQuestionIndex() {
+		RatingIndex index = questionIndex;
+		if (index == null) {
+			synchronized (this) {
+				if (questionIndex == null) {
+					questionIndex = RatingIndex.of(questions, questions.size(), bloomBitsPerRent);
+				}
+				index = questionIndex;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Puts a Bloom filter in front of the rents and questions indices, which
+	 * answers most lookups of missing rents without probing the index.
+	 *
+	 * @param bloomBitsPerRent bits of the filter per rent, 0 for no filter
+	 */
+	public synchronized void setBloomBitsPerRent(int bloomBitsPerRent) {
+		this.bloomBitsPerRent = bloomBitsPerRent;
+		rentIndex = null;
+		questionIndex = null;
+	}
+
+	@Override
+	public DBUser readUser(int userId) {
+		int index = userIds.indexOf(userId);
+		return index == UserIdMap.NO_INDEX ? null : userAt(index);
+	}
+
+	@Override
+	public void writeMovie(DBMovie movie) {
+		checkWritable();
+		movies[movie.getId()] = movie;
+	}
+
+	@Override
+	public void writeQuestion(Rent unratedRent) {
+		checkWritable();
+		questions.add(unratedRent);
+		questionIndex = null;
+	}
+
+	/**
+	 * The user and movie of a thawed DB get their own copy of their rents first,
+	 * see {@link #thaw()}.
+	 */
+	@Override
+	public void writeRent(Rent rent) {
+		checkWritable();
+		rentIndex = null;
+		DBUser user = readUser(rent.getUserId());
+		DBMovie movie = movies[rent.getMovieId()];
+		user.unshareRents();
+		movie.unshareRents();
+		user.addRent(rent);
+		movie.addRent(rent);
+	}
+
+	/**
+	 * Removing a rent is linear in the number of rents of its user and movie, which
+	 * get their own copy of their rents first in a thawed DB, see {@link #thaw()}.
+	 */
+	@Override
+	public void removeRent(Rent rent) {
+		checkWritable();
+		rentIndex = null;
+		DBUser user = readUser(rent.getUserId());
+		DBMovie movie = movies[rent.getMovieId()];
+		user.unshareRents();
+		movie.unshareRents();
+		user.removeRent(rent);
+		movie.removeRent(rent);
+	}
+
+	@Override
+	public void writeUser(DBUser user) {
+		checkWritable();
+		int index = userIds.add(user.getId());
+		if (index == userIds.size() - 1 || userAt(index) != user) {
+			sortedUsers = null;
+		}
+		setUser(index, user);
+	}
+
+	@Override
+	public DBMovie[] getAllMovies() {
+		return movies;
+	}
+
+	/**
+	 * The users are sorted on the first call after a user is added, later calls
+	 * return a copy of the sorted users.
+	 *
+	 * @return the users sorted by their id
+	 */
+	@Override
+	public DBUser[] getAllUsers() {
+		DBUser[] sorted = sortedUsers;
+		if (sorted == null) {
+			synchronized (this) {
+				if (sortedUsers == null) {
+					DBUser[] all = new DBUser[userIds.size()];
+					for (int index = 0; index < all.length; index++) {
+						all[index] = userAt(index);
+					}
+					Arrays.sort(all);
+					sortedUsers = all;
+				}
+				sorted = sortedUsers;
+			}
+		}
+		//callers may reorder the array
+		return sorted.clone();
+	}
+
+	@Override
+	public int getNumberOfMovies() {
+		return movies.length;
+	}
+
+	@Override
+	public int getNumberOfUsers() {
+		return userIds.size();
+	}
+
+	@Override
+	public UserIdMap getUserIdMap() {
+		return userIds;
+	}
+
+	/**
+	 * Iterates the rents by movie.
+	 */
+	@Override
+	public Iterator<Rent> rentsIterator() {
+		if (frozen) {
+			return sharedRents.asList().iterator();
+		}
+		return new Iterator<Rent>() {
+
+			private int movieId = 0;
+
+			private Iterator<Rent> movieRents = Collections.<Rent>emptyList().iterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!movieRents.hasNext() && movieId < movies.length) {
+					DBMovie movie = movies[movieId++];
+					if (movie != null) {
+						movieRents = movie.getRentStore().asList().iterator();
+					}
+				}
+				return movieRents.hasNext();
+			}
+
+			@Override
+			public Rent next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return movieRents.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Remove rents by removeRent.");
+			}
+		};
+	}
+
+	/**
+	 * Keeps every rent once, in a store shared by all the users and movies, see
+	 * {@link SharedRents}, and trims the growth slack.
+	 */
+	@Override
+	public void freeze() {
+		if (frozen) {
+			return;
+		}
+		sharedRents = SharedRents.share(movies, userIds, trimUsers());
+		questions.trimToSize();
+		frozen = true;
+	}
+
+	/**
+	 * @return <code>true</code> if the DB was frozen
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Rents of a frozen DB are read from the store shared by the users and movies,
+	 * sized and split in halves, and by their movies otherwise.
+	 */
+	@Override
+	public Stream<Rent> ratingsStream() {
+		if (frozen) {
+			return StreamSupport.stream(sharedRents.spliterator(), false);
+		}
+		return NetflixDB.super.ratingsStream();
+	}
+
+	/**
+	 * Reads the users by their dense index, without a lookup of their ids.
+	 */
+	@Override
+	public Stream<DBUser> usersStream() {
+		return StreamSupport.stream(usersSpliterator(), false);
+	}
+
+	/**
+	 * Reads the movies array, exactly sized.
+	 */
+	@Override
+	public Stream<DBMovie> moviesStream() {
+		int[] movieIds = new int[movies.length];
+		int count = 0;
+		for (int movieId = 0; movieId < movies.length; movieId++) {
+			if (movies[movieId] != null) {
+				movieIds[count++] = movieId;
+			}
+		}
+		return Arrays.stream(movieIds, 0, count).mapToObj(movieId -> movies[movieId]);
+	}
+
+	/**
+	 * @return the store of all the rents, which the rents of the users and movies
+	 * are views of, <code>null</code> if the DB is not frozen
+	 */
+	RentStore getSharedRents() {
+		return sharedRents;
+	}
+
+	/**
+	 * Makes a frozen DB writable again. The users and movies keep sharing the
+	 * frozen rents until a rent of theirs is written or removed, when they get
+	 * their own copy, so thawing and applying a few rents copies only the rents of
+	 * the users and movies they touch.
+	 */
+	public void thaw() {
+		if (!frozen) {
+			return;
+		}
+		sharedRents = null;
+		rentIndex = null;
+		frozen = false;
+	}
+
+	private void checkWritable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("DB is frozen.");
+		}
+	}
+
+}
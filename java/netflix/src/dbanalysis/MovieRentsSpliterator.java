@@ -0,0 +1,149 @@
+package dbanalysis;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Sized spliterator of the rents of a sequence of movies whose number of rents is
+ * known before their rents are read. The rents are numbered by the movies in turn,
+ * and halves split the numbers regardless of the movies they belong to. The rents
+ * of a movie are read by the first advance into them, in the traversing thread.
+ * <p>
+ * The rents read must number as given, hence the DB must not be changed while the
+ * spliterator is used.
+ *
+ * @author mizrachi
+ *
+ */
+final class MovieRentsSpliterator implements Spliterator<Rent> {
+
+	//ends[i] is the number of the rents of the movies up to movie i, shared by splits
+	private final int[] ends;
+
+	private final IntFunction<RentStore> rents;
+
+	private int row;
+
+	private final int end;
+
+	//position of the movie of the current row, found by the first advance
+	private int movie = -1;
+
+	private RentStore store;
+
+	private int start;
+
+	/**
+	 * @param counts the number of rents of every movie
+	 * @param rents reads the rents of the movie at a position of the counts
+	 */
+	MovieRentsSpliterator(int[] counts, IntFunction<RentStore> rents) {
+		this.ends = new int[counts.length];
+		int total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			total += counts[i];
+			ends[i] = total;
+		}
+		this.rents = rents;
+		this.row = 0;
+		this.end = total;
+	}
+
+	private MovieRentsSpliterator(int[] ends, IntFunction<RentStore> rents, int row, int end) {
+		this.ends = ends;
+		this.rents = rents;
+		this.row = row;
+		this.end = end;
+	}
+
+	/**
+	 * @param movies movies read already
+	 * @return a spliterator of the rents of the movies
+	 */
+	static MovieRentsSpliterator of(final DBMovie[] movies) {
+		int[] counts = new int[movies.length];
+		for (int i = 0; i < movies.length; i++) {
+			counts[i] = movies[i].getRentStore().size();
+		}
+		return new MovieRentsSpliterator(counts, new IntFunction<RentStore>() {
+			@Override
+			public RentStore apply(int i) {
+				return movies[i].getRentStore();
+			}
+		});
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Rent> action) {
+		if (row >= end) {
+			return false;
+		}
+		action.accept(next());
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super Rent> action) {
+		while (row < end) {
+			action.accept(next());
+		}
+	}
+
+	private Rent next() {
+		if (store == null || row >= ends[movie]) {
+			if (movie < 0) {
+				movie = movieOfRow(row);
+			}
+			while (ends[movie] <= row) {
+				movie++;
+			}
+			start = movie == 0 ? 0 : ends[movie - 1];
+			store = rents.apply(movie);
+		}
+		return store.getRent(row++ - start);
+	}
+
+	/**
+	 * @return the first movie whose rents end after the row
+	 */
+	private int movieOfRow(int row) {
+		int low = 0;
+		int high = ends.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (ends[middle] <= row) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public Spliterator<Rent> trySplit() {
+		int middle = (row + end) >>> 1;
+		if (middle <= row) {
+			return null;
+		}
+		MovieRentsSpliterator prefix = new MovieRentsSpliterator(ends, rents, row, middle);
+		prefix.movie = movie;
+		prefix.store = store;
+		prefix.start = start;
+		row = middle;
+		movie = -1;
+		store = null;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return end - row;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+	}
+}
@@ -1,20 +1,38 @@
 package dbanalysis;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 public class NetflixAnalyzer {
 
+	/**
+	 * System property holding the memory ceiling of DB snapshots opened by
+	 * {@link #loadDB(String)}, see {@link PagedNetflixDB}.
+	 */
+	public static final String CACHE_PROPERTY = "netflix.db.cache";
+	
 	public static File OUT_DIR;
 	public static DateFormat FILE_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH-mm");
 	public static void main(String[] args) {
@@ -27,137 +45,347 @@ public class NetflixAnalyzer {
 		} else {
 			OUT_DIR.delete();
 		}
-		analyzeRatios(db);
-		analyzeRents(db);
-		analyzeQuestions(db);
-		analyseRates(db);
-		analyzeStdDevs(db);		
-		analyzeNormalizedRentsStdDevs(db);
-		analyzeNormalizedQuestionsStdDevs(db);
+		analyze(db, OUT_DIR, Runtime.getRuntime().availableProcessors());
 		
 		System.out.println("Analysis finished");
 	}
 	
-	private static void analyzeNormalizedQuestionsStdDevs(NetflixDB db) {
-		System.out.println("Saving movies questions stddevs values to file");
-		saveMatrixToFile(getQuestionsSdtDevsMatrix(db.getAllMovies()),
-				"MoviesQuestionsStdDevs.txt");
-		
-		System.out.println("Saving users questions stddevs values to file");
-		saveMatrixToFile(getQuestionsSdtDevsMatrix(db.getAllUsers()),
-				"UsersQuestionsStdDevs.txt");
-	}
-
-	private static void analyzeNormalizedRentsStdDevs(NetflixDB db) {
-		System.out.println("Saving movies rents stddevs values to file");
-		saveMatrixToFile(getRentsSdtDevsMatrix(db.getAllMovies()),
-				"MoviesRentsStdDevs.txt");
-		
-		System.out.println("Saving users rents stddevs values to file");
-		saveMatrixToFile(getRentsSdtDevsMatrix(db.getAllUsers()),
-				"UsersRentsStdDevs.txt");
-	}
-	
-	private static void analyzeStdDevs(NetflixDB db) {
-		System.out.println("Saving movies rents stddevs values to file");
-		saveVectorToFile(getSdtDevsVector(db.getAllMovies()),
-				"MoviesStdDevs.txt");
-		
-		System.out.println("Saving users rents stddevs values to file");
-		saveVectorToFile(getSdtDevsVector(db.getAllUsers()),
-				"UsersStdDevs.txt");
-	}
-
-	private static void analyseRates(NetflixDB db) {
-		System.out.println("Saving movies rates values to file");
-		saveVectorToFile(getAvgRatesVector(db.getAllMovies()),
-				"MoviesRates.txt");
-		
-		System.out.println("Saving users rates values to file");
-		saveVectorToFile(getAvgRatesVector(db.getAllUsers()),
-				"UsersRates.txt");
-	}
+	/**
+	 * Writes the analysis files of the DB: the rents to questions ratios, rents,
+	 * questions, average rates, standard deviations and standard deviations by rents
+	 * and by questions of the movies and of the users. The values are gathered by a
+	 * single parallel pass over the movies and one over the users into primitive
+	 * arrays, and the files are written concurrently. Existing files are not
+	 * overwritten.
+	 * 
+	 * @param db the DB
+	 * @param outDir the output folder
+	 * @param numOfThreads number of threads writing the files
+	 */
+	public static void analyze(NetflixDB db, File outDir, int numOfThreads) {
+		long start = System.currentTimeMillis();
+		final Columns movies = new Columns(db.getNumberOfMovies());
+		db.moviesStream().parallel().forEach(new Consumer<DBMovie>() {
 
-	private static void analyzeRents(NetflixDB db) {
-		System.out.println("Saving movies rents values to file");
-		saveVectorToFile(getRentsVector(db.getAllMovies()),
-				"MoviesRents.txt");
-		
-		System.out.println("Saving users rents values to file");
-		saveVectorToFile(getRentsVector(db.getAllUsers()),
-				"UsersRents.txt");
-	}
-	
-	private static void analyzeQuestions(NetflixDB db) {
-		System.out.println("Saving movies questions values to file");
-		saveVectorToFile(getQuestionsVector(db.getAllMovies()),
-				"MoviesQuestions.txt");
-		
-		System.out.println("Saving users questions values to file");
-		saveVectorToFile(getQuestionsVector(db.getAllUsers()),
-				"UsersQuestions.txt");
-	}
+			@Override
+			public void accept(DBMovie movie) {
+				movies.set(movie.getId(), movie);
+			}
+		});
+		final UserIdMap userIds = db.getUserIdMap();
+		final Columns users = new Columns(userIds.size());
+		db.usersStream().parallel().forEach(new Consumer<DBUser>() {
 
-	private static Collection<Integer> getRentsVector(NetflixObject[] objects) {
-		ArrayList<Integer> rents = new ArrayList<Integer>(objects.length);
-		for (NetflixObject obj : objects) {
-			if (obj != null) {
-				rents.add(obj.getNumOfRents());
+			@Override
+			public void accept(DBUser user) {
+				users.set(userIds.indexOf(user.getId()), user);
 			}
+		});
+		System.out.println("Read " + movies.count() + " movies and " + users.count() + " users in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		
+		int[] movieOrder = movies.slots();
+		int[] userOrder = users.slots();
+		//the files list users by their id
+		int[] sortedIds = new int[userOrder.length];
+		for (int i = 0; i < userOrder.length; i++) {
+			sortedIds[i] = users.ids[userOrder[i]];
 		}
-		return rents;
-	}
-	
-	private static Collection<Integer> getQuestionsVector(NetflixObject[] objects) {
-		ArrayList<Integer> questions = new ArrayList<Integer>(objects.length);
-		for (NetflixObject obj : objects) {
-			if (obj != null) {
-				questions.add(obj.getNumOfQuestions());
+		Arrays.sort(sortedIds);
+		for (int i = 0; i < sortedIds.length; i++) {
+			userOrder[i] = userIds.indexOf(sortedIds[i]);
+		}
+		
+		ExecutorService writers = Executors.newFixedThreadPool(Math.max(1, numOfThreads));
+		List<Future<?>> files = new ArrayList<Future<?>>();
+		for (Report report : Report.values()) {
+			files.add(writers.submit(new ReportWriter(report, new File(outDir, report.moviesFile), movies, movieOrder)));
+			files.add(writers.submit(new ReportWriter(report, new File(outDir, report.usersFile), users, userOrder)));
+		}
+		writers.shutdown();
+		for (Future<?> file : files) {
+			try {
+				file.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while writing analysis files", e);
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
 			}
 		}
-		return questions;
+		System.out.println("Wrote " + files.size() + " files in " + (System.currentTimeMillis() - start) + " ms");
 	}
 	
-	private static Collection<Float> getAvgRatesVector(NetflixObject[] objects) {
-		ArrayList<Float> rates = new ArrayList<Float>(objects.length);
-		for (NetflixObject obj : objects) {
-			if (obj != null) {
-				rates.add(obj.getAvgRate());
+	/**
+	 * Values of the users or movies by their slot, the dense index of a user or the
+	 * id of a movie.
+	 */
+	private static final class Columns {
+		
+		private final int[] ids;
+		
+		private final boolean[] present;
+		
+		private final int[] rents;
+		
+		private final int[] questions;
+		
+		private final float[] avgRates;
+		
+		private final float[] stdDevs;
+		
+		Columns(int size) {
+			ids = new int[size];
+			present = new boolean[size];
+			rents = new int[size];
+			questions = new int[size];
+			avgRates = new float[size];
+			stdDevs = new float[size];
+		}
+		
+		void set(int slot, NetflixObject obj) {
+			ids[slot] = obj.getId();
+			rents[slot] = obj.getNumOfRents();
+			questions[slot] = obj.getNumOfQuestions();
+			avgRates[slot] = obj.getAvgRate();
+			stdDevs[slot] = obj.getStdDev();
+			present[slot] = true;
+		}
+		
+		int count() {
+			int count = 0;
+			for (boolean set : present) {
+				if (set) {
+					count++;
+				}
+			}
+			return count;
+		}
+		
+		/**
+		 * @return the slots holding values, in ascending order
+		 */
+		int[] slots() {
+			int[] slots = new int[count()];
+			int count = 0;
+			for (int slot = 0; slot < present.length; slot++) {
+				if (present[slot]) {
+					slots[count++] = slot;
+				}
 			}
+			return slots;
 		}
-		return rates;
 	}
 	
-	private static Float[][] getRentsSdtDevsMatrix(NetflixObject[] objects) {
-		Float[][] matrix = new Float[objects.length][2];
-		for (NetflixObject obj : objects) {
-			if (obj != null) {
-				matrix[obj.getId()][0] = obj.getStdDev();
-				matrix[obj.getId()][1] = (float) obj.getNumOfRents();
+	/**
+	 * Analysis files, each written once for the movies and once for the users. A
+	 * vector file holds a line of the values of the included objects, a matrix file
+	 * holds a line per object.
+	 */
+	private enum Report {
+		
+		VALID_RENTS_TO_QUESTIONS("ValidMoviesRentsToQuestionsRatios.txt", "ValidUsersRentsToQuestionsRatio.txt", false) {
+			@Override
+			boolean includes(Columns values, int slot) {
+				return values.questions[slot] != 0;
+			}
+			
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write((float) values.rents[slot] / (float) values.questions[slot]);
+			}
+		},
+		INVALID_RENTS_TO_QUESTIONS("InvalidMoviesRentsToQuestionsRatios.txt", "InvalidUsersRentsToQuestionsRatio.txt", false) {
+			@Override
+			boolean includes(Columns values, int slot) {
+				return values.questions[slot] == 0;
+			}
+			
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write((float) values.rents[slot]);
+			}
+		},
+		VALID_QUESTIONS_TO_RENTS("ValidMoviesQuestionsToRentsRatios.txt", "ValidUsersQuestionsToRentsRatio.txt", false) {
+			@Override
+			boolean includes(Columns values, int slot) {
+				return values.rents[slot] != 0;
+			}
+			
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write((float) values.questions[slot] / (float) values.rents[slot]);
+			}
+		},
+		INVALID_QUESTIONS_TO_RENTS("InvalidMoviesQuestionsToRentsRatios.txt", "InvalidUsersQuestionsToRentsRatio.txt", false) {
+			@Override
+			boolean includes(Columns values, int slot) {
+				return values.rents[slot] == 0;
 			}
+			
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write((float) values.rents[slot]);
+			}
+		},
+		RENTS("MoviesRents.txt", "UsersRents.txt", false) {
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write(values.rents[slot]);
+			}
+		},
+		QUESTIONS("MoviesQuestions.txt", "UsersQuestions.txt", false) {
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write(values.questions[slot]);
+			}
+		},
+		RATES("MoviesRates.txt", "UsersRates.txt", false) {
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write(values.avgRates[slot]);
+			}
+		},
+		STD_DEVS("MoviesStdDevs.txt", "UsersStdDevs.txt", false) {
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write(values.stdDevs[slot]);
+			}
+		},
+		RENTS_STD_DEVS("MoviesRentsStdDevs.txt", "UsersRentsStdDevs.txt", true) {
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write(values.stdDevs[slot]);
+				out.write((float) values.rents[slot]);
+			}
+		},
+		QUESTIONS_STD_DEVS("MoviesQuestionsStdDevs.txt", "UsersQuestionsStdDevs.txt", true) {
+			@Override
+			void write(Columns values, int slot, ChannelOutput out) throws IOException {
+				out.write(values.stdDevs[slot]);
+				out.write((float) values.questions[slot]);
+			}
+		};
+		
+		private final String moviesFile;
+		
+		private final String usersFile;
+		
+		private final boolean matrix;
+		
+		private Report(String moviesFile, String usersFile, boolean matrix) {
+			this.moviesFile = moviesFile;
+			this.usersFile = usersFile;
+			this.matrix = matrix;
 		}
-		return matrix;
+		
+		boolean includes(Columns values, int slot) {
+			return true;
+		}
+		
+		abstract void write(Columns values, int slot, ChannelOutput out) throws IOException;
 	}
 	
-	private static Float[][] getQuestionsSdtDevsMatrix(NetflixObject[] objects) {
-		Float[][] matrix = new Float[objects.length][2];
-		for (NetflixObject obj : objects) {
-			if (obj != null) {
-				matrix[obj.getId()][0] = obj.getStdDev();
-				matrix[obj.getId()][1] = (float) obj.getNumOfQuestions();
+	/**
+	 * Writes a report of the movies or of the users to a file.
+	 */
+	private static final class ReportWriter implements Callable<Void> {
+		
+		private final Report report;
+		
+		private final File file;
+		
+		private final Columns values;
+		
+		private final int[] order;
+		
+		ReportWriter(Report report, File file, Columns values, int[] order) {
+			this.report = report;
+			this.file = file;
+			this.values = values;
+			this.order = order;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			if (file.exists()) {
+				return null;
 			}
+			ChannelOutput out = new ChannelOutput(new FileOutputStream(file).getChannel());
+			try {
+				for (int slot : order) {
+					if (report.includes(values, slot)) {
+						report.write(values, slot, out);
+						if (report.matrix) {
+							out.newLine();
+						}
+					}
+				}
+				if (!report.matrix) {
+					out.newLine();
+				}
+			} finally {
+				out.close();
+			}
+			return null;
 		}
-		return matrix;
 	}
 	
-	private static Collection<Float> getSdtDevsVector(NetflixObject[] objects) {
-		ArrayList<Float> rates = new ArrayList<Float>(objects.length);
-		for (NetflixObject obj : objects) {
-			if (obj != null) {
-				rates.add(obj.getStdDev());
+	/**
+	 * Buffered ASCII output of space separated values to a channel.
+	 */
+	private static final class ChannelOutput {
+		
+		private static final byte[] NEW_LINE = System.getProperty("line.separator").getBytes();
+		
+		private final WritableByteChannel channel;
+		
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		
+		ChannelOutput(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+		
+		void write(int value) throws IOException {
+			write(String.valueOf(value));
+		}
+		
+		void write(float value) throws IOException {
+			write(String.valueOf(value));
+		}
+		
+		private void write(String value) throws IOException {
+			if (buffer.remaining() < value.length() + 1) {
+				flush();
+			}
+			for (int i = 0; i < value.length(); i++) {
+				buffer.put((byte) value.charAt(i));
+			}
+			buffer.put((byte) ' ');
+		}
+		
+		void newLine() throws IOException {
+			if (buffer.remaining() < NEW_LINE.length) {
+				flush();
+			}
+			buffer.put(NEW_LINE);
+		}
+		
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+		
+		void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
 			}
 		}
-		return rates;
 	}
 
 	public static void analyzeRatios(NetflixDB db) {
@@ -216,35 +444,6 @@ public class NetflixAnalyzer {
 		}		
 	}
 	
-	private static void saveMatrixToFile(Number[][] values,
-			String fileName) {
-		try {
-			File file = new File(OUT_DIR, fileName);
-			if (!file.exists()) {
-				file.createNewFile();
-				BufferedWriter out = new BufferedWriter(new FileWriter(file));	
-				boolean newLine;
-				for (int i = 0; i < values.length; i++) {
-					newLine = false;
-					for (int j = 0; j < values[i].length; j ++) {
-						if (values[i][j] != null) {
-							out.write(String.valueOf(values[i][j]));
-							out.write(' ');
-							newLine = true;
-						}
-					}
-					if (newLine) {
-						out.newLine();
-					}
-				}				
-				out.close();
-			}			
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}		
-	}
-
 	public static Collection<Float> getRentsQuestionsValidRatioVector(NetflixObject[] objects) {
 		ArrayList<Float> ratioList = new ArrayList<Float>(objects.length);
 		for (NetflixObject obj : objects) {
@@ -287,12 +486,53 @@ public class NetflixAnalyzer {
 		return ratioList;
 	}
 
+	/**
+	 * Loads a serialized DB, or opens a DB snapshot written by {@link NetflixDBSnapshot}.
+	 * When the <code>{@value #CACHE_PROPERTY}</code> system property is set, e.g. to
+	 * <code>512m</code>, a snapshot is opened as a {@link PagedNetflixDB} with the
+	 * property value as its memory ceiling.
+	 * 
+	 * @param dbFileName the DB file name
+	 * @return the DB, <code>null</code> if it could not be loaded
+	 */
 	public static NetflixDB loadDB(String dbFileName) {
+		String cache = System.getProperty(CACHE_PROPERTY);
+		return loadDB(dbFileName, cache == null ? 0 : parseBytes(cache));
+	}
+	
+	/**
+	 * Loads a serialized DB, or opens a DB snapshot written by {@link NetflixDBSnapshot}.
+	 * 
+	 * @param dbFileName the DB file name
+	 * @param cacheBytes memory ceiling of a {@link PagedNetflixDB} over a snapshot, 0
+	 * for memory mapping the whole snapshot
+	 * @return the DB, <code>null</code> if it could not be loaded
+	 */
+	public static NetflixDB loadDB(String dbFileName, long cacheBytes) {
 		NetflixDB db = null;
+		File dbFile = new File(dbFileName);
+		if (NetflixDBSnapshot.isSnapshot(dbFile) && cacheBytes > 0) {
+			System.out.println("Opening paged db snapshot, memory ceiling " + cacheBytes + " bytes");
+			try {
+				db = new PagedNetflixDB(dbFile, cacheBytes);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return db;
+		}
+		if (NetflixDBSnapshot.isSnapshot(dbFile)) {
+			System.out.println("Opening db snapshot");
+			try {
+				db = NetflixDBSnapshot.open(dbFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return db;
+		}
 		System.out.println("Loading db from persistent storage");
 		ObjectInputStream ois;
 		try {
-			ois = new ObjectInputStream(new FileInputStream(dbFileName));
+			ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(dbFileName), 1 << 16));
 			db = (NetflixDB) ois.readObject();
 			ois.close();
 		} catch (FileNotFoundException e) {
@@ -307,4 +547,28 @@ public class NetflixAnalyzer {
 		}
 		return db;
 	}
+	
+	/**
+	 * @param bytes number of bytes with an optional k, m or g suffix
+	 * @return the number of bytes
+	 */
+	private static long parseBytes(String bytes) {
+		String value = bytes.trim().toLowerCase();
+		int shift = 0;
+		switch (value.charAt(value.length() - 1)) {
+		case 'k':
+			shift = 10;
+			break;
+		case 'm':
+			shift = 20;
+			break;
+		case 'g':
+			shift = 30;
+			break;
+		}
+		if (shift > 0) {
+			value = value.substring(0, value.length() - 1);
+		}
+		return Long.parseLong(value) << shift;
+	}
 }
@@ -1,8 +1,13 @@
 package dbanalysis;
 
 import java.text.DateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface NetflixDB {
 
@@ -13,6 +18,15 @@ public interface NetflixDB {
 	public abstract void writeRent(Rent rent);
 
 	public abstract void writeQuestion(Rent unratedRent);
+	
+	/**
+	 * Removes a rent previously written by {@link #writeRent(Rent)} from the DB
+	 * and from its user and movie rents. The aggregates of the user and movie
+	 * are not changed, see {@link NetflixObject#revertRent(Rent)}.
+	 * 
+	 * @param rent the rent to remove
+	 */
+	public abstract void removeRent(Rent rent);
 
 	public abstract DBMovie readMovie(int movieId);
 
@@ -22,6 +36,22 @@ public interface NetflixDB {
 
 	public abstract Rent readQuestion(int movieId, int userId, Date date);
 	
+	/**
+	 * Finds the rate a user gave a movie without creating a {@link Rent}.
+	 * 
+	 * @param movieId the movie id
+	 * @param userId the user id
+	 * @return the rate, {@link DBUser#NO_RATE} if the user did not rate the movie
+	 */
+	public abstract int rateOf(int movieId, int userId);
+	
+	/**
+	 * {@link DateFormat} is not thread safe, hence implementations return a new
+	 * instance on every call. Rents keep their date as a day number, use
+	 * {@link common.DayCodec} to convert it without creating objects.
+	 * 
+	 * @return a new date format of the dates of this DB.
+	 */
 	public abstract DateFormat getDateFormat();
 	
 	public abstract DBMovie[] getAllMovies();
@@ -32,6 +62,64 @@ public interface NetflixDB {
 	
 	public abstract int getNumberOfUsers();
 	
+	/**
+	 * @return the mapping of the user ids of the DB to dense indices, which per-user
+	 * data may use as array indices.
+	 */
+	public abstract UserIdMap getUserIdMap();
+	
 	public abstract Iterator<Rent> rentsIterator();
+	
+	/**
+	 * Streams of the DB are sequential when created and may be processed in
+	 * parallel by {@link Stream#parallel()}. Implementations read their storage
+	 * without copying it where they can, and split it in sized halves. The DB must
+	 * not be changed while a stream is used, which a frozen DB guarantees.
+	 * <p>
+	 * The rents are read by their movies, see {@link #moviesStream()}, and split by
+	 * the number of rents of the movies, so the halves hold equal numbers of rents.
+	 * 
+	 * @return a stream of all the rents of the DB
+	 */
+	public default Stream<Rent> ratingsStream() {
+		return StreamSupport.stream(MovieRentsSpliterator.of(
+				moviesStream().toArray(DBMovie[]::new)), false);
+	}
+	
+	/**
+	 * The users are read by {@link #readUser(int)}, so a DB creating its users on
+	 * demand creates them in the threads of the stream, see {@link #ratingsStream()}.
+	 * 
+	 * @return a stream of all the users of the DB, by their dense index, see
+	 * {@link #getUserIdMap()}
+	 * @throws UnsupportedOperationException if the DB can not list its users
+	 */
+	public default Stream<DBUser> usersStream() {
+		final UserIdMap userIds = getUserIdMap();
+		return IntStream.range(0, userIds.size()).mapToObj(index -> readUser(userIds.getUserId(index)));
+	}
+	
+	/**
+	 * The movies are read by {@link #readMovie(int)} for every id below
+	 * {@link #getNumberOfMovies()} when the stream is created, so the stream is
+	 * sized. Implementations knowing the ids of their movies read them in the
+	 * threads of the stream instead, see {@link #ratingsStream()}.
+	 * 
+	 * @return a stream of all the movies of the DB, by their id
+	 */
+	public default Stream<DBMovie> moviesStream() {
+		return Arrays.stream(IntStream.range(0, getNumberOfMovies()).mapToObj(this::readMovie)
+				.filter(Objects::nonNull).toArray(DBMovie[]::new));
+	}
+	
+	/**
+	 * Makes the DB immutable once it is built: the rents of every user are sorted
+	 * by movie id and the rents of every movie by user id, see
+	 * {@link NetflixObject#freeze()}, and implementations may compact their storage.
+	 * A frozen DB may be read by any number of threads without synchronization, and
+	 * its write operations throw {@link UnsupportedOperationException}. Read only
+	 * DBs do nothing.
+	 */
+	public abstract void freeze();
 
 }
\ No newline at end of file
@@ -1,42 +1,101 @@
 package dbanalysis;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.text.DateFormat;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Iterator;
 
+import common.ArchiveRentsReader;
+import common.ColumnarRentsFile;
 import common.DBFolderIterator;
-import common.QuestionsFileIterator;
+import common.DayCodec;
+import common.RentHandler;
+import common.RentsFileParser;
 
 
 /**
  * Builds fast netflix DB from the set of files. User need to specify the
- * directory and the place of the questions file (not mandatory).
+ * directory and the place of the questions file (not mandatory). Both may
+ * also be binary files written by {@link common.ColumnarRentsConverter}, and
+ * the training set may be a tar, tar.gz or zip archive read by an
+ * {@link ArchiveRentsReader}.
+ * <p>
+ * While reading a training set folder the builder periodically writes a
+ * checkpoint of the partial DB to <code>{@value #CHECKPOINT_FILE}</code> in the
+ * folder. A build of the same folder into the same DB class resumes from the
+ * files of the last checkpoint, and the checkpoint is deleted once the DB is
+ * saved. The build progress is logged every minute and is available through
+ * JMX as {@value BuildProgress#OBJECT_NAME}.
+ * <p>
+ * The DB is saved serialized, or as a memory mapped {@link NetflixDBSnapshot}
+ * when the <code>-snapshot</code> flag is given. The <code>-months</code> and
+ * <code>-weeks</code> flags build {@link TimeBucketedStats} of every user and
+ * movie, the snapshot does not keep them.
+ * <p>
+ * Usage: NetflixDBBuilder [-snapshot] [-months | -weeks] &lt;DB class&gt; &lt;training set folder&gt; [questions file]
+ * [threads] [checkpoint interval in minutes, 0 for none]
  * 
  * @author mizrachi
  *
  */
 public class NetflixDBBuilder {
 	
-	private static volatile int rentNum;
+	/**
+	 * Name of the checkpoint file written in the training set folder.
+	 */
+	public static final String CHECKPOINT_FILE = "NetflixDBBuilder.checkpoint";
 	
-	private static volatile int questionNum;
+	/**
+	 * Default interval between checkpoints in milliseconds.
+	 */
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 10 * 60 * 1000L;
+	
+	//number of files read between two checks whether a checkpoint is due
+	private static final int CHECKPOINT_BATCH = 256;
+	
+	private static final long LOG_INTERVAL = 60 * 1000L;
+	
+	private static volatile BuildProgress progress = new BuildProgress();
 	
 	private static volatile boolean finished;
 
-	public static void main(final String[] args) throws IOException {
+	public static void main(String[] commandLine) throws IOException {
+		int flags = 0;
+		boolean snapshotFlag = false;
+		int timeBucketsFlag = TimeBucketedStats.NONE;
+		for (; flags < commandLine.length && commandLine[flags].startsWith("-"); flags++) {
+			if (commandLine[flags].equals("-snapshot")) {
+				snapshotFlag = true;
+			} else if (commandLine[flags].equals("-months")) {
+				timeBucketsFlag = TimeBucketedStats.MONTH;
+			} else if (commandLine[flags].equals("-weeks")) {
+				timeBucketsFlag = TimeBucketedStats.WEEK;
+			} else {
+				System.err.println("Unknown flag " + commandLine[flags]);
+				return;
+			}
+		}
+		final boolean snapshot = snapshotFlag;
+		final int timeBuckets = timeBucketsFlag;
+		final String[] args = Arrays.copyOfRange(commandLine, flags, commandLine.length);
 		final NetflixDBBuilder builder = new NetflixDBBuilder();
 		Runnable builderThread = new Runnable() {
 			
 			@Override
 			public void run() {				
 				System.out.println("Started DB building.");
-				builder.buildDB(args[0], args[1], args.length == 3 ? args[2] : null);
+				builder.buildDB(args[0], args[1], args.length >= 3 ? args[2] : null,
+						args.length >= 4 ? Integer.valueOf(args[3]) : 1,
+						args.length >= 5 ? Long.valueOf(args[4]) * 60 * 1000 
+								: DEFAULT_CHECKPOINT_INTERVAL, snapshot, timeBuckets);
 				System.out.println("Finished DB building.");
 			}
 		};
@@ -44,10 +103,61 @@ public class NetflixDBBuilder {
 	}
 
 	public static void buildDB(String className, String dbFolder, String questionsFileName) {
-
-		rentNum = 0;
-		questionNum = 0;
+		buildDB(className, dbFolder, questionsFileName, 1);
+	}
+	
+	public static void buildDB(String className, String dbFolder, String questionsFileName,
+			int numOfThreads) {
+		buildDB(className, dbFolder, questionsFileName, numOfThreads, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+	
+	public static void buildDB(String className, String dbFolder, String questionsFileName,
+			int numOfThreads, long checkpointInterval) {
+		buildDB(className, dbFolder, questionsFileName, numOfThreads, checkpointInterval, false);
+	}
+	
+	/**
+	 * Builds the DB reading the rents files with the specified number of threads.
+	 * 
+	 * @param className the {@link NetflixDB} implementation class name.
+	 * @param dbFolder the training set folder, archive or columnar rents file.
+	 * @param questionsFileName the questions file, may be <code>null</code>.
+	 * @param numOfThreads number of threads reading the rents files. When bigger
+	 * than one the files are read by a {@link ParallelRentsLoader}. For an archive
+	 * it is the number of threads inflating its entries.
+	 * @param checkpointInterval minimal milliseconds between two checkpoints, 0 or
+	 * less for building without checkpoints.
+	 * @param snapshot <code>true</code> for saving the DB as a {@link NetflixDBSnapshot}
+	 */
+	public static void buildDB(String className, String dbFolder, String questionsFileName,
+			int numOfThreads, long checkpointInterval, boolean snapshot) {
+		buildDB(className, dbFolder, questionsFileName, numOfThreads, checkpointInterval, snapshot,
+				TimeBucketedStats.NONE);
+	}
+	
+	/**
+	 * Builds the DB as {@link #buildDB(String, String, String, int, long, boolean)} does,
+	 * and builds time bucketed statistics of every user and movie.
+	 * 
+	 * @param timeBuckets {@link TimeBucketedStats#MONTH}, {@link TimeBucketedStats#WEEK}
+	 * or {@link TimeBucketedStats#NONE}
+	 */
+	public static void buildDB(String className, String dbFolder, String questionsFileName,
+			int numOfThreads, long checkpointInterval, boolean snapshot, int timeBuckets) {
+		
 		finished = false;
+		progress = new BuildProgress();
+		progress.start(LOG_INTERVAL);
+		try {
+			build(className, dbFolder, questionsFileName, numOfThreads, checkpointInterval, snapshot,
+					timeBuckets);
+		} finally {
+			progress.stop();
+		}
+	}
+	
+	private static void build(String className, String dbFolder, String questionsFileName,
+			int numOfThreads, long checkpointInterval, boolean snapshot, int timeBuckets) {
 		
 		NetflixDB db;
 		try {
@@ -62,67 +172,225 @@ public class NetflixDBBuilder {
 			System.err.println("Class not found when trying to instatiate object " + className);
 			return;
 		}
-		Iterator<Rent> rents = new DBFolderIterator(dbFolder);
-		DateFormat dateFormat = db.getDateFormat();
-
-		Rent rent;
-		DBUser user;
-		DBMovie movie;
 
 		//reading rents		
 		System.out.println("Started reading rents.");
-		while (rents.hasNext()) {
-			rent = rents.next();
-			user = db.readUser(rent.getUserId());
-			if (user == null) {
-				user = new DBUser(rent.getUserId());
-			}
-			movie = db.readMovie(rent.getMovieId());
-			if (movie == null) {
-				movie = new DBMovie(rent.getMovieId());
+		progress.setPhase("Reading rents");
+		File source = new File(dbFolder);
+		File checkpointFile = null;
+		try {
+			if (ColumnarRentsFile.isColumnar(source)) {
+				new ColumnarRentsFile(source).scan(new RentsWriter(db));
+			} else if (ArchiveRentsReader.isArchive(source)) {
+				new ArchiveRentsReader(source, numOfThreads).parse(new RentsWriter(db));
+			} else {
+				File[] files = DBFolderIterator.listMovieFiles(dbFolder);
+				progress.setTotalFiles(files.length);
+				int filesDone = 0;
+				if (checkpointInterval > 0) {
+					checkpointFile = new File(source, CHECKPOINT_FILE);
+					Checkpoint checkpoint = readCheckpoint(checkpointFile, className, files);
+					if (checkpoint != null) {
+						db = checkpoint.db;
+						filesDone = checkpoint.filesDone;
+						progress.resume(checkpoint.rentNum, filesDone);
+						System.out.println("Resuming from checkpoint after " + filesDone + " files.");
+					}
+				}
+				readRents(db, files, filesDone, numOfThreads, checkpointInterval, checkpointFile, 
+						className);
 			}
-			user.updateRent(rent);
-			movie.updateRent(rent);
-			db.writeMovie(movie);
-			db.writeUser(user);
-			db.writeRent(rent);
-			rentNum++;
+		} catch (IOException e) {
+			System.err.println("Error while reading rents. " + e.getMessage());
+			return;
 		}
-
 		System.out.println("Finished reading rents.");
 		
 		if (questionsFileName != null) {
 			//reading questions
-			Iterator<Rent> questions = new QuestionsFileIterator(questionsFileName);
 			System.out.println("Started reading questions.");
-			while (questions.hasNext()) {
-				rent = questions.next();
-				user = db.readUser(rent.getUserId());
-				if (user == null) {
-					System.err.println("Could not find user with id: " + rent.getUserId());
+			progress.setPhase("Reading questions");
+			File questionsFile = new File(questionsFileName);
+			try {
+				if (ColumnarRentsFile.isColumnar(questionsFile)) {
+					new ColumnarRentsFile(questionsFile).scan(new QuestionsWriter(db));
 				} else {
-					user.updateQuestion(rent);
-					db.writeUser(user);
+					RentsFileParser.parseQuestions(questionsFile, new QuestionsWriter(db));
 				}
-				movie = db.readMovie(rent.getMovieId());
-				if (movie == null) {
-					System.err.println("Could not find movie with id: " + rent.getMovieId());
-				} else {
-					movie.updateQuestion(rent);
-					db.writeMovie(movie);
-				}		
-				questionNum++;
+			} catch (IOException e) {
+				System.err.println("Error while reading questions. " + e.getMessage());
+				return;
 			}
-			((QuestionsFileIterator) questions).finish();
 			System.out.println("Finished reading questions.");
 		}
+		if (timeBuckets != TimeBucketedStats.NONE) {
+			progress.setPhase("Building time buckets");
+			long bytes = buildTimeStats(db, timeBuckets);
+			System.out.println("Time buckets take " + bytes / 1024 + " KB.");
+		}
+		progress.setPhase("Freezing");
+		db.freeze();
 		//now saving objects to persistent storage
+		progress.setPhase("Saving");
+		File folder = source.isDirectory() ? source : source.getParentFile();
+		File saved = snapshot ? saveSnapshot(db, folder) : saveDB(db, folder);
+		if (saved != null && checkpointFile != null) {
+			checkpointFile.delete();
+		}
+		progress.setPhase("Finished");
+		finished = true;
+	}
+	
+	/**
+	 * Reads the rents files starting at the specified file, writing a checkpoint
+	 * whenever the checkpoint interval has passed.
+	 */
+	private static void readRents(NetflixDB db, File[] files, int from, int numOfThreads,
+			long checkpointInterval, File checkpointFile, String className) throws IOException {
+		
+		int batchSize = checkpointInterval > 0 ? CHECKPOINT_BATCH : files.length;
+		long lastCheckpoint = System.currentTimeMillis();
+		RentsWriter writer = new RentsWriter(db);
+		while (from < files.length) {
+			int to = Math.min(from + batchSize, files.length);
+			if (numOfThreads > 1) {
+				ParallelRentsLoader loader = new ParallelRentsLoader(
+						Arrays.copyOfRange(files, from, to), numOfThreads);
+				loader.setProgress(progress);
+				loader.load(db);
+			} else {
+				for (int i = from; i < to; i++) {
+					RentsFileParser.parseRents(files[i], writer);
+					progress.fileDone();
+				}
+			}
+			from = to;
+			if (checkpointInterval > 0 && from < files.length 
+					&& System.currentTimeMillis() - lastCheckpoint >= checkpointInterval) {
+				writeCheckpoint(checkpointFile, className, files, from, db);
+				lastCheckpoint = System.currentTimeMillis();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the partial DB and the names of the files read into it. The checkpoint
+	 * is written to a temporary file first, so a crash while writing it leaves the
+	 * previous checkpoint intact.
+	 */
+	private static void writeCheckpoint(File checkpointFile, String className, File[] files,
+			int filesDone, NetflixDB db) {
+		progress.setPhase("Writing checkpoint");
+		File tmp = new File(checkpointFile.getPath() + ".tmp");
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmp)));
+			try {
+				oos.writeObject(className);
+				String[] names = new String[filesDone];
+				for (int i = 0; i < filesDone; i++) {
+					names[i] = files[i].getName();
+				}
+				oos.writeObject(names);
+				oos.writeLong(progress.getRentsRead());
+				oos.writeObject(db);
+			} finally {
+				oos.close();
+			}
+			checkpointFile.delete();
+			if (!tmp.renameTo(checkpointFile)) {
+				System.err.println("Unable to rename checkpoint file " + tmp);
+				return;
+			}
+			progress.checkpointWritten();
+			System.out.println("Wrote checkpoint after " + filesDone + " files.");
+		} catch (IOException e) {
+			System.err.println("Error while writing checkpoint. " + e.getMessage());
+		} finally {
+			progress.setPhase("Reading rents");
+		}
+	}
+	
+	/**
+	 * @return the checkpoint, <code>null</code> if there is no valid checkpoint of
+	 * the specified class and files.
+	 */
+	private static Checkpoint readCheckpoint(File checkpointFile, String className, File[] files) {
+		if (!checkpointFile.exists()) {
+			return null;
+		}
+		progress.setPhase("Reading checkpoint");
+		try {
+			ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(
+					new FileInputStream(checkpointFile)));
+			try {
+				if (!className.equals(ois.readObject())) {
+					System.err.println("Ignoring checkpoint of another DB class.");
+					return null;
+				}
+				String[] names = (String[]) ois.readObject();
+				if (names.length > files.length) {
+					System.err.println("Ignoring checkpoint of another training set.");
+					return null;
+				}
+				for (int i = 0; i < names.length; i++) {
+					if (!names[i].equals(files[i].getName())) {
+						System.err.println("Ignoring checkpoint of another training set.");
+						return null;
+					}
+				}
+				Checkpoint checkpoint = new Checkpoint();
+				checkpoint.filesDone = names.length;
+				checkpoint.rentNum = ois.readLong();
+				checkpoint.db = (NetflixDB) ois.readObject();
+				return checkpoint;
+			} finally {
+				ois.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Ignoring unreadable checkpoint. " + e.getMessage());
+		} catch (ClassNotFoundException e) {
+			System.err.println("Ignoring unreadable checkpoint. " + e.getMessage());
+		} finally {
+			progress.setPhase("Reading rents");
+		}
+		return null;
+	}
+	
+	/**
+	 * Builds time bucketed statistics of all the users and movies of the DB.
+	 * 
+	 * @param db the DB
+	 * @param granularity {@link TimeBucketedStats#MONTH} or {@link TimeBucketedStats#WEEK}
+	 * @return estimated number of heap bytes taken by the statistics
+	 */
+	public static long buildTimeStats(NetflixDB db, int granularity) {
+		long bytes = 0;
+		for (NetflixObject[] objects : new NetflixObject[][] {db.getAllUsers(), db.getAllMovies()}) {
+			for (NetflixObject object : objects) {
+				if (object != null) {
+					object.buildTimeStats(granularity);
+					bytes += object.getTimeStats().getMemoryBytes();
+				}
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Writes the DB to a <code>NetflixDB_&lt;date&gt;.obj</code> file in the specified folder.
+	 * 
+	 * @param db the DB
+	 * @param folder the folder, may be <code>null</code> for the working directory
+	 * @return the file the DB was written to, <code>null</code> if writing failed
+	 */
+	public static File saveDB(NetflixDB db, File folder) {
 		ObjectOutputStream oos;
 		try {
 			System.out.println("Writing db to persistent storage");
 			Date currentDate = Calendar.getInstance().getTime();			
-			File file = new File(dbFolder, "NetflixDB_" + 
-					dateFormat.format(currentDate) +".obj");
+			File file = new File(folder, "NetflixDB_" + 
+					DayCodec.format(DayCodec.fromDate(currentDate)) +".obj");
 			if (file.exists()) {
 				file.delete();
 			}
@@ -130,7 +398,7 @@ public class NetflixDBBuilder {
 			oos = new ObjectOutputStream(new FileOutputStream(file));
 			oos.writeObject(db);
 			oos.close();
-			
+			return file;
 		} catch (FileNotFoundException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -138,10 +406,116 @@ public class NetflixDBBuilder {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		finished = true;
+		return null;
+	}
+	
+	/**
+	 * Writes the DB as a {@link NetflixDBSnapshot} to a <code>NetflixDB_&lt;date&gt;.nfx</code> 
+	 * file in the specified folder.
+	 * 
+	 * @param db the DB
+	 * @param folder the folder, may be <code>null</code> for the working directory
+	 * @return the file the DB was written to, <code>null</code> if writing failed
+	 */
+	public static File saveSnapshot(NetflixDB db, File folder) {
+		System.out.println("Writing db snapshot");
+		File file = new File(folder, "NetflixDB_" + 
+				DayCodec.format(DayCodec.fromDate(Calendar.getInstance().getTime())) 
+				+ NetflixDBSnapshot.EXTENSION);
+		try {
+			NetflixDBSnapshot.write(db, file);
+			return file;
+		} catch (IOException e) {
+			System.err.println("Error while writing db snapshot. " + e.getMessage());
+			return null;
+		}
 	}
 	
 	public boolean isFinished() {
 		return finished;
 	}
+	
+	/**
+	 * @return the progress of the current (or last) build
+	 */
+	public static BuildProgress getProgress() {
+		return progress;
+	}
+	
+	/**
+	 * State restored from a checkpoint file.
+	 */
+	private static class Checkpoint {
+		
+		private NetflixDB db;
+		
+		private int filesDone;
+		
+		private long rentNum;
+	}
+	
+	/**
+	 * Writes every parsed rent to the DB, updating its user and movie.
+	 */
+	private static class RentsWriter implements RentHandler {
+		
+		private NetflixDB db;
+		
+		public RentsWriter(NetflixDB db) {
+			this.db = db;
+		}
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			Rent rent = new Rent(movieId, userId, day, rate);
+			DBUser user = db.readUser(userId);
+			if (user == null) {
+				user = new DBUser(userId);
+			}
+			DBMovie movie = db.readMovie(movieId);
+			if (movie == null) {
+				movie = new DBMovie(movieId);
+			}
+			user.updateRent(rent);
+			movie.updateRent(rent);
+			db.writeMovie(movie);
+			db.writeUser(user);
+			db.writeRent(rent);
+			progress.addRents(1);
+		}
+	}
+	
+	/**
+	 * Writes every parsed question to the DB, so {@link NetflixDB#readQuestion(int, int, java.util.Date)}
+	 * finds it, and updates the questions counters of its user and movie.
+	 */
+	private static class QuestionsWriter implements RentHandler {
+		
+		private NetflixDB db;
+		
+		public QuestionsWriter(NetflixDB db) {
+			this.db = db;
+		}
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			Rent question = new Rent(movieId, userId, day, 0);
+			db.writeQuestion(question);
+			DBUser user = db.readUser(userId);
+			if (user == null) {
+				System.err.println("Could not find user with id: " + userId);
+			} else {
+				user.updateQuestion(question);
+				db.writeUser(user);
+			}
+			DBMovie movie = db.readMovie(movieId);
+			if (movie == null) {
+				System.err.println("Could not find movie with id: " + movieId);
+			} else {
+				movie.updateQuestion(question);
+				db.writeMovie(movie);
+			}		
+			progress.addQuestions(1);
+		}
+	}
 }
@@ -0,0 +1,135 @@
+package dbanalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import common.ColumnarRentsFile;
+import common.DBFolderIterator;
+import common.RentHandler;
+import common.RentsFileParser;
+
+/**
+ * Applies new or changed rents to an existing DB instead of rebuilding it from
+ * scratch. A rent of a user and movie that already have a rent replaces the
+ * existing rent, and the aggregates of both are updated in place. Applying the
+ * rents is proportional to the number of rents applied and to the rents of the
+ * users and movies they touch, not to the size of the DB: a thawed
+ * {@link InMemoryNetflixDB} copies the shared rents of only those users and movies,
+ * see {@link InMemoryNetflixDB#thaw()}.
+ * <p>
+ * {@link #main(String[])} then freezes the DB again, which rebuilds its shared
+ * store, and writes the whole DB, both linear in the size of the DB.
+ * <p>
+ * Usage: NetflixDBDeltaApplier &lt;DB file&gt; &lt;delta folder or columnar rents file&gt;
+ * <br>
+ * The updated DB is written to a new <code>NetflixDB_&lt;date&gt;.obj</code> file
+ * in the delta folder.
+ *
+ * @author mizrachi
+ *
+ */
+public class NetflixDBDeltaApplier implements RentHandler {
+
+	private NetflixDB db;
+
+	private int added;
+
+	private int changed;
+
+	private int unchanged;
+
+	/**
+	 * @param db the DB to update
+	 */
+	public NetflixDBDeltaApplier(NetflixDB db) {
+		this.db = db;
+	}
+
+	/**
+	 * Applies the rents of a delta folder or of a columnar rents file.
+	 *
+	 * @param delta the delta folder or columnar rents file
+	 * @throws IOException if the delta could not be read
+	 */
+	public void apply(File delta) throws IOException {
+		if (ColumnarRentsFile.isColumnar(delta)) {
+			new ColumnarRentsFile(delta).scan(this);
+		} else {
+			RentsFileParser.parseRents(DBFolderIterator.listMovieFiles(delta.getPath()), this);
+		}
+	}
+
+	@Override
+	public void handleRent(int movieId, int userId, int rate, short day) {
+		Rent rent = new Rent(movieId, userId, day, rate);
+		DBUser user = db.readUser(userId);
+		if (user == null) {
+			user = new DBUser(userId);
+		}
+		DBMovie movie = db.readMovie(movieId);
+		if (movie == null) {
+			movie = new DBMovie(movieId);
+		}
+		//a user rents a movie only once, so an existing rent is replaced
+		List<Rent> previous = user.getRentsForMovieId(movieId);
+		if (previous.isEmpty()) {
+			added++;
+		} else {
+			Rent old = previous.get(0);
+			if (old.equals(rent)) {
+				unchanged++;
+				return;
+			}
+			db.removeRent(old);
+			user.revertRent(old);
+			movie.revertRent(old);
+			changed++;
+		}
+		user.updateRent(rent);
+		movie.updateRent(rent);
+		db.writeMovie(movie);
+		db.writeUser(user);
+		db.writeRent(rent);
+	}
+
+	/**
+	 * @return number of rents added so far
+	 */
+	public int getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return number of existing rents replaced so far
+	 */
+	public int getChanged() {
+		return changed;
+	}
+
+	/**
+	 * @return number of rents that were already in the DB
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	public static void main(String[] args) throws IOException {
+		NetflixDB db = NetflixAnalyzer.loadDB(args[0]);
+		File delta = new File(args[1]);
+		//frozen DBs share their rents, see NetflixDB.freeze()
+		if (db instanceof InMemoryNetflixDB) {
+			((InMemoryNetflixDB) db).thaw();
+		} else if (db instanceof ConcurrentNetflixDB) {
+			((ConcurrentNetflixDB) db).thaw();
+		}
+		NetflixDBDeltaApplier applier = new NetflixDBDeltaApplier(db);
+		System.out.println("Started applying delta " + delta);
+		applier.apply(delta);
+		System.out.println("Finished applying delta. Added " + applier.getAdded()
+				+ " rents, changed " + applier.getChanged()
+				+ " rents, skipped " + applier.getUnchanged() + " existing rents.");
+		db.freeze();
+		NetflixDBBuilder.saveDB(db, delta.isDirectory() ? delta : delta.getParentFile());
+	}
+}
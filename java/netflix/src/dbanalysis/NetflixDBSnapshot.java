@@ -0,0 +1,218 @@
+package dbanalysis;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Versioned on-disk snapshot of a DB which is opened by memory mapping it into a
+ * read only {@link CsrNetflixDB}. Opening a snapshot reads its header and row
+ * offsets only; the rents are paged in by the OS on first access, and processes
+ * opening the same snapshot share its pages in the page cache.
+ * <p>
+ * The file layout (big endian) is:
+ * <pre>
+ * int magic ('NFXS'), int version, int size, int maxMovieId, int numOfUsers
+ * int[maxMovieId + 2] movie row offsets
+ * int[numOfUsers]     user ids by dense index, see {@link UserIdMap}
+ * int[numOfUsers + 1] user row offsets by dense index
+ * int[maxMovieId + 1] movie questions counts
+ * int[numOfUsers]     user questions counts by dense index
+ * int[size]   movie rows user ids
+ * short[size] movie rows days
+ * byte[size]  movie rows rates
+ * char[size]  user rows movie ids
+ * short[size] user rows days
+ * byte[size]  user rows rates
+ * </pre>
+ * 
+ * @author mizrachi
+ *
+ */
+public class NetflixDBSnapshot {
+	
+	/**
+	 * Extension of snapshot files.
+	 */
+	public static final String EXTENSION = ".nfx";
+	
+	static final int MAGIC = 0x4E465853;
+	
+	static final int VERSION = 2;
+	
+	static final int HEADER_SIZE = 5 * 4;
+	
+	/**
+	 * Writes a snapshot of the specified DB. A DB which is not a {@link CsrNetflixDB}
+	 * is copied into one first, see {@link CsrNetflixDB#copyOf(NetflixDB)}.
+	 * 
+	 * @param db the DB
+	 * @param file the snapshot file
+	 * @throws IOException if the file could not be written
+	 */
+	public static void write(NetflixDB db, File file) throws IOException {
+		CsrNetflixDB csr = CsrNetflixDB.copyOf(db);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(csr.size());
+			out.writeInt(csr.getMaxMovieId());
+			out.writeInt(csr.getNumberOfUsers());
+			writeInts(csr.getMovieOffsets(), out);
+			writeInts(csr.getUserIdMap().getUserIds(), out);
+			writeInts(csr.getUserOffsets(), out);
+			writeInts(csr.getMovieQuestions(), out);
+			writeInts(csr.getUserQuestions(), out);
+			for (ByteBuffer section : csr.sections()) {
+				CsrNetflixDB.writeSection(section, out);
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Opens a snapshot.
+	 * 
+	 * @param file the snapshot file
+	 * @return a read only DB over the mapped file
+	 * @throws IOException if the file could not be read or is not a snapshot
+	 */
+	public static CsrNetflixDB open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			Index index = readIndex(channel, file);
+			ByteBuffer[] sections = new ByteBuffer[index.sectionPositions.length];
+			for (int i = 0; i < sections.length; i++) {
+				sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, index.sectionPositions[i], 
+						index.sectionSizes[i]);
+			}
+			return new CsrNetflixDB(index.size, index.userIds, index.movieOffsets, index.userOffsets,
+					index.movieQuestions, index.userQuestions, sections);
+		} finally {
+			//the mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Reads the header and the row offsets of a snapshot.
+	 * 
+	 * @param channel channel of the snapshot file
+	 * @param file the snapshot file
+	 * @return the index of the snapshot
+	 * @throws IOException if the file could not be read or is not a snapshot
+	 */
+	static Index readIndex(FileChannel channel, File file) throws IOException {
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		if (header.getInt() != MAGIC) {
+			throw new IOException(file + " is not a DB snapshot");
+		}
+		int version = header.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported DB snapshot version " + version);
+		}
+		Index index = new Index();
+		index.size = header.getInt();
+		int maxMovieId = header.getInt();
+		int numOfUsers = header.getInt();
+		
+		long position = HEADER_SIZE;
+		long indexSize = 4L * ((maxMovieId + 2) + numOfUsers + (numOfUsers + 1) 
+				+ (maxMovieId + 1) + numOfUsers);
+		IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, position, indexSize).asIntBuffer();
+		position += indexSize;
+		index.movieOffsets = readInts(ints, maxMovieId + 2);
+		index.userIds = new UserIdMap(readInts(ints, numOfUsers), numOfUsers);
+		index.userOffsets = readInts(ints, numOfUsers + 1);
+		index.movieQuestions = readInts(ints, maxMovieId + 1);
+		index.userQuestions = readInts(ints, numOfUsers);
+		
+		int size = index.size;
+		index.sectionSizes = new int[] {4 * size, 2 * size, size, 2 * size, 2 * size, size};
+		index.sectionPositions = new long[index.sectionSizes.length];
+		for (int i = 0; i < index.sectionSizes.length; i++) {
+			index.sectionPositions[i] = position;
+			position += index.sectionSizes[i];
+		}
+		return index;
+	}
+	
+	/**
+	 * The header and row offsets of a snapshot, and the positions of its sections
+	 * in the order of {@link CsrNetflixDB#sections()}.
+	 */
+	static class Index {
+		
+		int size;
+		
+		UserIdMap userIds;
+		
+		int[] movieOffsets;
+		
+		int[] userOffsets;
+		
+		int[] movieQuestions;
+		
+		int[] userQuestions;
+		
+		long[] sectionPositions;
+		
+		int[] sectionSizes;
+	}
+	
+	/**
+	 * @param file a file
+	 * @return <code>true</code> if the file is a DB snapshot.
+	 */
+	public static boolean isSnapshot(File file) {
+		if (!file.isFile() || file.length() < HEADER_SIZE) {
+			return false;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				return in.readInt() == MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	private static void writeInts(int[] values, DataOutputStream out) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+	
+	private static int[] readInts(IntBuffer src, int length) {
+		int[] values = new int[length];
+		src.get(values);
+		return values;
+	}
+	
+	/**
+	 * Usage: NetflixDBSnapshot &lt;DB file&gt; &lt;snapshot file&gt;
+	 * <br>
+	 * Converts a serialized DB into a snapshot.
+	 */
+	public static void main(String[] args) throws IOException {
+		NetflixDB db = NetflixAnalyzer.loadDB(args[0]);
+		System.out.println("Writing snapshot " + args[1]);
+		write(db, new File(args[1]));
+		System.out.println("Finished.");
+	}
+}
@@ -2,42 +2,35 @@ package dbanalysis;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
 
-import common.Compartors;
-
 
 public abstract class NetflixObject implements Serializable, Comparable<NetflixObject>{
 
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = 2864329175899729374L;
+	private static final long serialVersionUID = 5240384917270853317L;
 
 	private int id;
 	
-	private int numOfRents;
-	
 	private int numOfQuestions;
 	
-	private int accRate;
+	private RatingStats stats;
 	
-	private int powAccRate;
+	private TimeBucketedStats timeStats;
 	
-	private List<Rent> rents;
+	private RentStore rents;
 	
-	private List<Rent> questions;
+	//created by the first question
+	private RentStore questions;
 	
 	public NetflixObject(int id) {
 		this.id = id;
-		numOfRents = 0;
 		numOfQuestions = 0;
-		accRate = 0;
-		powAccRate = 0;
-		rents = new ArrayList<Rent>();
-		questions = new ArrayList<Rent>();
+		stats = new RatingStats();
+		rents = new RentStore();
 	}
 
 	/**
@@ -53,7 +46,7 @@ public abstract class NetflixObject implements Serializable, Comparable<NetflixO
 	 * @return the numOfRents
 	 */
 	public int getNumOfRents() {
-		return numOfRents;
+		return (int) stats.getCount();
 	}
 
 
@@ -71,7 +64,7 @@ public abstract class NetflixObject implements Serializable, Comparable<NetflixO
 	 * @return the avgRate
 	 */
 	public float getAvgRate() {
-		return (float) ((float) accRate / (float) numOfRents);
+		return (float) stats.getMean();
 	}
 	
 	/**
@@ -79,35 +72,54 @@ public abstract class NetflixObject implements Serializable, Comparable<NetflixO
 	 * @return the minimum rate granted by/for this object
 	 */
 	public int getMinRate() {
-		int minRate = Integer.MAX_VALUE;
-		for (Rent r : rents) {
-			if (r.getRate() < minRate) {
-				minRate = r.getRate();
-			}
-		}
-		return minRate;
+		return stats.getMin();
 	}
 	
 	/**
 	 * 
-	 * @return the minimum rate granted by/for this object
+	 * @return the maximum rate granted by/for this object
 	 */
 	public int getMaxRate() {
-		int maxRate = Integer.MIN_VALUE;
-		for (Rent r : rents) {
-			if (r.getRate() > maxRate) {
-				maxRate = r.getRate();
-			}
-		}
-		return maxRate;
+		return stats.getMax();
 	}
 	
 	/**
-	 * @return the avgRate
+	 * @return the standard deviation of the rates
 	 */
 	public float getStdDev() {
-		return (float) Math.sqrt(((float) ((float) powAccRate / (float) numOfRents))
-				- (float) Math.pow(getAvgRate(), 2));
+		return (float) Math.sqrt(stats.getVariance());
+	}
+	
+	/**
+	 * @return the median rate
+	 */
+	public double getMedianRate() {
+		return stats.getMedian();
+	}
+	
+	/**
+	 * @param rate the rate
+	 * @return the number of rents of the specified rate
+	 */
+	public int getNumOfRents(int rate) {
+		return (int) stats.getCount(rate);
+	}
+	
+	/**
+	 * @return the rating statistics of this object, updated by {@link #updateRent(Rent)}
+	 */
+	public RatingStats getRatingStats() {
+		return stats;
+	}
+	
+	/**
+	 * Adds statistics of rents collected elsewhere, e.g. by a parallel builder,
+	 * as if {@link #updateRent(Rent)} was called for each of them.
+	 * 
+	 * @param partial statistics of rents not updated yet
+	 */
+	public void mergeRatingStats(RatingStats partial) {
+		stats.merge(partial);
 	}
 	
 	/**
@@ -115,18 +127,41 @@ public abstract class NetflixObject implements Serializable, Comparable<NetflixO
 	 * @param rent
 	 */
 	public void updateRent(Rent rent) {
-		//check overflow
-		if (accRate + rent.getRate() < accRate) {
-			throw new ValueOverflowException(accRate);
+		stats.add(rent.getRate());
+		if (timeStats != null) {
+			timeStats.add(rent.getRate(), rent.getDay());
 		}
-		accRate += rent.getRate();
-		
-		//check overflow
-		if (powAccRate + Math.pow(rent.getRate(), 2) < powAccRate) {
-			throw new ValueOverflowException(powAccRate);
+	}
+	
+	/**
+	 * Reverts a previous {@link #updateRent(Rent)} of the specified rent.
+	 * 
+	 * @param rent
+	 */
+	public void revertRent(Rent rent) {
+		stats.remove(rent.getRate());
+		if (timeStats != null) {
+			timeStats.remove(rent.getRate(), rent.getDay());
 		}
-		powAccRate += Math.pow(rent.getRate(), 2);
-		numOfRents++;
+	}
+	
+	/**
+	 * Builds time bucketed statistics of the rents added so far. The statistics are
+	 * then kept by {@link #updateRent(Rent)} and {@link #revertRent(Rent)}.
+	 * 
+	 * @param granularity {@link TimeBucketedStats#MONTH}, {@link TimeBucketedStats#WEEK}
+	 * or {@link TimeBucketedStats#NONE} for dropping the statistics
+	 */
+	public void buildTimeStats(int granularity) {
+		timeStats = granularity == TimeBucketedStats.NONE ? null : TimeBucketedStats.of(rents, granularity);
+	}
+	
+	/**
+	 * @return the time bucketed statistics, <code>null</code> if they were not built,
+	 * see {@link #buildTimeStats(int)}
+	 */
+	public TimeBucketedStats getTimeStats() {
+		return timeStats;
 	}
 	
 	/**
@@ -137,22 +172,152 @@ public abstract class NetflixObject implements Serializable, Comparable<NetflixO
 		numOfQuestions++;
 	}
 	
+	/**
+	 * Counts questions that are not kept as {@link Rent} objects.
+	 * 
+	 * @param count number of questions
+	 */
+	void updateQuestions(int count) {
+		numOfQuestions += count;
+	}
+	
 	public void addRent(Rent rent) {
 		rents.add(rent);
 	}
 	
+	/**
+	 * Removes a rent previously added by {@link #addRent(Rent)}.
+	 * 
+	 * @param rent the rent to remove
+	 * @return <code>true</code> if the rent was found
+	 */
+	public boolean removeRent(Rent rent) {
+		return rents.remove(rent);
+	}
+	
 	public void addQuestion(Rent unratedRent) {
+		if (questions == null) {
+			questions = new RentStore();
+		}
 		questions.add(unratedRent);
 	}
 	
+	/**
+	 * @return a read only view of the rents. Every access of the view creates a
+	 * new {@link Rent}, hot loops should use {@link #rentsCursor()} or
+	 * {@link #getRentStore()} instead.
+	 */
 	public List<Rent> getRents() {
-		return rents;
+		return rents.asList();
 	}
 
+	/**
+	 * @return a read only view of the questions, see {@link #getRents()}.
+	 */
 	public List<Rent> getQuestions() {
-		return questions;
+		return questions == null ? Collections.<Rent>emptyList() : questions.asList();
 	} 
 	
+	/**
+	 * Sorts the rents for lookups, see {@link DBUser#freeze()} and {@link DBMovie#freeze()}.
+	 * Should be called once all the rents of the object were added.
+	 */
+	public abstract void freeze();
+	
+	/**
+	 * Replaces the rents by an immutable store holding the same rents, usually a
+	 * view of a store shared by all the objects of a DB, and freezes the questions.
+	 * 
+	 * @param frozenRents the frozen store
+	 */
+	void shareRents(RentStore frozenRents) {
+		if (!frozenRents.isFrozen() || frozenRents.size() != rents.size()) {
+			throw new IllegalArgumentException("Store must be frozen and hold the rents of " + this);
+		}
+		rents = frozenRents;
+		if (questions != null) {
+			if (questions.size() == 0) {
+				questions = null;
+			} else {
+				questions.freeze();
+			}
+		}
+	}
+	
+	/**
+	 * Makes this new object hold rents read in bulk, e.g. the rows of a
+	 * {@link CsrNetflixDB}, without a {@link Rent} per rent.
+	 * 
+	 * @param frozenRents the rents of the object, sorted as by {@link #freeze()}
+	 * @param rentStats the statistics of the rents
+	 */
+	void shareRents(RentStore frozenRents, RatingStats rentStats) {
+		if (!frozenRents.isFrozen() || frozenRents.size() != rentStats.getCount()) {
+			throw new IllegalArgumentException("Store must be frozen and match the statistics");
+		}
+		rents = frozenRents;
+		stats = rentStats;
+	}
+	
+	/**
+	 * Makes this new object a filtered view of another object of a frozen DB, see
+	 * {@link ProbeViews}.
+	 * 
+	 * @param source the object
+	 * @param frozenRents a view of some of the rents of the object
+	 * @param filteredStats the statistics of the rents of the view
+	 * @param withQuestions <code>true</code> if the questions of the object should be
+	 * shared too
+	 */
+	void shareFiltered(NetflixObject source, RentStore frozenRents, RatingStats filteredStats,
+			boolean withQuestions) {
+		if (!frozenRents.isFrozen() || frozenRents.size() != filteredStats.getCount()) {
+			throw new IllegalArgumentException("Store must be frozen and match the statistics");
+		}
+		rents = frozenRents;
+		stats = filteredStats;
+		if (withQuestions) {
+			questions = source.questions;
+			numOfQuestions = source.numOfQuestions;
+		}
+	}
+	
+	/**
+	 * Replaces frozen rents and questions by writable copies, undoing
+	 * {@link #shareRents(RentStore)}.
+	 */
+	void unshareRents() {
+		if (rents.isFrozen()) {
+			rents = copyOf(rents);
+			freeze();
+		}
+		if (questions != null && questions.isFrozen()) {
+			questions = copyOf(questions);
+		}
+	}
+	
+	private static RentStore copyOf(RentStore store) {
+		RentStore copy = new RentStore(store.size());
+		for (int i = 0; i < store.size(); i++) {
+			copy.add(store.getMovieId(i), store.getUserId(i), store.getDay(i), store.getRate(i));
+		}
+		return copy;
+	}
+	
+	/**
+	 * @return the storage of the rents
+	 */
+	public RentStore getRentStore() {
+		return rents;
+	}
+	
+	/**
+	 * @return a new cursor over the rents
+	 */
+	public RentCursor rentsCursor() {
+		return rents.cursor();
+	}
+	
 	/**
 	 * Collects and returns all the rents of given rate.
 	 * 
@@ -160,7 +325,13 @@ public abstract class NetflixObject implements Serializable, Comparable<NetflixO
 	 * @return all the rents of the specified rate
 	 */
 	public List<Rent> getRentsForRate(int rate) {
-		return getRentsForRate(getRents(), rate);
+		ArrayList<Rent> matches = new ArrayList<Rent>(getNumOfRents(rate));
+		for (int i = 0; i < rents.size(); i++) {
+			if (rents.getRate(i) == rate) {
+				matches.add(rents.getRent(i));
+			}
+		}
+		return matches;
 	}
 	
 	/**
@@ -171,47 +342,12 @@ public abstract class NetflixObject implements Serializable, Comparable<NetflixO
 	 * @return all the rents of the specified rate
 	 */
 	public static List<Rent> getRentsForRate(List<Rent> target, int rate) {
-		//first we sort all rents by their rate
-		Rent[] allRents = target.toArray(new Rent[0]);
-		Comparator<Rent> byRate = Compartors.createRateComparator();
-		Arrays.sort(allRents, byRate);		
-		//then we create a matching array containing only the rates.
-		//This array will be used for the binary search
-		int[] allRates = new int[allRents.length];
-		int i = 0;
-		for (Rent rent: allRents) {
-			allRates[i++] = rent.getRate();
-		}
-		//now we execute the binary search and finds a single instance 
-		int instance = Arrays.binarySearch(allRates, rate);
-		//there may be more so we have to search for them too
-		ArrayList<Integer> allInstancesOfTheSameRate = new ArrayList<Integer>();
-		//but there may be none
-		if (instance >= 0) {
-			allInstancesOfTheSameRate.add(instance);
-			//since the array is ordered we can be sure that all other matches are
-			//in adjacent cells
-			//so we search forward		
-			for (int j = instance + 1; j < allRates.length; j++) {
-				if (allRates[j] == rate) {
-					allInstancesOfTheSameRate.add(j);
-				} else {
-					break;
-				}
-			}
-			//and backward
-			for (int j = instance - 1; j >= 0; j--) {
-				if (allRates[j] == rate) {
-					allInstancesOfTheSameRate.add(j);
-				} else {
-					break;
-				}
-			}
-		}
-		//finally we add all instances to the result 
+		//a single pass is cheaper than sorting the list for a binary search
 		ArrayList<Rent> matches = new ArrayList<Rent>();
-		for (Integer k : allInstancesOfTheSameRate) {
-			matches.add(allRents[k]);
+		for (Rent rent : target) {
+			if (rent.getRate() == rate) {
+				matches.add(rent);
+			}
 		}
 		return matches;
 	}
@@ -228,7 +364,7 @@ public abstract class NetflixObject implements Serializable, Comparable<NetflixO
 
 	@Override
 	public String toString() {
-		return "Id = " + id + ", numOfRents = " + numOfRents
+		return "Id = " + id + ", numOfRents = " + getNumOfRents()
 		+ ", numOfQuestions = " + numOfQuestions + ", avgRate = " + getAvgRate();
 	}
 
@@ -1,14 +1,28 @@
 package dbanalysis;
 
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import common.DayCodec;
 import common.Utilities;
 
 /**
  * Builds a fraction fast DB from the full Sql DB. The builder chooses
  * random users up to a configurable quota. Then it builds a fast DB
  * from the subset of the users and their rents. 
+ * <p>
+ * {@link #buildStratifiedDb(int, int, long)} samples a DB holding all its users,
+ * e.g. a serialized DB or a snapshot, instead of drawing random ids and reading
+ * them one by one: users are ordered by their number of rents and split into
+ * strata of equal size, every stratum contributes its share of the users, drawn
+ * without replacement, and the chosen users are read and copied by several
+ * threads. Only the chosen users are read, the others are known by their number
+ * of rents only. The
+ * movies of the fraction DB hold the statistics of the rents of the chosen users
+ * only.
  * 
  * @author mizrachi
  *
@@ -20,17 +34,18 @@ public class NetflixRandomFractionDBBuilder {
 	
 	private int numOfUsers;
 	
-	private SqlReadOnlyNetflixDB sqlDb;
+	private NetflixDB sqlDb;
 	
 	private NetflixDB db;
 
 	/**
 	 * @param numOfUsers
-	 * @param sqlDb
+	 * @param sqlDb the full DB, usually a {@link SqlReadOnlyNetflixDB}, possibly
+	 * behind a {@link CachingNetflixDB}
 	 * @param fastDb
 	 */
 	public NetflixRandomFractionDBBuilder(int numOfUsers,
-			SqlReadOnlyNetflixDB sqlDb, NetflixDB fastDb) {
+			NetflixDB sqlDb, NetflixDB fastDb) {
 		this.numOfUsers = numOfUsers;
 		this.sqlDb = sqlDb;
 		this.db = fastDb;
@@ -46,8 +61,8 @@ public class NetflixRandomFractionDBBuilder {
 				userId = (int) Math.round(Math.random() * (MAX_USER_ID - 1));
 				randomUser = sqlDb.readUser(userId);
 			}
-			//user with no rents is actually does not exist 
-			while (randomUser.getNumOfRents() == 0 || db.readUser(userId) != null);
+			//user with no rents is actually does not exist, the cache returns it as null
+			while (randomUser == null || randomUser.getNumOfRents() == 0 || db.readUser(userId) != null);
 			
 			DBUser currentUser = null;
 			DBMovie currentMovie = null;			
@@ -71,6 +86,191 @@ public class NetflixRandomFractionDBBuilder {
 		}
 	}
 	
+	/**
+	 * Samples users of a DB holding all its users into the fraction DB, which
+	 * should be empty. Users are stratified by their number of rents, so light and
+	 * heavy users keep their share of the fraction. The users are listed by
+	 * {@link NetflixDB#getUserIdMap()} and their numbers of rents are read from the
+	 * rows of a {@link CsrNetflixDB} and from the users of other DBs.
+	 * 
+	 * @param strata number of rent count quantiles sampled separately
+	 * @param numOfThreads number of threads copying the chosen users
+	 * @param seed seed of the random sample
+	 * @return the number of rents of the chosen users
+	 */
+	public long buildStratifiedDb(int strata, int numOfThreads, long seed) {
+		final UserIdMap userIds = sqlDb.getUserIdMap();
+		final int[] chosen = stratifiedSample(numOfRentsByIndex(sqlDb, userIds), numOfUsers, strata, new Random(seed));
+		final int numOfMovies = sqlDb.getNumberOfMovies();
+		final DBUser[] copies = new DBUser[chosen.length];
+		final Rent[][] rents = new Rent[chosen.length][];
+		final AtomicInteger next = new AtomicInteger(0);
+		final RatingStats[][] movieStats = new RatingStats[numOfThreads][];
+		Thread[] workers = new Thread[numOfThreads];
+		for (int t = 0; t < numOfThreads; t++) {
+			final RatingStats[] stats = new RatingStats[numOfMovies];
+			movieStats[t] = stats;
+			workers[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < chosen.length) {
+						DBUser user = sqlDb.readUser(userIds.getUserId(chosen[i]));
+						RentStore store = user.getRentStore();
+						DBUser copy = new DBUser(user.getId());
+						Rent[] userRents = new Rent[store.size()];
+						for (int j = 0; j < userRents.length; j++) {
+							userRents[j] = store.getRent(j);
+							copy.updateRent(userRents[j]);
+							int movieId = userRents[j].getMovieId();
+							if (stats[movieId] == null) {
+								stats[movieId] = new RatingStats();
+							}
+							stats[movieId].add(userRents[j].getRate());
+						}
+						copies[i] = copy;
+						rents[i] = userRents;
+					}
+				}
+			}, "FractionSampler-" + t);
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for samplers", e);
+			}
+		}
+
+		for (int movieId = 0; movieId < numOfMovies; movieId++) {
+			DBMovie movie = null;
+			for (RatingStats[] stats : movieStats) {
+				if (stats[movieId] != null) {
+					if (movie == null) {
+						movie = new DBMovie(movieId);
+					}
+					movie.mergeRatingStats(stats[movieId]);
+				}
+			}
+			if (movie != null) {
+				db.writeMovie(movie);
+			}
+		}
+		long rentNum = 0;
+		for (int i = 0; i < copies.length; i++) {
+			db.writeUser(copies[i]);
+			for (Rent rent : rents[i]) {
+				db.writeRent(rent);
+			}
+			rentNum += rents[i].length;
+			rents[i] = null;
+		}
+		return rentNum;
+	}
+
+	/**
+	 * @param fullDb the DB
+	 * @param userIds the user ids map of the DB
+	 * @return the number of rents of every user of the DB, by dense index
+	 */
+	private static int[] numOfRentsByIndex(NetflixDB fullDb, UserIdMap userIds) {
+		if (fullDb instanceof CachingNetflixDB) {
+			fullDb = ((CachingNetflixDB) fullDb).getDB();
+		}
+		int[] numOfRents = new int[userIds.size()];
+		if (fullDb instanceof CsrNetflixDB) {
+			CsrNetflixDB csr = (CsrNetflixDB) fullDb;
+			for (int index = 0; index < numOfRents.length; index++) {
+				int userId = userIds.getUserId(index);
+				numOfRents[index] = csr.getUserEnd(userId) - csr.getUserStart(userId);
+			}
+		} else {
+			for (int index = 0; index < numOfRents.length; index++) {
+				numOfRents[index] = fullDb.readUser(userIds.getUserId(index)).getNumOfRents();
+			}
+		}
+		return numOfRents;
+	}
+
+	/**
+	 * Draws objects without replacement, stratified by their number of rents, see
+	 * {@link #stratifiedSample(int[], int, int, Random)}.
+	 * 
+	 * @param objects the objects to sample
+	 * @param count the sample size, at most the number of objects
+	 * @param strata the number of strata
+	 * @param random the random generator
+	 * @return indices of the chosen objects, sorted
+	 */
+	public static int[] stratifiedSample(NetflixObject[] objects, int count, int strata, Random random) {
+		int[] numOfRents = new int[objects.length];
+		for (int i = 0; i < numOfRents.length; i++) {
+			numOfRents[i] = objects[i].getNumOfRents();
+		}
+		return stratifiedSample(numOfRents, count, strata, random);
+	}
+
+	/**
+	 * Draws objects without replacement, stratified by their number of rents. The
+	 * objects are ordered by their number of rents and split into strata of equal
+	 * size, and every stratum contributes its share of the sample, drawn by a
+	 * partial Fisher-Yates shuffle.
+	 * 
+	 * @param numOfRents the number of rents of every object to sample
+	 * @param count the sample size, at most the number of objects
+	 * @param strata the number of strata
+	 * @param random the random generator
+	 * @return indices of the chosen objects, sorted
+	 */
+	public static int[] stratifiedSample(int[] numOfRents, int count, int strata, Random random) {
+		if (count > numOfRents.length) {
+			throw new IllegalArgumentException("Cannot choose " + count + " out of " + numOfRents.length);
+		}
+		if (strata < 1) {
+			throw new IllegalArgumentException("Number of strata must be positive");
+		}
+		//indices ordered by number of rents, then by index
+		long[] byRents = new long[numOfRents.length];
+		for (int i = 0; i < byRents.length; i++) {
+			byRents[i] = ((long) numOfRents[i] << 32) | i;
+		}
+		Arrays.sort(byRents);
+		int[] order = new int[numOfRents.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = (int) byRents[i];
+		}
+		byRents = null;
+
+		int[] chosen = new int[count];
+		int chosenNum = 0;
+		for (int stratum = 0; stratum < strata; stratum++) {
+			int from = (int) ((long) order.length * stratum / strata);
+			int to = (int) ((long) order.length * (stratum + 1) / strata);
+			//rounding the cumulative shares keeps the total equal to count
+			int share = (int) Math.round((double) count * to / order.length)
+					- (int) Math.round((double) count * from / order.length);
+			for (int i = from; i < from + share; i++) {
+				int swap = i + random.nextInt(to - i);
+				int index = order[swap];
+				order[swap] = order[i];
+				order[i] = index;
+				chosen[chosenNum++] = index;
+			}
+		}
+		Arrays.sort(chosen, 0, chosenNum);
+		return chosenNum == count ? chosen : Arrays.copyOf(chosen, chosenNum);
+	}
+
+	/**
+	 * Builds a fraction DB of the full Sql DB, or of the DB of the third argument
+	 * by {@link #buildStratifiedDb(int, int, long)}.
+	 * 
+	 * @param args number of users, fraction DB class name and optionally a DB file,
+	 * number of strata and number of threads
+	 */
 	public static void main(String[] args) {
 		NetflixDB db;
 		try {
@@ -85,13 +285,32 @@ public class NetflixRandomFractionDBBuilder {
 			System.err.println("Class not found when trying to instatiate object " + args[0]);
 			return;
 		}
-		NetflixRandomFractionDBBuilder builder = new NetflixRandomFractionDBBuilder(Integer.valueOf(args[0]), new SqlReadOnlyNetflixDB(false),
-				db);
-		builder.buildDb();
+		if (args.length > 2) {
+			NetflixDB fullDb = NetflixAnalyzer.loadDB(args[2]);
+			if (fullDb == null) {
+				return;
+			}
+			int strata = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+			int numOfThreads = args.length > 4 ? Integer.parseInt(args[4])
+					: Runtime.getRuntime().availableProcessors();
+			long start = System.currentTimeMillis();
+			long rents = new NetflixRandomFractionDBBuilder(Integer.valueOf(args[0]), fullDb, db)
+					.buildStratifiedDb(strata, numOfThreads, System.nanoTime());
+			System.out.println("Sampled " + args[0] + " users with " + rents + " rents in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} else {
+			//ids drawn again and again are not read again
+			CachingNetflixDB sqlDb = new CachingNetflixDB(new SqlReadOnlyNetflixDB(false), 100000);
+			NetflixRandomFractionDBBuilder builder = new NetflixRandomFractionDBBuilder(Integer.valueOf(args[0]), sqlDb,
+					db);
+			builder.buildDb();
+			System.out.println("SQL DB cache hit ratio " + sqlDb.getHitRatio());
+		}
+		db.freeze();
 		
 		//now saving objects to persistent storage
 		Date currentDate = Calendar.getInstance().getTime();
 		Utilities.saveObjectToFile(db, "NetflixDB_" + 
-				db.getDateFormat().format(currentDate) +".obj");
+				DayCodec.format(DayCodec.fromDate(currentDate)) +".obj");
 	}
 }
@@ -0,0 +1,593 @@
+package dbanalysis;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import common.DayCodec;
+
+/**
+ * Read only DB over a {@link NetflixDBSnapshot} file which keeps only recently used
+ * users and movies on the heap. Only the row offsets of the snapshot are read when
+ * the DB is opened. A user or movie missing from the cache is read from the file
+ * with positional reads and added to a least recently used cache, which evicts the
+ * least recently used objects once their estimated size exceeds the memory ceiling.
+ * <p>
+ * Unlike {@link NetflixDBSnapshot#open(File)}, residency is bounded by the ceiling
+ * and not left to the OS, hence the DB fits nodes which cannot hold the whole data
+ * set. {@link #getAllUsers()}, {@link #getAllMovies()}, {@link #rentsIterator()}
+ * and the streams of the DB read the objects without caching them, so bulk reads
+ * do not evict the objects in use, and the rents stream reads the rows of the file
+ * in chunks without creating the movies at all. Hit, miss and eviction counters tell how
+ * well the ceiling fits the access pattern. Instances are thread safe.
+ * <p>
+ * Objects returned by the DB are shared by all callers and must not be changed.
+ * All write operations throw {@link UnsupportedOperationException}.
+ *
+ * @author mizrachi
+ *
+ */
+public class PagedNetflixDB implements NetflixDB, Closeable {
+
+	//estimated heap bytes of a cached object besides its rents: the object, its
+	//rating statistics, its stores and the cache entry
+	private static final int OBJECT_OVERHEAD = 256;
+
+	//rows read at a time by the rents stream
+	private static final int CHUNK_ROWS = 4096;
+
+	//cache key bit of users, movies are keyed by their id
+	private static final long USER_KEY = 1L << 32;
+
+	private RandomAccessFile raf;
+
+	private FileChannel channel;
+
+	private NetflixDBSnapshot.Index index;
+
+	private long maxBytes;
+
+	private long residentBytes;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	//access ordered, guarded by itself
+	private LinkedHashMap<Long, NetflixObject> cache =
+		new LinkedHashMap<Long, NetflixObject>(1024, 0.75f, true);
+
+	/**
+	 * Opens a snapshot file.
+	 *
+	 * @param snapshot the snapshot file
+	 * @param maxBytes the memory ceiling of the cached users and movies
+	 * @throws IOException if the file could not be read or is not a snapshot
+	 */
+	public PagedNetflixDB(File snapshot, long maxBytes) throws IOException {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Memory ceiling must not be negative");
+		}
+		this.maxBytes = maxBytes;
+		raf = new RandomAccessFile(snapshot, "r");
+		channel = raf.getChannel();
+		try {
+			index = NetflixDBSnapshot.readIndex(channel, snapshot);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (cache) {
+			cache.clear();
+			residentBytes = 0;
+		}
+		raf.close();
+	}
+
+	/**
+	 * @return the memory ceiling of the cached users and movies
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return estimated heap bytes taken by the cached users and movies
+	 */
+	public long getResidentBytes() {
+		synchronized (cache) {
+			return residentBytes;
+		}
+	}
+
+	/**
+	 * @return the number of cached users and movies
+	 */
+	public int getCachedObjects() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * @return the number of reads of a cached user or movie
+	 */
+	public long getHits() {
+		synchronized (cache) {
+			return hits;
+		}
+	}
+
+	/**
+	 * @return the number of reads of a user or movie that was not cached
+	 */
+	public long getMisses() {
+		synchronized (cache) {
+			return misses;
+		}
+	}
+
+	/**
+	 * @return the number of users and movies evicted from the cache
+	 */
+	public long getEvictions() {
+		synchronized (cache) {
+			return evictions;
+		}
+	}
+
+	@Override
+	public DateFormat getDateFormat() {
+		return DayCodec.newDateFormat();
+	}
+
+	@Override
+	public DBMovie readMovie(int movieId) {
+		if (movieId < 0 || movieId + 1 >= index.movieOffsets.length
+				|| index.movieOffsets[movieId] == index.movieOffsets[movieId + 1]) {
+			return null;
+		}
+		Long key = Long.valueOf(movieId);
+		DBMovie movie = (DBMovie) lookup(key);
+		if (movie == null) {
+			movie = loadMovie(movieId);
+			if (movie != null) {
+				cache(key, movie);
+			}
+		}
+		return movie;
+	}
+
+	@Override
+	public DBUser readUser(int userId) {
+		if (!index.userIds.contains(userId)) {
+			return null;
+		}
+		Long key = Long.valueOf(USER_KEY | userId);
+		DBUser user = (DBUser) lookup(key);
+		if (user == null) {
+			user = loadUser(userId);
+			if (user != null) {
+				cache(key, user);
+			}
+		}
+		return user;
+	}
+
+	@Override
+	public Rent readRent(int movieId, int userId, Date date) {
+		DBUser user = readUser(userId);
+		if (user == null) {
+			return null;
+		}
+		short day = date == null ? DayCodec.NO_DAY : DayCodec.fromDate(date);
+		for (Rent rent : user.getRentsForMovieId(movieId)) {
+			if (date == null || rent.getDay() == day) {
+				return rent;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int rateOf(int movieId, int userId) {
+		DBUser user = readUser(userId);
+		return user == null ? DBUser.NO_RATE : user.getRateForMovieId(movieId);
+	}
+	
+	@Override
+	public Rent readQuestion(int movieId, int userId, Date date) {
+		throw new UnsupportedOperationException("Unsupported operation");
+	}
+
+	@Override
+	public void writeMovie(DBMovie movie) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	@Override
+	public void writeUser(DBUser user) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	@Override
+	public void writeRent(Rent rent) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	@Override
+	public void writeQuestion(Rent unratedRent) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	@Override
+	public void removeRent(Rent rent) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	/**
+	 * The DB is read only already.
+	 */
+	@Override
+	public void freeze() {
+	}
+
+	/**
+	 * Reads every movie from the file without caching it.
+	 */
+	@Override
+	public DBMovie[] getAllMovies() {
+		DBMovie[] movies = new DBMovie[index.movieOffsets.length - 1];
+		for (int movieId = 0; movieId < movies.length; movieId++) {
+			if (index.movieOffsets[movieId] < index.movieOffsets[movieId + 1]) {
+				movies[movieId] = loadMovie(movieId);
+			}
+		}
+		return movies;
+	}
+
+	/**
+	 * Reads every user from the file without caching it.
+	 */
+	@Override
+	public DBUser[] getAllUsers() {
+		DBUser[] users = new DBUser[index.userIds.size()];
+		for (int i = 0; i < users.length; i++) {
+			users[i] = loadUser(index.userIds.getUserId(i));
+		}
+		return users;
+	}
+
+	@Override
+	public int getNumberOfMovies() {
+		return index.movieOffsets.length - 1;
+	}
+
+	@Override
+	public int getNumberOfUsers() {
+		return index.userIds.size();
+	}
+
+	@Override
+	public UserIdMap getUserIdMap() {
+		return index.userIds;
+	}
+
+	/**
+	 * Iterates the rents by movie, reading one movie at a time without caching it.
+	 */
+	@Override
+	public Iterator<Rent> rentsIterator() {
+		return new Iterator<Rent>() {
+
+			private int movieId = -1;
+
+			private RentStore rents = new RentStore();
+
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				while (next == rents.size() && movieId + 2 < index.movieOffsets.length) {
+					movieId++;
+					DBMovie movie = index.movieOffsets[movieId] < index.movieOffsets[movieId + 1]
+							? loadMovie(movieId) : null;
+					rents = movie == null ? new RentStore() : movie.getRentStore();
+					next = 0;
+				}
+				return next < rents.size();
+			}
+
+			@Override
+			public Rent next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return rents.getRent(next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Netflix DB is ReadOnly");
+			}
+		};
+	}
+
+	/**
+	 * Reads the movie rows of the file in chunks, sized and split in halves.
+	 */
+	@Override
+	public Stream<Rent> ratingsStream() {
+		int[] movieOffsets = index.movieOffsets;
+		return StreamSupport.stream(new RowSpliterator(movieOffsets[0],
+				movieOffsets[movieOffsets.length - 1]), false);
+	}
+
+	/**
+	 * Reads the users from the file without caching them, by their dense index.
+	 */
+	@Override
+	public Stream<DBUser> usersStream() {
+		return IntStream.range(0, index.userIds.size()).mapToObj(userIndex -> {
+			int userId = index.userIds.getUserId(userIndex);
+			try {
+				return readUserRows(userId);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Error while reading user " + userId, e);
+			}
+		});
+	}
+
+	/**
+	 * Reads the movies from the file without caching them, exactly sized.
+	 */
+	@Override
+	public Stream<DBMovie> moviesStream() {
+		int[] movieIds = new int[index.movieOffsets.length - 1];
+		int count = 0;
+		for (int movieId = 0; movieId < movieIds.length; movieId++) {
+			if (index.movieOffsets[movieId] < index.movieOffsets[movieId + 1]) {
+				movieIds[count++] = movieId;
+			}
+		}
+		return Arrays.stream(movieIds, 0, count).mapToObj(movieId -> {
+			try {
+				return readMovieRows(movieId);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Error while reading movie " + movieId, e);
+			}
+		});
+	}
+
+	private NetflixObject lookup(Long key) {
+		synchronized (cache) {
+			NetflixObject object = cache.get(key);
+			if (object != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+			return object;
+		}
+	}
+
+	private void cache(Long key, NetflixObject object) {
+		synchronized (cache) {
+			NetflixObject previous = cache.put(key, object);
+			if (previous != null) {
+				//loaded concurrently by another thread
+				residentBytes -= sizeOf(previous);
+			}
+			residentBytes += sizeOf(object);
+			Iterator<NetflixObject> leastRecentlyUsed = cache.values().iterator();
+			while (residentBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+				residentBytes -= sizeOf(leastRecentlyUsed.next());
+				leastRecentlyUsed.remove();
+				evictions++;
+			}
+		}
+	}
+
+	private static long sizeOf(NetflixObject object) {
+		return OBJECT_OVERHEAD + object.getRentStore().getMemoryBytes();
+	}
+
+	private DBMovie loadMovie(int movieId) {
+		try {
+			return readMovieRows(movieId);
+		} catch (IOException e) {
+			System.err.println("Error while reading movie " + movieId + ". " + e.getMessage());
+			return null;
+		}
+	}
+
+	private DBMovie readMovieRows(int movieId) throws IOException {
+		int start = index.movieOffsets[movieId];
+		int length = index.movieOffsets[movieId + 1] - start;
+		ByteBuffer userIds = read(0, start, 4, length);
+		ByteBuffer days = read(1, start, 2, length);
+		ByteBuffer rates = read(2, start, 1, length);
+		DBMovie movie = new DBMovie(movieId);
+		for (int i = 0; i < length; i++) {
+			Rent rent = new Rent(movieId, userIds.getInt(), days.getShort(), rates.get());
+			movie.updateRent(rent);
+			movie.addRent(rent);
+		}
+		movie.updateQuestions(index.movieQuestions[movieId]);
+		movie.freeze();
+		return movie;
+	}
+
+	private DBUser loadUser(int userId) {
+		try {
+			return readUserRows(userId);
+		} catch (IOException e) {
+			System.err.println("Error while reading user " + userId + ". " + e.getMessage());
+			return null;
+		}
+	}
+
+	private DBUser readUserRows(int userId) throws IOException {
+		int userIndex = index.userIds.indexOf(userId);
+		int start = index.userOffsets[userIndex];
+		int length = index.userOffsets[userIndex + 1] - start;
+		ByteBuffer movieIds = read(3, start, 2, length);
+		ByteBuffer days = read(4, start, 2, length);
+		ByteBuffer rates = read(5, start, 1, length);
+		DBUser user = new DBUser(userId);
+		for (int i = 0; i < length; i++) {
+			Rent rent = new Rent(movieIds.getChar(), userId, days.getShort(), rates.get());
+			user.updateRent(rent);
+			user.addRent(rent);
+		}
+		user.updateQuestions(index.userQuestions[userIndex]);
+		user.freeze();
+		return user;
+	}
+
+	/**
+	 * Reads rows of a section, see {@link CsrNetflixDB#sections()} for their order.
+	 */
+	private ByteBuffer read(int section, int row, int rowSize, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(rowSize * length);
+		long position = index.sectionPositions[section] + (long) rowSize * row;
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Snapshot is truncated");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Spliterator of a range of movie rows, reading the rows in chunks.
+	 */
+	private final class RowSpliterator implements Spliterator<Rent> {
+
+		private int row;
+
+		private final int end;
+
+		//movie of the current row, found by the first advance
+		private int movieId = -1;
+
+		//unread rows of the current chunk
+		private ByteBuffer userIds;
+
+		private ByteBuffer days;
+
+		private ByteBuffer rates;
+
+		RowSpliterator(int row, int end) {
+			this.row = row;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Rent> action) {
+			if (row >= end) {
+				return false;
+			}
+			action.accept(next());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super Rent> action) {
+			while (row < end) {
+				action.accept(next());
+			}
+		}
+
+		private Rent next() {
+			if (userIds == null || !userIds.hasRemaining()) {
+				int length = Math.min(CHUNK_ROWS, end - row);
+				try {
+					userIds = read(0, row, 4, length);
+					days = read(1, row, 2, length);
+					rates = read(2, row, 1, length);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Error while reading row " + row, e);
+				}
+			}
+			if (movieId < 0) {
+				movieId = movieOfRow(row);
+			}
+			while (index.movieOffsets[movieId + 1] <= row) {
+				movieId++;
+			}
+			row++;
+			return new Rent(movieId, userIds.getInt(), days.getShort(), rates.get());
+		}
+
+		/**
+		 * @return the first movie whose rows end after the row
+		 */
+		private int movieOfRow(int row) {
+			int low = 0;
+			int high = index.movieOffsets.length - 2;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (index.movieOffsets[middle + 1] <= row) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		@Override
+		public Spliterator<Rent> trySplit() {
+			int middle = (row + end) >>> 1;
+			if (middle <= row) {
+				return null;
+			}
+			//the prefix takes the current chunk, whose rows past its end are dropped
+			RowSpliterator prefix = new RowSpliterator(row, middle);
+			prefix.movieId = movieId;
+			prefix.userIds = userIds;
+			prefix.days = days;
+			prefix.rates = rates;
+			row = middle;
+			movieId = -1;
+			userIds = null;
+			days = null;
+			rates = null;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - row;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+	}
+}
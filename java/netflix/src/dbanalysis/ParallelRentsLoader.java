@@ -0,0 +1,226 @@
+package dbanalysis;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.RentHandler;
+import common.RentsFileParser;
+
+/**
+ * Loads the rents of a set of movie files into a {@link NetflixDB} using a pool of
+ * worker threads. Each worker takes the next unread movie file, parses it and
+ * aggregates its rents into the staged movie and user objects. Movies are staged
+ * per file (a file holds the rents of a single movie) while users are staged in
+ * lock-striped shards keyed by the user id.
+ * <p>
+ * When all files are parsed the staged objects and rents are committed to the DB
+ * in the order of the given files, hence the result is identical to the one of
+ * the sequential {@link NetflixDBBuilder} reading the same files.
+ * <p>
+ * A {@link ConcurrentNetflixDB} is not staged: the workers upsert the rents into
+ * it directly, see {@link ConcurrentNetflixDB#upsertRent(Rent)}, so the order of
+ * the rents of a user depends on the thread scheduling until the DB is frozen.
+ *
+ * @author mizrachi
+ *
+ */
+public class ParallelRentsLoader {
+
+	//number of user shards. Each shard is guarded by its own lock.
+	private static final int USER_STRIPES = 256;
+
+	private File[] files;
+
+	private int numOfThreads;
+
+	private NetflixDB db;
+
+	private List<List<Rent>> fileRents;
+
+	private List<DBMovie> fileMovies;
+
+	private List<Map<Integer, DBUser>> userShards;
+
+	private AtomicInteger nextFile;
+
+	private AtomicLong rentNum;
+
+	private BuildProgress progress;
+	
+	//not null when rents are upserted directly
+	private ConcurrentNetflixDB concurrentDB;
+
+	/**
+	 * @param files the movie files to load
+	 * @param numOfThreads number of parsing threads
+	 */
+	public ParallelRentsLoader(File[] files, int numOfThreads) {
+		if (numOfThreads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.files = files;
+		this.numOfThreads = numOfThreads;
+	}
+
+	/**
+	 * @param progress progress to update after every parsed file, may be <code>null</code>
+	 */
+	public void setProgress(BuildProgress progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * Loads all the rents of the files into the specified DB. The DB is not
+	 * written while the files are parsed, and it is written by the calling
+	 * thread only, so it does not need to be thread safe.
+	 *
+	 * @param db the target DB
+	 * @return the number of rents loaded
+	 */
+	public long load(NetflixDB db) {
+		this.db = db;
+		concurrentDB = db instanceof ConcurrentNetflixDB ? (ConcurrentNetflixDB) db : null;
+		fileRents = new ArrayList<List<Rent>>(files.length);
+		fileMovies = new ArrayList<DBMovie>(files.length);
+		for (int i = 0; i < files.length; i++) {
+			fileRents.add(null);
+			fileMovies.add(null);
+		}
+		userShards = new ArrayList<Map<Integer, DBUser>>(USER_STRIPES);
+		for (int i = 0; i < USER_STRIPES; i++) {
+			userShards.add(new HashMap<Integer, DBUser>());
+		}
+		nextFile = new AtomicInteger(0);
+		rentNum = new AtomicLong(0);
+
+		Thread[] workers = new Thread[numOfThreads];
+		Worker[] tasks = new Worker[numOfThreads];
+		for (int i = 0; i < numOfThreads; i++) {
+			tasks[i] = new Worker();
+			workers[i] = new Thread(tasks[i], "RentsLoader-" + i);
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for rents loaders", e);
+			}
+		}
+		for (Worker task : tasks) {
+			if (task.failure != null) {
+				throw new IllegalStateException("Rents loader failed", task.failure);
+			}
+		}
+		if (concurrentDB == null) {
+			commit();
+		}
+		return rentNum.get();
+	}
+
+	private DBMovie stageMovie(int movieId) {
+		//the DB is only read while parsing so concurrent reads are safe
+		DBMovie movie = db.readMovie(movieId);
+		if (movie == null) {
+			movie = new DBMovie(movieId);
+		}
+		return movie;
+	}
+
+	private void updateUser(Rent rent) {
+		Map<Integer, DBUser> shard = userShards.get(rent.getUserId() % USER_STRIPES);
+		synchronized (shard) {
+			DBUser user = shard.get(rent.getUserId());
+			if (user == null) {
+				user = db.readUser(rent.getUserId());
+				if (user == null) {
+					user = new DBUser(rent.getUserId());
+				}
+				shard.put(user.getId(), user);
+			}
+			user.updateRent(rent);
+		}
+	}
+
+	/**
+	 * Parses movie files until all files are taken.
+	 */
+	private class Worker implements Runnable, RentHandler {
+
+		private List<Rent> rents;
+
+		private DBMovie movie;
+		
+		//rents of the current file
+		private int parsed;
+
+		private Throwable failure;
+
+		@Override
+		public void run() {
+			try {
+				int current;
+				while ((current = nextFile.getAndIncrement()) < files.length) {
+					rents = new ArrayList<Rent>();
+					movie = null;
+					parsed = 0;
+					RentsFileParser.parseRents(files[current], this);
+					if (concurrentDB == null) {
+						fileRents.set(current, rents);
+						fileMovies.set(current, movie);
+					}
+					rentNum.addAndGet(parsed);
+					if (progress != null) {
+						progress.addRents(parsed);
+						progress.fileDone();
+					}
+				}
+			} catch (Throwable t) {
+				failure = t;
+			}
+		}
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			Rent rent = new Rent(movieId, userId, day, rate);
+			parsed++;
+			if (concurrentDB != null) {
+				concurrentDB.upsertRent(rent);
+				return;
+			}
+			if (movie == null || movie.getId() != movieId) {
+				movie = stageMovie(movieId);
+			}
+			movie.updateRent(rent);
+			updateUser(rent);
+			rents.add(rent);
+		}
+	}
+
+	private void commit() {
+		System.out.println("Committing " + rentNum.get() + " rents.");
+		for (DBMovie movie : fileMovies) {
+			if (movie != null) {
+				db.writeMovie(movie);
+			}
+		}
+		for (Map<Integer, DBUser> shard : userShards) {
+			for (DBUser user : shard.values()) {
+				db.writeUser(user);
+			}
+		}
+		for (int i = 0; i < files.length; i++) {
+			for (Rent rent : fileRents.get(i)) {
+				db.writeRent(rent);
+			}
+			//releasing the staged rents as we go
+			fileRents.set(i, null);
+		}
+	}
+}
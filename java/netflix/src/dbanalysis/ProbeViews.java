@@ -0,0 +1,502 @@
+package dbanalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import common.DayCodec;
+import common.RentHandler;
+import common.RentsSource;
+
+/**
+ * Training and probe views of a single frozen DB holding all the rents, replacing
+ * a DB of all the rents loaded beside a DB omitting the probe rents. The probe
+ * membership of every rent is kept in a bitmap over the rows of the store the
+ * frozen DB shares among its users and movies, see {@link NetflixDB#freeze()}, and
+ * the views filter the rents of the DB by it:
+ * <ul>
+ * <li>{@link #all()} is the DB itself.</li>
+ * <li>{@link #training()} holds the rents which are not in the probe set, and the
+ * questions of the DB.</li>
+ * <li>{@link #probe()} holds the probe rents only, and no questions.</li>
+ * </ul>
+ * Users and movies without probe rents are returned by the training view as they
+ * are, sharing their rents and statistics with the DB. Others are kept as new
+ * objects holding views of the shared rents and statistics of their filtered rents,
+ * so nothing is copied but the rows of the filtered rents. The probe objects are
+ * built with the views, and the training objects on their first read, after which
+ * they take the rows of the training rents of their user or movie.
+ * Time statistics are not kept by filtered objects. The streams of the views are
+ * sized by the probe statistics, and read the filtered objects in their threads.
+ * <p>
+ * The views are read only and may be read by several threads.
+ *
+ * @author mizrachi
+ *
+ */
+public class ProbeViews {
+
+	private NetflixDB db;
+
+	//rows of the shared store holding probe rents
+	private BitSet probeRows;
+
+	private int numOfProbeRents;
+
+	//statistics of the probe rents by dense user index and by movie id, null for none
+	private RatingStats[] userProbeStats;
+
+	private RatingStats[] movieProbeStats;
+
+	private UserIdMap probeUserIds;
+
+	//filtered objects by dense user index and by movie id, null for none
+	private DBUser[] probeUsers;
+
+	private DBMovie[] probeMovies;
+
+	private AtomicReferenceArray<DBUser> trainingUsers;
+
+	private AtomicReferenceArray<DBMovie> trainingMovies;
+
+	private NetflixDB training;
+
+	private NetflixDB probe;
+
+	/**
+	 * @param db a frozen {@link FastNetflixDB} or {@link FastestNetflixDB} of all the
+	 * rents, including the probe rents
+	 * @param probeFile the probe file
+	 * @throws IOException if the probe file could not be read
+	 */
+	public ProbeViews(NetflixDB db, File probeFile) throws IOException {
+		this(db, RentsSource.forQuestions(probeFile));
+	}
+
+	/**
+	 * @param db a frozen {@link FastNetflixDB} or {@link FastestNetflixDB} of all the
+	 * rents, including the probe rents
+	 * @param probeSource source of the probe rents, rates are ignored
+	 * @throws IOException if the probe rents could not be read
+	 */
+	public ProbeViews(NetflixDB db, RentsSource probeSource) throws IOException {
+		final RentStore shared = sharedRentsOf(db);
+		this.db = db;
+		probeRows = new BitSet(shared.size());
+		userProbeStats = new RatingStats[db.getUserIdMap().size()];
+		movieProbeStats = new RatingStats[db.getAllMovies().length];
+		probeUserIds = new UserIdMap();
+		final int[] missing = new int[1];
+		probeSource.parse(new RentHandler() {
+
+			@Override
+			public void handleRent(int movieId, int userId, int rate, short day) {
+				DBMovie movie = ProbeViews.this.db.readMovie(movieId);
+				RentStore rents = movie == null ? null : movie.getRentStore();
+				int index = rents == null ? -1 : rents.indexOfUserId(userId);
+				if (index < 0) {
+					missing[0]++;
+					return;
+				}
+				if (!rents.sharesRowsWith(shared)) {
+					throw new IllegalArgumentException("Rents of movie " + movieId + " are not shared");
+				}
+				int row = rents.row(index);
+				if (probeRows.get(row)) {
+					return;
+				}
+				probeRows.set(row);
+				numOfProbeRents++;
+				int rentRate = rents.getRate(index);
+				statsOf(movieProbeStats, movieId).add(rentRate);
+				int userIndex = ProbeViews.this.db.getUserIdMap().indexOf(userId);
+				if (userProbeStats[userIndex] == null) {
+					probeUserIds.add(userId);
+				}
+				statsOf(userProbeStats, userIndex).add(rentRate);
+			}
+		});
+		if (missing[0] > 0) {
+			System.err.println(missing[0] + " probe rents are not in the DB.");
+		}
+		UserIdMap userIds = db.getUserIdMap();
+		probeUsers = new DBUser[userProbeStats.length];
+		for (int index = 0; index < probeUsers.length; index++) {
+			if (userProbeStats[index] != null) {
+				int userId = userIds.getUserId(index);
+				probeUsers[index] = filter(db.readUser(userId), new DBUser(userId), userProbeStats[index], true);
+			}
+		}
+		probeMovies = new DBMovie[movieProbeStats.length];
+		for (int movieId = 0; movieId < probeMovies.length; movieId++) {
+			if (movieProbeStats[movieId] != null) {
+				probeMovies[movieId] = filter(db.readMovie(movieId), new DBMovie(movieId), movieProbeStats[movieId], true);
+			}
+		}
+		trainingUsers = new AtomicReferenceArray<DBUser>(userProbeStats.length);
+		trainingMovies = new AtomicReferenceArray<DBMovie>(movieProbeStats.length);
+		training = new View(false);
+		probe = new View(true);
+	}
+
+	private static RentStore sharedRentsOf(NetflixDB db) {
+		if (!(db instanceof InMemoryNetflixDB)) {
+			throw new IllegalArgumentException("Views need a FastNetflixDB or a FastestNetflixDB");
+		}
+		RentStore shared = ((InMemoryNetflixDB) db).getSharedRents();
+		if (shared == null) {
+			throw new IllegalArgumentException("DB must be frozen");
+		}
+		return shared;
+	}
+
+	/**
+	 * @param source a user or movie of the DB with probe rents
+	 * @param target an empty object of the same id
+	 * @param probeStats statistics of the probe rents of the source
+	 * @param probeRents <code>true</code> to keep the probe rents of the source,
+	 * <code>false</code> to keep the other rents
+	 * @return the target, holding a view of the filtered rents of the source
+	 */
+	private <T extends NetflixObject> T filter(NetflixObject source, T target, RatingStats probeStats,
+			boolean probeRents) {
+		RentStore rents = source.getRentStore();
+		RatingStats stats = new RatingStats(probeStats);
+		if (!probeRents) {
+			stats = new RatingStats(source.getRatingStats());
+			stats.subtract(probeStats);
+		}
+		int[] rows = new int[(int) stats.getCount()];
+		int count = 0;
+		for (int i = 0; i < rents.size(); i++) {
+			int row = rents.row(i);
+			if (probeRows.get(row) == probeRents) {
+				rows[count++] = row;
+			}
+		}
+		target.shareFiltered(source, rents.viewOfRows(rows), stats, !probeRents);
+		return target;
+	}
+
+	private static RatingStats statsOf(RatingStats[] stats, int index) {
+		if (stats[index] == null) {
+			stats[index] = new RatingStats();
+		}
+		return stats[index];
+	}
+
+	/**
+	 * @return the DB of all the rents
+	 */
+	public NetflixDB all() {
+		return db;
+	}
+
+	/**
+	 * @return a view of the rents which are not in the probe set
+	 */
+	public NetflixDB training() {
+		return training;
+	}
+
+	/**
+	 * @return a view of the probe rents
+	 */
+	public NetflixDB probe() {
+		return probe;
+	}
+
+	/**
+	 * @return the number of probe rents found in the DB
+	 */
+	public int getNumOfProbeRents() {
+		return numOfProbeRents;
+	}
+
+	/**
+	 * @param movieId the movie id
+	 * @param userId the user id
+	 * @return <code>true</code> if the user rented the movie and the rent is in the
+	 * probe set
+	 */
+	public boolean isProbe(int movieId, int userId) {
+		if (movieId < 0 || movieId >= movieProbeStats.length || movieProbeStats[movieId] == null) {
+			return false;
+		}
+		RentStore rents = db.readMovie(movieId).getRentStore();
+		int index = rents.indexOfUserId(userId);
+		return index >= 0 && probeRows.get(rents.row(index));
+	}
+
+	/**
+	 * @return estimated number of heap bytes taken by the views on top of the DB,
+	 * including the training objects read so far
+	 */
+	public long getMemoryBytes() {
+		//statistics, a filtered object and its store per user and movie with probe
+		//rents, and the rows of the filtered rents
+		int filteredNum = 0;
+		long rows = 2L * numOfProbeRents;
+		for (int index = 0; index < trainingUsers.length(); index++) {
+			DBUser user = trainingUsers.get(index);
+			if (user != null) {
+				filteredNum++;
+				rows += user.getRentStore().size();
+			}
+		}
+		for (int movieId = 0; movieId < trainingMovies.length(); movieId++) {
+			DBMovie movie = trainingMovies.get(movieId);
+			if (movie != null) {
+				filteredNum++;
+				rows += movie.getRentStore().size();
+			}
+		}
+		int statsNum = probeUserIds.size();
+		for (RatingStats stats : movieProbeStats) {
+			if (stats != null) {
+				statsNum++;
+			}
+		}
+		return probeRows.size() / 8 + 12L * (userProbeStats.length + movieProbeStats.length)
+				+ 4L * (probeUserIds.getMaxUserId() + probeUserIds.size())
+				+ 72L * statsNum + 200L * (statsNum + filteredNum) + 4L * rows;
+	}
+
+	/**
+	 * Read only view of the rents of the DB which are, or are not, in the probe set.
+	 */
+	private class View implements NetflixDB {
+
+		private boolean probeRents;
+
+		View(boolean probeRents) {
+			this.probeRents = probeRents;
+		}
+
+		@Override
+		public DBUser readUser(int userId) {
+			DBUser user = db.readUser(userId);
+			if (user == null) {
+				return null;
+			}
+			int index = db.getUserIdMap().indexOf(userId);
+			if (userProbeStats[index] == null) {
+				return probeRents ? null : user;
+			}
+			if (probeRents) {
+				return probeUsers[index];
+			}
+			DBUser filtered = trainingUsers.get(index);
+			if (filtered == null) {
+				trainingUsers.compareAndSet(index, null, filter(user, new DBUser(userId), userProbeStats[index], false));
+				filtered = trainingUsers.get(index);
+			}
+			return filtered;
+		}
+
+		@Override
+		public DBMovie readMovie(int movieId) {
+			DBMovie movie = db.readMovie(movieId);
+			if (movie == null) {
+				return null;
+			}
+			if (movieProbeStats[movieId] == null) {
+				return probeRents ? null : movie;
+			}
+			if (probeRents) {
+				return probeMovies[movieId];
+			}
+			DBMovie filtered = trainingMovies.get(movieId);
+			if (filtered == null) {
+				trainingMovies.compareAndSet(movieId, null, filter(movie, new DBMovie(movieId), movieProbeStats[movieId], false));
+				filtered = trainingMovies.get(movieId);
+			}
+			return filtered;
+		}
+
+		@Override
+		public Rent readRent(int movieId, int userId, Date date) {
+			if (isProbe(movieId, userId) != probeRents) {
+				return null;
+			}
+			DBUser user = db.readUser(userId);
+			if (user == null) {
+				return null;
+			}
+			RentStore rents = user.getRentStore();
+			int index = rents.indexOfMovieId(movieId);
+			if (index < 0 || (date != null && rents.getDay(index) != DayCodec.fromDate(date))) {
+				return null;
+			}
+			return rents.getRent(index);
+		}
+
+		@Override
+		public int rateOf(int movieId, int userId) {
+			if (isProbe(movieId, userId) != probeRents) {
+				return DBUser.NO_RATE;
+			}
+			return db.rateOf(movieId, userId);
+		}
+
+		@Override
+		public Rent readQuestion(int movieId, int userId, Date date) {
+			return probeRents ? null : db.readQuestion(movieId, userId, date);
+		}
+
+		@Override
+		public DBMovie[] getAllMovies() {
+			DBMovie[] movies = new DBMovie[movieProbeStats.length];
+			for (int i = 0; i < movies.length; i++) {
+				movies[i] = readMovie(i);
+			}
+			return movies;
+		}
+
+		@Override
+		public DBUser[] getAllUsers() {
+			UserIdMap userIds = getUserIdMap();
+			DBUser[] users = new DBUser[userIds.size()];
+			for (int i = 0; i < users.length; i++) {
+				users[i] = readUser(userIds.getUserId(i));
+			}
+			return users;
+		}
+
+		@Override
+		public int getNumberOfMovies() {
+			//a bound of the movie ids, as for the DB
+			return db.getNumberOfMovies();
+		}
+
+		@Override
+		public int getNumberOfUsers() {
+			return getUserIdMap().size();
+		}
+
+		@Override
+		public UserIdMap getUserIdMap() {
+			return probeRents ? probeUserIds : db.getUserIdMap();
+		}
+
+		@Override
+		public DateFormat getDateFormat() {
+			return db.getDateFormat();
+		}
+
+		@Override
+		public Iterator<Rent> rentsIterator() {
+			return new Iterator<Rent>() {
+
+				private int movieId = 0;
+
+				private Iterator<Rent> rents = Collections.<Rent>emptyList().iterator();
+
+				@Override
+				public boolean hasNext() {
+					while (!rents.hasNext() && movieId < movieProbeStats.length) {
+						DBMovie movie = readMovie(movieId++);
+						if (movie != null) {
+							rents = movie.getRents().iterator();
+						}
+					}
+					return rents.hasNext();
+				}
+
+				@Override
+				public Rent next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return rents.next();
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException("DB is read only.");
+				}
+			};
+		}
+
+		/**
+		 * The number of rents of every movie is known by the probe statistics, so
+		 * the movies are filtered in the threads of the stream.
+		 */
+		@Override
+		public Stream<Rent> ratingsStream() {
+			final int[] movieIds = movieIds();
+			int[] counts = new int[movieIds.length];
+			for (int i = 0; i < movieIds.length; i++) {
+				RatingStats probeStats = movieProbeStats[movieIds[i]];
+				int numOfProbeRents = probeStats == null ? 0 : (int) probeStats.getCount();
+				counts[i] = probeRents ? numOfProbeRents
+						: db.readMovie(movieIds[i]).getRentStore().size() - numOfProbeRents;
+			}
+			return StreamSupport.stream(new MovieRentsSpliterator(counts, new IntFunction<RentStore>() {
+				@Override
+				public RentStore apply(int i) {
+					return readMovie(movieIds[i]).getRentStore();
+				}
+			}), false);
+		}
+
+		@Override
+		public Stream<DBMovie> moviesStream() {
+			return Arrays.stream(movieIds()).mapToObj(this::readMovie);
+		}
+
+		/**
+		 * @return the ids of the movies of the view, sorted
+		 */
+		private int[] movieIds() {
+			int[] movieIds = new int[movieProbeStats.length];
+			int count = 0;
+			for (int movieId = 0; movieId < movieIds.length; movieId++) {
+				if (probeRents ? movieProbeStats[movieId] != null : db.readMovie(movieId) != null) {
+					movieIds[count++] = movieId;
+				}
+			}
+			return Arrays.copyOf(movieIds, count);
+		}
+
+		@Override
+		public void writeMovie(DBMovie movie) {
+			throw new UnsupportedOperationException("DB is read only.");
+		}
+
+		@Override
+		public void writeUser(DBUser user) {
+			throw new UnsupportedOperationException("DB is read only.");
+		}
+
+		@Override
+		public void writeRent(Rent rent) {
+			throw new UnsupportedOperationException("DB is read only.");
+		}
+
+		@Override
+		public void writeQuestion(Rent unratedRent) {
+			throw new UnsupportedOperationException("DB is read only.");
+		}
+
+		@Override
+		public void removeRent(Rent rent) {
+			throw new UnsupportedOperationException("DB is read only.");
+		}
+
+		@Override
+		public void freeze() {
+			// The DB is read only already.
+		}
+	}
+}
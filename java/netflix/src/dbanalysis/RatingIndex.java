@@ -0,0 +1,305 @@
+package dbanalysis;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import common.DayCodec;
+
+/**
+ * Point lookup index of rents by movie and user. Keys are packed into
+ * <code>movieId &lt;&lt; 32 | userId</code> longs kept in an open addressing hash
+ * table with linear probing, and the rate and day of every rent are kept beside
+ * its key, so a lookup costs a hash and a few array reads, without objects.
+ * <p>
+ * A slot takes 11 bytes and the table is kept at most three quarters full, so the
+ * index takes about 15 bytes per rent, 1.5 GB for the 100M rents of the training
+ * set. The table is not a power of two in size, the hash of a key is mapped to its
+ * slot by a multiplication instead of a mask. A lookup of a rent in a full table
+ * reads 2.5 slots on average, and a lookup of a missing rent 8.5 adjacent slots.
+ * <p>
+ * An optional Bloom filter answers most lookups of missing rents without probing
+ * the table. The filter is blocked: all the bits of a rent are in a single 64 bit
+ * word, so a lookup reads one word of a few bits per rent instead of a run of
+ * slots. The filter pays off where lookups of missing rents are frequent and the
+ * filter fits the CPU caches while the table does not, and it is off by default.
+ * <p>
+ * A movie and user have at most one rent in the index, adding another rent of them
+ * replaces it. Instances are not thread safe while rents are added, and may be read
+ * by several threads afterwards.
+ *
+ * @author mizrachi
+ *
+ */
+public class RatingIndex {
+
+	/**
+	 * Rate returned for rents not in the index.
+	 */
+	public static final int NO_RATE = DBUser.NO_RATE;
+
+	//no rent has a negative movie id
+	private static final long EMPTY = -1L;
+
+	private static final double MAX_LOAD = 0.75;
+
+	private long[] keys;
+
+	private byte[] rates;
+
+	private short[] days;
+
+	private int size;
+
+	//size above which the table grows
+	private int threshold;
+
+	private long[] bloom;
+
+	private int bloomMask;
+
+	private int bloomHashes;
+
+	/**
+	 * Creates an index without a Bloom filter.
+	 *
+	 * @param expectedSize expected number of rents
+	 */
+	public RatingIndex(int expectedSize) {
+		this(expectedSize, 0);
+	}
+
+	/**
+	 * @param expectedSize expected number of rents
+	 * @param bloomBitsPerRent bits of the Bloom filter per expected rent, 0 for no
+	 * filter. 10 bits give about 1% false positives.
+	 */
+	public RatingIndex(int expectedSize, int bloomBitsPerRent) {
+		allocate((int) Math.min(Math.ceil(Math.max(expectedSize, 6) / MAX_LOAD) + 1,
+				Integer.MAX_VALUE - 8));
+		if (bloomBitsPerRent > 0) {
+			long words = Math.max(((long) expectedSize * bloomBitsPerRent + 63) >>> 6, 1);
+			bloom = new long[Integer.highestOneBit((int) Math.min(words * 2 - 1, 1 << 30))];
+			bloomMask = bloom.length - 1;
+			//k = ln(2) * m / n is optimal, every hash takes 6 bits of a 32 bit word
+			bloomHashes = Math.max(1, Math.min(5, (int) Math.round(bloomBitsPerRent * 0.693)));
+		}
+	}
+
+	/**
+	 * Creates an index of all the rents of a store.
+	 *
+	 * @param rents the rents
+	 * @param bloomBitsPerRent bits of the Bloom filter per rent, 0 for no filter
+	 * @return the index
+	 */
+	public static RatingIndex of(RentStore rents, int bloomBitsPerRent) {
+		RatingIndex index = new RatingIndex(rents.size(), bloomBitsPerRent);
+		for (int i = 0; i < rents.size(); i++) {
+			index.add(rents.getMovieId(i), rents.getUserId(i), rents.getDay(i), rents.getRate(i));
+		}
+		return index;
+	}
+
+	/**
+	 * Creates an index of the specified rents.
+	 *
+	 * @param rents the rents
+	 * @param expectedSize expected number of rents
+	 * @param bloomBitsPerRent bits of the Bloom filter per rent, 0 for no filter
+	 * @return the index
+	 */
+	public static RatingIndex of(Iterable<Rent> rents, int expectedSize, int bloomBitsPerRent) {
+		RatingIndex index = new RatingIndex(expectedSize, bloomBitsPerRent);
+		for (Rent rent : rents) {
+			index.add(rent.getMovieId(), rent.getUserId(), rent.getDay(), rent.getRate());
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a rent, replacing the rent of the same movie and user if there is one.
+	 *
+	 * @param movieId the movie id
+	 * @param userId the user id
+	 * @param day the day, see {@link DayCodec}
+	 * @param rate the rate, 0 for questions
+	 */
+	public void add(int movieId, int userId, short day, int rate) {
+		if (movieId < 0) {
+			throw new IllegalArgumentException("Negative movie id " + movieId);
+		}
+		long key = pack(movieId, userId);
+		int slot = slotOf(key);
+		if (keys[slot] == EMPTY) {
+			if (size + 1 > threshold) {
+				grow();
+				slot = slotOf(key);
+			}
+			keys[slot] = key;
+			size++;
+			if (bloom != null) {
+				addToBloom(key);
+			}
+		}
+		rates[slot] = (byte) rate;
+		days[slot] = day;
+	}
+
+	/**
+	 * @param movieId the movie id
+	 * @param userId the user id
+	 * @return <code>true</code> if the user rented the movie
+	 */
+	public boolean contains(int movieId, int userId) {
+		return find(pack(movieId, userId)) >= 0;
+	}
+
+	/**
+	 * @param movieId the movie id
+	 * @param userId the user id
+	 * @return the rate of the rent, {@link #NO_RATE} if the user did not rent the movie
+	 */
+	public int rateOf(int movieId, int userId) {
+		int slot = find(pack(movieId, userId));
+		return slot < 0 ? NO_RATE : rates[slot];
+	}
+
+	/**
+	 * @param movieId the movie id
+	 * @param userId the user id
+	 * @return the day of the rent, {@link DayCodec#NO_DAY} if the user did not rent
+	 * the movie
+	 */
+	public short dayOf(int movieId, int userId) {
+		int slot = find(pack(movieId, userId));
+		return slot < 0 ? DayCodec.NO_DAY : days[slot];
+	}
+
+	/**
+	 * @param movieId the movie id
+	 * @param userId the user id
+	 * @return the rent, <code>null</code> if the user did not rent the movie
+	 */
+	public Rent getRent(int movieId, int userId) {
+		int slot = find(pack(movieId, userId));
+		return slot < 0 ? null : new Rent(movieId, userId, days[slot], rates[slot]);
+	}
+
+	/**
+	 * @param movieId the movie id
+	 * @param userId the user id
+	 * @param date the date of the rent, <code>null</code> for any date
+	 * @return the rent, <code>null</code> if the user did not rent the movie at the date
+	 */
+	public Rent getRent(int movieId, int userId, Date date) {
+		int slot = find(pack(movieId, userId));
+		if (slot < 0 || (date != null && days[slot] != DayCodec.fromDate(date))) {
+			return null;
+		}
+		return new Rent(movieId, userId, days[slot], rates[slot]);
+	}
+
+	/**
+	 * @return the number of rents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return <code>true</code> if lookups go through a Bloom filter first
+	 */
+	public boolean hasBloomFilter() {
+		return bloom != null;
+	}
+
+	/**
+	 * @return estimated number of heap bytes taken by the index
+	 */
+	public long getMemoryBytes() {
+		return 11L * keys.length + (bloom == null ? 0 : 8L * bloom.length) + 64;
+	}
+
+	private int find(long key) {
+		if (bloom != null && !mightContain(key)) {
+			return -1;
+		}
+		int slot = slotOf(key);
+		return keys[slot] == key ? slot : -1;
+	}
+
+	/**
+	 * @return the slot of the key, or the empty slot ending its probe sequence
+	 */
+	private int slotOf(long key) {
+		//the high 32 bits of the hash scaled to the table size
+		int slot = (int) (((mix(key) >>> 32) * keys.length) >>> 32);
+		while (keys[slot] != key && keys[slot] != EMPTY) {
+			if (++slot == keys.length) {
+				slot = 0;
+			}
+		}
+		return slot;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		rates = new byte[capacity];
+		days = new short[capacity];
+		threshold = Math.min((int) (capacity * MAX_LOAD), capacity - 1);
+	}
+
+	private void grow() {
+		if (keys.length == Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Index is full");
+		}
+		long[] oldKeys = keys;
+		byte[] oldRates = rates;
+		short[] oldDays = days;
+		allocate((int) Math.min(oldKeys.length * 2L, Integer.MAX_VALUE - 8));
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				rates[slot] = oldRates[i];
+				days[slot] = oldDays[i];
+			}
+		}
+	}
+
+	private void addToBloom(long key) {
+		long hash = mix(key ^ 0x9E3779B97F4A7C15L);
+		bloom[(int) (hash >>> 32) & bloomMask] |= bloomBits((int) hash);
+	}
+
+	private boolean mightContain(long key) {
+		long hash = mix(key ^ 0x9E3779B97F4A7C15L);
+		long bits = bloomBits((int) hash);
+		return (bloom[(int) (hash >>> 32) & bloomMask] & bits) == bits;
+	}
+
+	private long bloomBits(int hash) {
+		long bits = 0;
+		for (int i = 0; i < bloomHashes; i++) {
+			bits |= 1L << (hash >>> (6 * i));
+		}
+		return bits;
+	}
+
+	private static long pack(int movieId, int userId) {
+		return ((long) movieId << 32) | (userId & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, spreading the packed ids over all the bits.
+	 */
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		key *= 0xC4CEB93FE1A85EC3L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
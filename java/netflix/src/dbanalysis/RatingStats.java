@@ -0,0 +1,235 @@
+package dbanalysis;
+
+import java.io.Serializable;
+
+/**
+ * Histogram of the rates granted by or for a user or movie. The histogram holds
+ * one 64-bit count per rate, so the count, sum and sum of squares are exact and
+ * the minimum, maximum, mean, variance and median are computed in constant time.
+ * <p>
+ * Statistics of disjoint sets of rents, e.g. collected by parallel builders, are
+ * combined by {@link #merge(RatingStats)}. Instances are not thread safe.
+ *
+ * @author mizrachi
+ *
+ */
+public class RatingStats implements Serializable {
+
+	private static final long serialVersionUID = 4155032581907563341L;
+
+	/**
+	 * The lowest rate.
+	 */
+	public static final int MIN_RATE = 1;
+
+	/**
+	 * The highest rate.
+	 */
+	public static final int MAX_RATE = 5;
+
+	//counts[rate - MIN_RATE] is the number of rents of the rate
+	private long[] counts = new long[MAX_RATE - MIN_RATE + 1];
+
+	private long count;
+
+	public RatingStats() {
+	}
+
+	/**
+	 * Creates a copy of the specified statistics.
+	 *
+	 * @param other the statistics to copy
+	 */
+	public RatingStats(RatingStats other) {
+		merge(other);
+	}
+
+	/**
+	 * @param rate the rate to add
+	 * @throws IllegalArgumentException if the rate is not between {@link #MIN_RATE}
+	 * and {@link #MAX_RATE}
+	 */
+	public void add(int rate) {
+		counts[bucket(rate)]++;
+		count++;
+	}
+
+	/**
+	 * Adds a rate several times, e.g. the count of a rate aggregated elsewhere.
+	 *
+	 * @param rate the rate to add
+	 * @param times the number of rents of the rate
+	 * @throws IllegalArgumentException if the rate is not between {@link #MIN_RATE}
+	 * and {@link #MAX_RATE}
+	 */
+	public void add(int rate, long times) {
+		if (times < 0) {
+			throw new IllegalArgumentException("Negative count " + times);
+		}
+		counts[bucket(rate)] += times;
+		count += times;
+	}
+
+	/**
+	 * Removes a rate previously added by {@link #add(int)}.
+	 *
+	 * @param rate the rate to remove
+	 * @throws IllegalArgumentException if the rate is not between {@link #MIN_RATE}
+	 * and {@link #MAX_RATE}
+	 */
+	public void remove(int rate) {
+		int bucket = bucket(rate);
+		if (counts[bucket] == 0) {
+			throw new IllegalStateException("No rent of rate " + rate + " to remove");
+		}
+		counts[bucket]--;
+		count--;
+	}
+
+	/**
+	 * Adds all the rates of the specified statistics to this statistics.
+	 *
+	 * @param other statistics of other rents
+	 */
+	public void merge(RatingStats other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+	}
+
+	/**
+	 * Removes all the rates of the specified statistics from this statistics.
+	 *
+	 * @param other statistics of some of the rents of this statistics
+	 */
+	public void subtract(RatingStats other) {
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] < other.counts[i]) {
+				throw new IllegalStateException("No " + other.counts[i] + " rents of rate "
+						+ (i + MIN_RATE) + " to remove");
+			}
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] -= other.counts[i];
+		}
+		count -= other.count;
+	}
+
+	/**
+	 * @return the number of rates
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param rate the rate
+	 * @return the number of rents of the specified rate, 0 for a rate out of range
+	 */
+	public long getCount(int rate) {
+		return rate < MIN_RATE || rate > MAX_RATE ? 0 : counts[rate - MIN_RATE];
+	}
+
+	/**
+	 * @return the sum of the rates
+	 */
+	public long getSum() {
+		long sum = 0;
+		for (int i = 0; i < counts.length; i++) {
+			sum += counts[i] * (i + MIN_RATE);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the sum of the squares of the rates
+	 */
+	public long getSumOfSquares() {
+		long sum = 0;
+		for (int i = 0; i < counts.length; i++) {
+			sum += counts[i] * (i + MIN_RATE) * (i + MIN_RATE);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the lowest rate, {@link Integer#MAX_VALUE} if there are no rates
+	 */
+	public int getMin() {
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				return i + MIN_RATE;
+			}
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return the highest rate, {@link Integer#MIN_VALUE} if there are no rates
+	 */
+	public int getMax() {
+		for (int i = counts.length - 1; i >= 0; i--) {
+			if (counts[i] > 0) {
+				return i + MIN_RATE;
+			}
+		}
+		return Integer.MIN_VALUE;
+	}
+
+	/**
+	 * @return the mean rate, {@link Double#NaN} if there are no rates
+	 */
+	public double getMean() {
+		return (double) getSum() / count;
+	}
+
+	/**
+	 * @return the population variance of the rates, {@link Double#NaN} if there are no rates
+	 */
+	public double getVariance() {
+		double mean = getMean();
+		return (double) getSumOfSquares() / count - mean * mean;
+	}
+
+	/**
+	 * @return the median rate, the mean of the two middle rates when the number
+	 * of rates is even and {@link Double#NaN} if there are no rates
+	 */
+	public double getMedian() {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		//zero based positions of the middle rates
+		int lower = rateAt((count - 1) / 2);
+		int upper = rateAt(count / 2);
+		return (lower + upper) / 2.0;
+	}
+
+	private int rateAt(long position) {
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (position < seen) {
+				return i + MIN_RATE;
+			}
+		}
+		throw new IllegalStateException("Position " + position + " out of " + count);
+	}
+
+	private static int bucket(int rate) {
+		if (rate < MIN_RATE || rate > MAX_RATE) {
+			throw new IllegalArgumentException("Rate " + rate + " is out of range");
+		}
+		return rate - MIN_RATE;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("count = ").append(count);
+		for (int i = 0; i < counts.length; i++) {
+			sb.append(", ").append(i + MIN_RATE).append(" = ").append(counts[i]);
+		}
+		return sb.toString();
+	}
+}
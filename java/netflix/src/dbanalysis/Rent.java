@@ -3,34 +3,47 @@ package dbanalysis;
 import java.io.Serializable;
 import java.util.Date;
 
+import common.DayCodec;
+
 
 public class Rent implements Serializable {
 
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = -3013236218813948962L;
+	private static final long serialVersionUID = 4290145273615408815L;
 
 	private int movieId;
 	
 	private int userId;
 	
-	private Date date;
+	//days since the dataset epoch, see DayCodec
+	private short day;
 	
-	private int rate;
+	private byte rate;
 
 	
 	/**
 	 * @param movieId
 	 * @param userId
-	 * @param date
+	 * @param date the date, may be <code>null</code>
 	 * @param rate
 	 */
 	public Rent(int movieId, int userId, Date date, int rate) {
+		this(movieId, userId, DayCodec.fromDate(date), rate);
+	}
+
+	/**
+	 * @param movieId
+	 * @param userId
+	 * @param day the day number as encoded by {@link DayCodec}
+	 * @param rate
+	 */
+	public Rent(int movieId, int userId, short day, int rate) {
 		this.movieId = movieId;
 		this.userId = userId;
-		this.date = date;
-		this.rate = rate;
+		this.day = day;
+		this.rate = (byte) rate;
 	}
 
 	/**
@@ -48,10 +61,21 @@ public class Rent implements Serializable {
 	}
 
 	/**
-	 * @return the date
+	 * Creates the date of this rent. Use {@link #getDay()} when a {@link Date}
+	 * object is not needed.
+	 * 
+	 * @return the date, <code>null</code> if the rent has no date.
 	 */
 	public Date getDate() {
-		return date;
+		return DayCodec.toDate(day);
+	}
+
+	/**
+	 * @return the day number of the date as encoded by {@link DayCodec},
+	 * {@link DayCodec#NO_DAY} if the rent has no date.
+	 */
+	public short getDay() {
+		return day;
 	}
 
 	/**
@@ -66,7 +90,7 @@ public class Rent implements Serializable {
 		Rent rent = (Rent) obj;
 		return rent.getMovieId() == (this.movieId)
 			&& rent.getUserId() == (this.userId)
-			&& ((rent.getDate() == null && this.date == null) || rent.getDate().equals(this.date))
+			&& rent.getDay() == this.day
 			&& rent.getRate() == this.rate;
 	}
 
@@ -74,13 +98,13 @@ public class Rent implements Serializable {
 	public int hashCode() {
 		return 3 * movieId +
 			   7 * userId +
-			   11 * (date != null ? date.hashCode() : 0) +
+			   11 * day +
 			   13 * rate;
 	}
 
 	@Override
 	public String toString() {
 		return "MovieID = {" + movieId + "}, UserID = {" + userId + "}"
-		+ "Rate = " + rate + ", Date = " + date;
+		+ "Rate = " + rate + ", Date = " + getDate();
 	}
 }
@@ -0,0 +1,72 @@
+package dbanalysis;
+
+/**
+ * Reusable flyweight over the rents of a {@link RentStore}. The cursor starts
+ * before the first rent and every {@link #next()} moves it to the following
+ * rent, whose fields are then read without creating a {@link Rent}:
+ * <pre>
+ * RentCursor cursor = user.rentsCursor();
+ * while (cursor.next()) {
+ *     sum += cursor.getRate();
+ * }
+ * </pre>
+ * 
+ * @author mizrachi
+ *
+ */
+public class RentCursor {
+
+	private RentStore store;
+	
+	private int index = -1;
+	
+	RentCursor(RentStore store) {
+		this.store = store;
+	}
+	
+	/**
+	 * Moves to the next rent.
+	 * 
+	 * @return <code>false</code> if there are no more rents
+	 */
+	public boolean next() {
+		return ++index < store.size();
+	}
+	
+	/**
+	 * Moves the cursor back before the first rent.
+	 */
+	public void reset() {
+		index = -1;
+	}
+	
+	/**
+	 * @return index of the current rent in its store
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	public int getMovieId() {
+		return store.getMovieId(index);
+	}
+	
+	public int getUserId() {
+		return store.getUserId(index);
+	}
+	
+	public short getDay() {
+		return store.getDay(index);
+	}
+	
+	public int getRate() {
+		return store.getRate(index);
+	}
+	
+	/**
+	 * @return a new rent equal to the current rent
+	 */
+	public Rent toRent() {
+		return store.getRent(index);
+	}
+}
@@ -0,0 +1,602 @@
+package dbanalysis;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Growable struct-of-arrays storage of rents. The movie ids, user ids, days and
+ * rates are kept in parallel primitive arrays, so iterating the rents reads
+ * consecutive memory and no {@link Rent} object is kept per rent. Rents are
+ * created only when asked for, by {@link #getRent(int)} and by the {@link #asList()}
+ * view; hot loops should use the indexed accessors or a {@link RentCursor}.
+ * <p>
+ * The store may be sorted by movie id or by user id, after which the rents of a
+ * movie or user are found by binary search. The store stays sorted while rents are
+ * removed or appended in order.
+ * <p>
+ * A {@link #freeze() frozen} store is immutable and may be shared by views of a
+ * range of its rents, see {@link #view(int, int)}, or of any subset of them, see
+ * {@link #view(int[])}, so a rent is kept once however many objects refer to it.
+ * Views are immutable too. Instances are not thread safe, but frozen stores and
+ * views may be read by any number of threads.
+ * 
+ * @author mizrachi
+ *
+ */
+public class RentStore implements Serializable {
+
+	private static final long serialVersionUID = 6059337510390394211L;
+	
+	private static final int MIN_CAPACITY = 4;
+	
+	private static final byte UNSORTED = 0;
+	
+	private static final byte SORTED_BY_MOVIE_ID = 1;
+	
+	private static final byte SORTED_BY_USER_ID = 2;
+
+	private int size;
+	
+	private int[] movieIds;
+	
+	private int[] userIds;
+	
+	private short[] days;
+	
+	private byte[] rates;
+	
+	private byte sortOrder = UNSORTED;
+	
+	private boolean frozen;
+	
+	private boolean view;
+	
+	//first row of a range view
+	private int offset;
+	
+	//rows of a subset view, null for a store or a range view
+	private int[] rows;
+	
+	public RentStore() {
+		this(0);
+	}
+	
+	/**
+	 * @param capacity initial number of rents the store can hold without growing
+	 */
+	public RentStore(int capacity) {
+		movieIds = new int[capacity];
+		userIds = new int[capacity];
+		days = new short[capacity];
+		rates = new byte[capacity];
+	}
+	
+	/**
+	 * @return number of rents in the store
+	 */
+	public int size() {
+		return size;
+	}
+	
+	public void add(Rent rent) {
+		add(rent.getMovieId(), rent.getUserId(), rent.getDay(), rent.getRate());
+	}
+	
+	public void add(int movieId, int userId, short day, int rate) {
+		checkWritable();
+		if (size == movieIds.length) {
+			grow(Math.max(MIN_CAPACITY, size + (size >> 1)));
+		}
+		if (size > 0 && ((sortOrder == SORTED_BY_MOVIE_ID && movieId < movieIds[size - 1])
+				|| (sortOrder == SORTED_BY_USER_ID && userId < userIds[size - 1]))) {
+			sortOrder = UNSORTED;
+		}
+		movieIds[size] = movieId;
+		userIds[size] = userId;
+		days[size] = day;
+		rates[size] = (byte) rate;
+		size++;
+	}
+	
+	/**
+	 * @param rent a rent
+	 * @return index of the first rent equal to the specified rent, -1 if there is none
+	 */
+	public int indexOf(Rent rent) {
+		int movieId = rent.getMovieId();
+		int userId = rent.getUserId();
+		short day = rent.getDay();
+		byte rate = (byte) rent.getRate();
+		for (int i = 0; i < size; i++) {
+			int row = row(i);
+			if (movieIds[row] == movieId && userIds[row] == userId && days[row] == day 
+					&& rates[row] == rate) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Removes the first rent equal to the specified rent, keeping the order of the
+	 * other rents.
+	 * 
+	 * @param rent the rent
+	 * @return <code>true</code> if the rent was found
+	 */
+	public boolean remove(Rent rent) {
+		int index = indexOf(rent);
+		if (index < 0) {
+			return false;
+		}
+		remove(index);
+		return true;
+	}
+	
+	/**
+	 * Removes the rent of the specified index, keeping the order of the other rents.
+	 * 
+	 * @param index the index
+	 */
+	public void remove(int index) {
+		checkWritable();
+		checkIndex(index);
+		int moved = size - index - 1;
+		System.arraycopy(movieIds, index + 1, movieIds, index, moved);
+		System.arraycopy(userIds, index + 1, userIds, index, moved);
+		System.arraycopy(days, index + 1, days, index, moved);
+		System.arraycopy(rates, index + 1, rates, index, moved);
+		size--;
+	}
+	
+	public int getMovieId(int index) {
+		return movieIds[row(index)];
+	}
+	
+	public int getUserId(int index) {
+		return userIds[row(index)];
+	}
+	
+	public short getDay(int index) {
+		return days[row(index)];
+	}
+	
+	public int getRate(int index) {
+		return rates[row(index)];
+	}
+	
+	/**
+	 * Makes the store immutable, trimming its capacity first. A frozen store may
+	 * be shared by views.
+	 */
+	public void freeze() {
+		if (!frozen) {
+			trimToSize();
+			frozen = true;
+		}
+	}
+	
+	/**
+	 * @return <code>true</code> if the store is frozen or is a view
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	/**
+	 * @return <code>true</code> if the store shares the rents of another store
+	 */
+	public boolean isView() {
+		return view;
+	}
+	
+	/**
+	 * Creates a view of a range of the rents of this frozen store. The view is
+	 * sorted by movie id or user id when its rents are.
+	 * 
+	 * @param from index of the first rent of the view
+	 * @param to index following the last rent of the view
+	 * @return an immutable view sharing the rents of this store
+	 */
+	public RentStore view(int from, int to) {
+		checkShared();
+		if (from < 0 || to > size || from > to) {
+			throw new IndexOutOfBoundsException("Range: " + from + "-" + to + ", Size: " + size);
+		}
+		RentStore range = newView(to - from);
+		range.offset = rows == null ? offset + from : 0;
+		range.rows = rows == null ? null : Arrays.copyOfRange(rows, from, to);
+		range.sortOrder = range.findSortOrder();
+		return range;
+	}
+	
+	/**
+	 * Creates a view of some of the rents of this frozen store. The view is sorted
+	 * by movie id or user id when its rents are.
+	 * 
+	 * @param indices indices of the rents of the view, in the order of the view
+	 * @return an immutable view sharing the rents of this store
+	 */
+	public RentStore view(int[] indices) {
+		checkShared();
+		RentStore subset = newView(indices.length);
+		subset.rows = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			checkIndex(indices[i]);
+			subset.rows[i] = row(indices[i]);
+		}
+		subset.sortOrder = subset.findSortOrder();
+		return subset;
+	}
+	
+	/**
+	 * Creates a view of rows of the arrays of this frozen store, see {@link #row(int)}.
+	 * The view keeps the rows array, which must not be changed later.
+	 * 
+	 * @param viewRows rows of the rents of the view, in the order of the view
+	 * @return an immutable view sharing the rents of this store
+	 */
+	RentStore viewOfRows(int[] viewRows) {
+		checkShared();
+		RentStore subset = newView(viewRows.length);
+		subset.rows = viewRows;
+		subset.sortOrder = subset.findSortOrder();
+		return subset;
+	}
+	
+	/**
+	 * @return <code>true</code> if this store and the specified one are views of the
+	 * same rents, so their rows refer to the same rents
+	 */
+	boolean sharesRowsWith(RentStore other) {
+		return movieIds == other.movieIds;
+	}
+	
+	private void checkShared() {
+		if (!frozen) {
+			throw new IllegalStateException("Only a frozen store may be shared");
+		}
+	}
+	
+	private RentStore newView(int viewSize) {
+		RentStore shared = new RentStore(0);
+		shared.movieIds = movieIds;
+		shared.userIds = userIds;
+		shared.days = days;
+		shared.rates = rates;
+		shared.size = viewSize;
+		shared.frozen = true;
+		shared.view = true;
+		return shared;
+	}
+	
+	/**
+	 * @return the order of the rents. Rents of a single user are taken as sorted
+	 * by movie id and rents of a single movie as sorted by user id.
+	 */
+	private byte findSortOrder() {
+		boolean byMovieId = isSorted(movieIds);
+		boolean byUserId = isSorted(userIds);
+		if (byMovieId && byUserId) {
+			return size > 0 && getMovieId(0) == getMovieId(size - 1) 
+					? SORTED_BY_USER_ID : SORTED_BY_MOVIE_ID;
+		}
+		return byUserId ? SORTED_BY_USER_ID : byMovieId ? SORTED_BY_MOVIE_ID : UNSORTED;
+	}
+	
+	private boolean isSorted(int[] keys) {
+		for (int i = 1; i < size; i++) {
+			if (keys[row(i - 1)] > keys[row(i)]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the row of the arrays holding the rent of the specified index, which
+	 * views share with the store they were created of
+	 */
+	int row(int index) {
+		return rows == null ? offset + index : rows[index];
+	}
+	
+	/**
+	 * Sorts the rents by movie id, keeping the order of rents of the same movie.
+	 * A frozen store can only be marked as sorted when its rents already are.
+	 */
+	public void sortByMovieId() {
+		if (sortOrder != SORTED_BY_MOVIE_ID) {
+			sort(movieIds);
+			sortOrder = SORTED_BY_MOVIE_ID;
+		}
+	}
+	
+	/**
+	 * Sorts the rents by user id, keeping the order of rents of the same user.
+	 * A frozen store can only be marked as sorted when its rents already are.
+	 */
+	public void sortByUserId() {
+		if (sortOrder != SORTED_BY_USER_ID) {
+			sort(userIds);
+			sortOrder = SORTED_BY_USER_ID;
+		}
+	}
+	
+	/**
+	 * @return <code>true</code> if the rents are sorted by movie id
+	 */
+	public boolean isSortedByMovieId() {
+		return sortOrder == SORTED_BY_MOVIE_ID;
+	}
+	
+	/**
+	 * @return <code>true</code> if the rents are sorted by user id
+	 */
+	public boolean isSortedByUserId() {
+		return sortOrder == SORTED_BY_USER_ID;
+	}
+	
+	/**
+	 * Finds the first rent of a movie, by binary search when the store is sorted
+	 * by movie id and by a linear scan otherwise.
+	 * 
+	 * @param movieId the movie id
+	 * @return the index of the first rent of the movie, -1 if there is none
+	 */
+	public int indexOfMovieId(int movieId) {
+		return indexOf(movieIds, movieId, sortOrder == SORTED_BY_MOVIE_ID);
+	}
+	
+	/**
+	 * Finds the first rent of a user, by binary search when the store is sorted
+	 * by user id and by a linear scan otherwise.
+	 * 
+	 * @param userId the user id
+	 * @return the index of the first rent of the user, -1 if there is none
+	 */
+	public int indexOfUserId(int userId) {
+		return indexOf(userIds, userId, sortOrder == SORTED_BY_USER_ID);
+	}
+	
+	private int indexOf(int[] keys, int key, boolean sorted) {
+		if (!sorted) {
+			for (int i = 0; i < size; i++) {
+				if (keys[row(i)] == key) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		//first index whose key is not smaller than the searched key
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[row(middle)] < key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low < size && keys[row(low)] == key ? low : -1;
+	}
+	
+	/**
+	 * Stable sort of all columns by the specified column.
+	 */
+	private void sort(int[] keys) {
+		if (isSorted(keys)) {
+			return;
+		}
+		checkWritable();
+		//the index next to every key keeps the sort stable and gives the permutation
+		long[] order = new long[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = ((long) keys[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		int[] sortedMovieIds = new int[movieIds.length];
+		int[] sortedUserIds = new int[userIds.length];
+		short[] sortedDays = new short[days.length];
+		byte[] sortedRates = new byte[rates.length];
+		for (int i = 0; i < size; i++) {
+			int from = (int) order[i];
+			sortedMovieIds[i] = movieIds[from];
+			sortedUserIds[i] = userIds[from];
+			sortedDays[i] = days[from];
+			sortedRates[i] = rates[from];
+		}
+		movieIds = sortedMovieIds;
+		userIds = sortedUserIds;
+		days = sortedDays;
+		rates = sortedRates;
+	}
+	
+	/**
+	 * @param index the index
+	 * @return a new rent of the specified index
+	 */
+	public Rent getRent(int index) {
+		checkIndex(index);
+		int row = row(index);
+		return new Rent(movieIds[row], userIds[row], days[row], rates[row]);
+	}
+	
+	/**
+	 * @return a copy of the movie ids of the rents, in their order
+	 */
+	public int[] copyMovieIds() {
+		return copy(movieIds);
+	}
+	
+	/**
+	 * @return a copy of the user ids of the rents, in their order
+	 */
+	public int[] copyUserIds() {
+		return copy(userIds);
+	}
+	
+	private int[] copy(int[] values) {
+		if (rows == null) {
+			return Arrays.copyOfRange(values, offset, offset + size);
+		}
+		int[] copy = new int[size];
+		for (int i = 0; i < size; i++) {
+			copy[i] = values[rows[i]];
+		}
+		return copy;
+	}
+	
+	/**
+	 * @return a new cursor positioned before the first rent
+	 */
+	public RentCursor cursor() {
+		return new RentCursor(this);
+	}
+	
+	/**
+	 * @return a read only list view of the store. Every access of the list creates
+	 * a new {@link Rent}.
+	 */
+	public List<Rent> asList() {
+		return new AbstractList<Rent>() {
+
+			@Override
+			public Rent get(int index) {
+				return getRent(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+			
+			@Override
+			public int indexOf(Object o) {
+				return RentStore.this.indexOf((Rent) o);
+			}
+			
+			@Override
+			public boolean contains(Object o) {
+				return indexOf(o) >= 0;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a spliterator of the rents, which splits the remaining rents in halves
+	 * and knows the exact size of every part. Every rent is created as the
+	 * spliterator advances, see {@link #getRent(int)}. The store must not be changed
+	 * while the spliterator is used.
+	 * 
+	 * @return a new spliterator of the rents, in their order
+	 */
+	public Spliterator<Rent> spliterator() {
+		return new RentSpliterator(0, size);
+	}
+	
+	/**
+	 * Spliterator of a range of indices of the store.
+	 */
+	private final class RentSpliterator implements Spliterator<Rent> {
+		
+		private int index;
+		
+		private final int end;
+		
+		RentSpliterator(int index, int end) {
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Rent> action) {
+			if (index >= end) {
+				return false;
+			}
+			action.accept(getRent(index++));
+			return true;
+		}
+		
+		@Override
+		public void forEachRemaining(Consumer<? super Rent> action) {
+			for (; index < end; index++) {
+				int row = row(index);
+				action.accept(new Rent(movieIds[row], userIds[row], days[row], rates[row]));
+			}
+		}
+
+		@Override
+		public Spliterator<Rent> trySplit() {
+			int middle = (index + end) >>> 1;
+			if (middle <= index) {
+				return null;
+			}
+			Spliterator<Rent> prefix = new RentSpliterator(index, middle);
+			index = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL | (frozen ? IMMUTABLE : 0);
+		}
+	}
+	
+	/**
+	 * Trims the capacity of the store to its size.
+	 */
+	public void trimToSize() {
+		if (!frozen && size < movieIds.length) {
+			grow(size);
+		}
+	}
+	
+	/**
+	 * @return an estimate of the bytes of heap taken by the store. The rents of a
+	 * view are counted by the store it shares them with.
+	 */
+	public long getMemoryBytes() {
+		if (view) {
+			return 48 + (rows == null ? 0 : 16 + 4L * rows.length);
+		}
+		//object header and fields plus four array headers
+		return 48 + 4 * 16 + (long) movieIds.length * (4 + 4 + 2 + 1);
+	}
+	
+	private void grow(int capacity) {
+		movieIds = Arrays.copyOf(movieIds, capacity);
+		userIds = Arrays.copyOf(userIds, capacity);
+		days = Arrays.copyOf(days, capacity);
+		rates = Arrays.copyOf(rates, capacity);
+	}
+	
+	private void checkWritable() {
+		if (frozen) {
+			throw new UnsupportedOperationException("Rents are frozen.");
+		}
+	}
+	
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		trimToSize();
+		out.defaultWriteObject();
+	}
+}
@@ -0,0 +1,76 @@
+package dbanalysis;
+
+/**
+ * Moves the rents of all the users and movies of a DB into a single frozen
+ * {@link RentStore}. The shared store is sorted by movie id and then by user id,
+ * every movie gets a view of its range of the store and every user a view of its
+ * rows, which are sorted by movie id too. A rent then takes 11 bytes in the shared
+ * store and 4 bytes in the view of its user, instead of a copy in the user, in the
+ * movie and in the rents list of the DB.
+ *
+ * @author mizrachi
+ *
+ */
+final class SharedRents {
+
+	private SharedRents() {
+	}
+
+	/**
+	 * Shares the rents of the specified users and movies. The rents of every user
+	 * must be the rents of the movies having the user.
+	 *
+	 * @param movies the movies by their id, may hold <code>null</code>s
+	 * @param userIds the user ids map
+	 * @param users the users by their dense index
+	 * @return the shared store
+	 */
+	static RentStore share(DBMovie[] movies, UserIdMap userIds, DBUser[] users) {
+		int size = 0;
+		for (DBMovie movie : movies) {
+			if (movie != null) {
+				size += movie.getRentStore().size();
+			}
+		}
+		RentStore shared = new RentStore(size);
+		//rents of movie m are [starts[m], starts[m + 1])
+		int[] starts = new int[movies.length + 1];
+		int[] counts = new int[userIds.size()];
+		for (int movieId = 0; movieId < movies.length; movieId++) {
+			starts[movieId] = shared.size();
+			if (movies[movieId] == null) {
+				continue;
+			}
+			movies[movieId].freeze();
+			RentStore rents = movies[movieId].getRentStore();
+			for (int i = 0; i < rents.size(); i++) {
+				shared.add(rents.getMovieId(i), rents.getUserId(i), rents.getDay(i), rents.getRate(i));
+				counts[userIds.indexOf(rents.getUserId(i))]++;
+			}
+		}
+		starts[movies.length] = shared.size();
+		shared.freeze();
+
+		//the rows of every user in movie order
+		int[][] rows = new int[counts.length][];
+		for (int index = 0; index < counts.length; index++) {
+			rows[index] = new int[counts[index]];
+			counts[index] = 0;
+		}
+		for (int row = 0; row < shared.size(); row++) {
+			int index = userIds.indexOf(shared.getUserId(row));
+			rows[index][counts[index]++] = row;
+		}
+
+		for (int movieId = 0; movieId < movies.length; movieId++) {
+			if (movies[movieId] != null) {
+				movies[movieId].shareRents(shared.view(starts[movieId], starts[movieId + 1]));
+			}
+		}
+		for (int index = 0; index < users.length; index++) {
+			users[index].shareRents(shared.view(rows[index]));
+			rows[index] = null;
+		}
+		return shared;
+	}
+}
@@ -0,0 +1,287 @@
+package dbanalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.DBFolderIterator;
+import common.DayCodec;
+import common.RentHandler;
+import common.RentsFileParser;
+import common.RentsSource;
+
+/**
+ * Loads the training set into the SQL tables read by {@link SqlReadOnlyNetflixDB}:
+ * <code>rating_all</code>, holding all the rents, and <code>rating</code>, holding
+ * the rents which are not in the probe set. Both tables are filled in one pass over
+ * the movie files.
+ * <p>
+ * Several worker threads, each with its own connection, take the next unread movie
+ * file, parse it and insert its rents by batched prepared statements, committing
+ * once per file. The tables are created without indexes, which are created once all
+ * the rents are inserted. Any JDBC url may be used, e.g. of an embedded in-process
+ * DB for testing.
+ *
+ * @author mizrachi
+ *
+ */
+public class SqlBulkLoader {
+
+	/**
+	 * Default number of rows per batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 5000;
+
+	private static final String ALL_TABLE = "rating_all";
+
+	private static final String TABLE = "rating";
+
+	private String url;
+
+	private int numOfThreads;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	//probe rents packed as movieId << 32 | userId, sorted
+	private long[] probe = new long[0];
+
+	private File[] files;
+
+	private AtomicInteger nextFile;
+
+	private AtomicLong rentNum;
+
+	private AtomicLong probeNum;
+
+	/**
+	 * @param url the JDBC url, including user and password if needed. The JDBC
+	 * driver of the url must be registered already.
+	 * @param numOfThreads number of loading threads, each with its own connection
+	 */
+	public SqlBulkLoader(String url, int numOfThreads) {
+		if (numOfThreads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.url = url;
+		this.numOfThreads = numOfThreads;
+	}
+
+	/**
+	 * @param batchSize number of rows inserted per batch
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Creates the tables and loads the rents of the movie files into them.
+	 *
+	 * @param trainingSetPath folder of the movie files
+	 * @param probeFile the probe file, <code>null</code> if the probe set should not be
+	 * left out of the <code>rating</code> table
+	 * @return the number of rents loaded into <code>rating_all</code>
+	 * @throws IOException if the probe file could not be read
+	 * @throws SQLException if the tables or indexes could not be created
+	 */
+	public long load(String trainingSetPath, File probeFile) throws IOException, SQLException {
+		if (probeFile != null) {
+			readProbe(probeFile);
+			System.out.println("Finished reading " + probe.length + " probe rents.");
+		}
+		files = DBFolderIterator.listMovieFiles(trainingSetPath);
+		nextFile = new AtomicInteger(0);
+		rentNum = new AtomicLong(0);
+		probeNum = new AtomicLong(0);
+
+		execute("CREATE TABLE " + ALL_TABLE + " (movieid INT NOT NULL, userid INT NOT NULL,"
+				+ " rating SMALLINT NOT NULL, date DATE)",
+				"CREATE TABLE " + TABLE + " (movieid INT NOT NULL, userid INT NOT NULL,"
+				+ " rating SMALLINT NOT NULL, date DATE)");
+
+		Thread[] workers = new Thread[numOfThreads];
+		Worker[] tasks = new Worker[numOfThreads];
+		for (int i = 0; i < numOfThreads; i++) {
+			tasks[i] = new Worker();
+			workers[i] = new Thread(tasks[i], "SqlBulkLoader-" + i);
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for SQL loaders", e);
+			}
+		}
+		for (Worker task : tasks) {
+			if (task.failure != null) {
+				throw new IllegalStateException("SQL loader failed", task.failure);
+			}
+		}
+		System.out.println("Finished inserting " + rentNum.get() + " rents, " + probeNum.get()
+				+ " of them probe rents. Creating indexes.");
+
+		execute("CREATE INDEX " + ALL_TABLE + "_movieid ON " + ALL_TABLE + " (movieid)",
+				"CREATE INDEX " + ALL_TABLE + "_userid ON " + ALL_TABLE + " (userid)",
+				"CREATE INDEX " + TABLE + "_movieid ON " + TABLE + " (movieid)",
+				"CREATE INDEX " + TABLE + "_userid ON " + TABLE + " (userid)");
+		return rentNum.get();
+	}
+
+	private void readProbe(File probeFile) throws IOException {
+		final long[][] packed = new long[][] {new long[1 << 16]};
+		final int[] size = new int[1];
+		RentsSource.forQuestions(probeFile).parse(new RentHandler() {
+
+			@Override
+			public void handleRent(int movieId, int userId, int rate, short day) {
+				if (size[0] == packed[0].length) {
+					packed[0] = Arrays.copyOf(packed[0], size[0] << 1);
+				}
+				packed[0][size[0]++] = pack(movieId, userId);
+			}
+		});
+		probe = Arrays.copyOf(packed[0], size[0]);
+		Arrays.sort(probe);
+	}
+
+	private static long pack(int movieId, int userId) {
+		return ((long) movieId << 32) | (userId & 0xFFFFFFFFL);
+	}
+
+	private void execute(String... sqls) throws SQLException {
+		Connection connection = DriverManager.getConnection(url);
+		try {
+			Statement stmt = connection.createStatement();
+			for (String sql : sqls) {
+				stmt.execute(sql);
+			}
+			stmt.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	private class Worker implements Runnable, RentHandler {
+
+		private Throwable failure;
+
+		private PreparedStatement insertAll;
+
+		private PreparedStatement insert;
+
+		private int batched;
+
+		//dates by day, created once
+		private java.sql.Date[] dates = new java.sql.Date[1 << 16];
+
+		private SQLException error;
+
+		@Override
+		public void run() {
+			Connection connection = null;
+			try {
+				connection = DriverManager.getConnection(url);
+				connection.setAutoCommit(false);
+				insertAll = connection.prepareStatement("INSERT INTO " + ALL_TABLE + " VALUES (?, ?, ?, ?)");
+				insert = connection.prepareStatement("INSERT INTO " + TABLE + " VALUES (?, ?, ?, ?)");
+				int index;
+				while ((index = nextFile.getAndIncrement()) < files.length) {
+					int rents = RentsFileParser.parseRents(files[index], this);
+					if (error != null) {
+						throw error;
+					}
+					executeBatches();
+					connection.commit();
+					long loaded = rentNum.addAndGet(rents);
+					if (index % 1000 == 999) {
+						System.out.println("Loaded " + (index + 1) + " files, " + loaded + " rents so far.");
+					}
+				}
+				insertAll.close();
+				insert.close();
+			} catch (Throwable t) {
+				failure = t;
+			} finally {
+				if (connection != null) {
+					try {
+						connection.close();
+					} catch (SQLException sqlEx) { } // ignore
+				}
+			}
+		}
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			if (error != null) {
+				return;
+			}
+			try {
+				java.sql.Date date = null;
+				if (day != DayCodec.NO_DAY) {
+					date = dates[day & 0xFFFF];
+					if (date == null) {
+						date = java.sql.Date.valueOf(DayCodec.format(day));
+						dates[day & 0xFFFF] = date;
+					}
+				}
+				add(insertAll, movieId, userId, rate, date);
+				if (Arrays.binarySearch(probe, pack(movieId, userId)) >= 0) {
+					probeNum.incrementAndGet();
+				} else {
+					add(insert, movieId, userId, rate, date);
+				}
+				if (++batched == batchSize) {
+					executeBatches();
+				}
+			} catch (SQLException e) {
+				//reported after the file is parsed
+				error = e;
+			}
+		}
+
+		private void add(PreparedStatement stmt, int movieId, int userId, int rate, java.sql.Date date) throws SQLException {
+			stmt.setInt(1, movieId);
+			stmt.setInt(2, userId);
+			stmt.setInt(3, rate);
+			if (date == null) {
+				stmt.setNull(4, java.sql.Types.DATE);
+			} else {
+				stmt.setDate(4, date);
+			}
+			stmt.addBatch();
+		}
+
+		private void executeBatches() throws SQLException {
+			if (batched > 0) {
+				insertAll.executeBatch();
+				insert.executeBatch();
+				batched = 0;
+			}
+		}
+	}
+
+	/**
+	 * @param args JDBC url, training set folder, probe file (or "-" for none) and
+	 * optionally the number of loading threads
+	 */
+	public static void main(String[] args) throws IOException, SQLException {
+		int numOfThreads = args.length > 3 ? Integer.parseInt(args[3])
+				: Runtime.getRuntime().availableProcessors();
+		SqlBulkLoader loader = new SqlBulkLoader(args[0], numOfThreads);
+		long start = System.currentTimeMillis();
+		long rents = loader.load(args[1], "-".equals(args[2]) ? null : new File(args[2]));
+		System.out.println("Finished loading " + rents + " rents in "
+				+ (System.currentTimeMillis() - start) / 1000 + " sec.");
+	}
+}
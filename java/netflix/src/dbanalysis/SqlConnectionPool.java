@@ -0,0 +1,180 @@
+package dbanalysis;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed size pool of JDBC connections. Connections are opened lazily, up to
+ * the pool size, and every connection caches the prepared statements created on
+ * it by their SQL, so a query is parsed and planned once per connection. A
+ * connection is used by one thread at a time, between {@link #borrow()} and
+ * {@link #release(PooledConnection)}, so long running queries, e.g. streaming a
+ * table, should use a connection of their own, see {@link #open()}.
+ *
+ * @author mizrachi
+ *
+ */
+class SqlConnectionPool {
+
+	private final String url;
+
+	private final BlockingQueue<PooledConnection> idle;
+
+	private final int size;
+
+	private final long timeoutMillis;
+
+	private int opened;
+
+	private boolean closed;
+
+	/**
+	 * @param url the JDBC url, including user and password if needed
+	 * @param size maximal number of open connections
+	 * @param timeoutMillis maximal time to wait for a connection to be released
+	 */
+	SqlConnectionPool(String url, int size, long timeoutMillis) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Pool size must be positive");
+		}
+		this.url = url;
+		this.size = size;
+		this.timeoutMillis = timeoutMillis;
+		idle = new ArrayBlockingQueue<PooledConnection>(size);
+	}
+
+	/**
+	 * Takes an idle connection, opening a new one if all are in use and the pool is
+	 * not full, waiting for one to be released otherwise.
+	 *
+	 * @return the connection
+	 * @throws SQLException if a connection could not be opened, or none was
+	 * released in time
+	 */
+	PooledConnection borrow() throws SQLException {
+		PooledConnection connection = idle.poll();
+		if (connection != null) {
+			return connection;
+		}
+		synchronized (this) {
+			if (closed) {
+				throw new SQLException("Connection pool is closed");
+			}
+			if (opened < size) {
+				connection = new PooledConnection(DriverManager.getConnection(url));
+				opened++;
+				return connection;
+			}
+		}
+		try {
+			connection = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection");
+		}
+		if (connection == null) {
+			throw new SQLException("No connection was released in " + timeoutMillis + " ms");
+		}
+		return connection;
+	}
+
+	/**
+	 * Opens a connection which is not part of the pool, to be closed by the caller.
+	 *
+	 * @return the connection
+	 * @throws SQLException if the connection could not be opened or the pool is closed
+	 */
+	Connection open() throws SQLException {
+		synchronized (this) {
+			if (closed) {
+				throw new SQLException("Connection pool is closed");
+			}
+		}
+		return DriverManager.getConnection(url);
+	}
+
+	/**
+	 * Returns a borrowed connection to the pool.
+	 *
+	 * @param connection the connection
+	 */
+	void release(PooledConnection connection) {
+		boolean close;
+		synchronized (this) {
+			close = closed;
+		}
+		if (close) {
+			connection.close();
+		} else {
+			idle.offer(connection);
+		}
+	}
+
+	/**
+	 * Closes the idle connections. Borrowed connections are closed when released.
+	 */
+	void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		PooledConnection connection;
+		while ((connection = idle.poll()) != null) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * A connection of the pool and its prepared statements.
+	 */
+	static class PooledConnection {
+
+		private final Connection connection;
+
+		private final Map<String, PreparedStatement> statements =
+			new HashMap<String, PreparedStatement>();
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * @return the JDBC connection
+		 */
+		Connection getConnection() {
+			return connection;
+		}
+
+		/**
+		 * @param sql the query
+		 * @return the cached statement of the query, prepared on the first call
+		 * @throws SQLException if the statement could not be prepared
+		 */
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
+
+		private void close() {
+			for (PreparedStatement statement : statements.values()) {
+				try {
+					statement.close();
+				} catch (SQLException sqlEx) { } // ignore
+			}
+			statements.clear();
+			try {
+				connection.close();
+			} catch (SQLException sqlEx) { } // ignore
+		}
+	}
+}
@@ -1,53 +1,98 @@
 package dbanalysis;
 
+import java.io.Closeable;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import common.DayCodec;
 
 /**
  * SQL based DB proxy. DB is in read-only mode. Any attempt to use manipulating (e.g. write...)
  * methods will throw exception. Heavy performance methods (e.g. getAll...) are also unimplemented
  * and will throw exception.
- * 
- * Class was tested on mySql DB. Proxy assumes root user with no password.
- * 
+ * <p>
+ * Queries are prepared once per connection of a small connection pool and cached, so the
+ * proxy may be used by several threads. Callers needing only statistics of a user or movie
+ * should use the aggregate queries (e.g. {@link #getMovieRatingStats(int)} and
+ * {@link #getCommonMoviesCount(int, int)}) which are computed by the DB server and
+ * return a few rows, instead of reading every rent of a popular movie. Several users are
+ * read by few queries by {@link #readUsers(int[])}. Result sets are fetched in chunks of
+ * {@link #FETCH_SIZE} rows, so {@link #rentsIterator()} streams the table, on a
+ * connection of its own which is closed when the iteration ends, when the iterator
+ * is closed or when the proxy is.
+ * <p>
+ * Class was tested on mySql DB, with default constructor assuming root user with no password.
+ * Any JDBC url may be given instead, e.g. of an embedded in-process DB holding a table
+ * <code>rating</code> (and <code>rating_all</code>, including probe data) of columns
+ * <code>movieid</code>, <code>userid</code>, <code>rating</code> and <code>date</code>.
+ *
  * @author mizrachi
  *
  */
-public class SqlReadOnlyNetflixDB implements NetflixDB {
+public class SqlReadOnlyNetflixDB implements NetflixDB, Closeable {
+
+	/**
+	 * Rows fetched from the server at a time.
+	 */
+	public static final int FETCH_SIZE = 4096;
+
+	private static final String MYSQL_URL =
+		"jdbc:mysql://localhost/netflix?user=root&password=&useCursorFetch=true";
+
+	private static final int DEFAULT_POOL_SIZE = 4;
+
+	private static final long BORROW_TIMEOUT_MILLIS = 60000;
+
+	//ids read by a single query of readUsers(), a fixed number keeps a single statement
+	private static final int IDS_PER_QUERY = 64;
 
-	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
-	
 	private static final String USER_ID_COL = "userid";
-	
+
 	private static final String MOVIE_ID_COL = "movieid";
-	
+
 	private static final String RATING_COL = "rating";
-	
+
 	private static final String DATE_COL = "date";
 
-	private Connection connection = null;
-	
+	private SqlConnectionPool pool;
+
 	private boolean includeProbeData;
-	
+
 	private String ratingTableName;
-	
+
+	private String selectRents;
+
+	//iterators of rentsIterator() which were not closed yet
+	private Set<RentsIterator> openIterators = Collections.synchronizedSet(new HashSet<RentsIterator>());
+
 	/**
 	 * Creates SQL DB Proxy with or without probe data. One may like probe data
-	 * out of the results while generating recommendations in order not to 
+	 * out of the results while generating recommendations in order not to
 	 * "unfairly" improve his accuracy. On the other hand, he may like it in when
 	 * analyzing the DB or when checking his results for the probe data.
-	 * 
+	 *
 	 * @param includeProbeData <code>true</code> if probe data should be included in the
 	 * results, <code>false</code>, otherwise.
 	 */
 	public SqlReadOnlyNetflixDB(boolean includeProbeData) {
+		this(MYSQL_URL, includeProbeData, DEFAULT_POOL_SIZE);
 		// The newInstance() call is a work around for some
 		// broken Java implementations
 		try {
@@ -59,19 +104,46 @@ public class SqlReadOnlyNetflixDB implements NetflixDB {
 		} catch (ClassNotFoundException ex) {
 			System.err.println("ClassNotFoundException while tryinh to create JDBC driver: " + ex.getMessage());
 		}
+	}
 
-		try {
-			connection =
-				DriverManager.getConnection("jdbc:mysql://localhost/netflix?" +
-				"user=root&password=");
-		} catch (SQLException ex) {
-			// handle any errors
-			System.err.println("SQLException while tryinh to connect to netflix database: " + ex.getMessage());
-			System.err.println("SQLState while tryinh to connect to netflix database: " + ex.getSQLState());
-			System.err.println("VendorError while trying to connect to netflix database: " + ex.getErrorCode());
-		}
+	/**
+	 * Creates SQL DB Proxy of the specified DB. The JDBC driver of the url must be
+	 * registered already. Connections are opened when first needed, and a query
+	 * waiting for a connection of the pool fails after a minute.
+	 *
+	 * @param url the JDBC url, including user and password if needed
+	 * @param includeProbeData <code>true</code> if probe data should be included in the
+	 * results, <code>false</code>, otherwise.
+	 * @param poolSize maximal number of connections opened to the DB
+	 */
+	public SqlReadOnlyNetflixDB(String url, boolean includeProbeData, int poolSize) {
+		pool = new SqlConnectionPool(url, poolSize, BORROW_TIMEOUT_MILLIS);
 		this.includeProbeData = includeProbeData;
-		ratingTableName = includeProbeData ? "rating_all " : "rating ";
+		ratingTableName = includeProbeData ? "rating_all" : "rating";
+		selectRents = "SELECT movieid, userid, rating, date FROM " + ratingTableName;
+	}
+
+	/**
+	 * @return <code>true</code> if probe data is included in the results
+	 */
+	public boolean isIncludeProbeData() {
+		return includeProbeData;
+	}
+
+	/**
+	 * Closes the connections to the DB, including those of unfinished iterations of
+	 * {@link #rentsIterator()}.
+	 */
+	@Override
+	public void close() {
+		pool.close();
+		RentsIterator[] iterators;
+		synchronized (openIterators) {
+			iterators = openIterators.toArray(new RentsIterator[openIterators.size()]);
+		}
+		for (RentsIterator iterator : iterators) {
+			iterator.close();
+		}
 	}
 
 	@Override
@@ -83,55 +155,44 @@ public class SqlReadOnlyNetflixDB implements NetflixDB {
 	public DBUser[] getAllUsers() {
 		throw new UnsupportedOperationException("Operation takes too long time. Use iteration over all users instead (not recommended).");
 	}
-	
+
 	@Override
 	public int getNumberOfMovies() {
 		throw new UnsupportedOperationException("Operation takes too long time. Use iteration over all users instead (not recommended).");
 	}
-	
+
 	@Override
 	public int getNumberOfUsers() {
 		throw new UnsupportedOperationException("Operation takes too long time. Use iteration over all users instead (not recommended).");
 	}
 
+	@Override
+	public UserIdMap getUserIdMap() {
+		throw new UnsupportedOperationException("Operation takes too long time. Use iteration over all users instead (not recommended).");
+	}
+
 	@Override
 	public DateFormat getDateFormat() {
-		return DATE_FORMAT;
+		return DayCodec.newDateFormat();
 	}
 
 	@Override
 	public DBMovie readMovie(int movieId) {
-		Statement stmt = null;
+		SqlConnectionPool.PooledConnection connection = null;
 		ResultSet rs = null;
 		DBMovie movie = null;
 		try {
-			stmt = connection.createStatement();
-			rs = stmt.executeQuery("SELECT movieid, userid, rating, date FROM " + ratingTableName + " WHERE movieid = " + movieId);
+			connection = pool.borrow();
+			PreparedStatement stmt = prepare(connection, selectRents + " WHERE movieid = ?");
+			stmt.setInt(1, movieId);
+			rs = stmt.executeQuery();
 			movie = createMovie(movieId, rs);
 		}
 		catch (SQLException ex){
-			// handle any errors
-			System.err.println("SQLException: " + ex.getMessage());
-			System.err.println("SQLState: " + ex.getSQLState());
-			System.err.println("VendorError: " + ex.getErrorCode());
+			printError(ex);
 		}
 		finally {
-			// it is a good idea to release
-			// resources in a finally{} block
-			// in reverse-order of their creation
-			// if they are no-longer needed
-			if (rs != null) {
-				try {
-					rs.close();
-				} catch (SQLException sqlEx) { } // ignore
-				rs = null;
-			}
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException sqlEx) { } // ignore
-				stmt = null;
-			}
+			release(connection, rs);
 		}
 		return movie;
 	}
@@ -143,126 +204,305 @@ public class SqlReadOnlyNetflixDB implements NetflixDB {
 
 	@Override
 	public Rent readRent(int movieId, int userId, Date date) {
-		Statement stmt = null;
+		SqlConnectionPool.PooledConnection connection = null;
 		ResultSet rs = null;
 		Rent rent = null;
 		try {
-			stmt = connection.createStatement();
-			rs = stmt.executeQuery("SELECT movieid, userid, rating, date FROM " + ratingTableName + " WHERE " +
-					"movieid = " + movieId + " AND " +
-					"userid = " + userId);
-			if (!rs.isAfterLast()) {
-				if (rs.next()) {
-					rent = new Rent(rs.getInt(MOVIE_ID_COL), 
-							rs.getInt(USER_ID_COL), 
-							rs.getDate(DATE_COL), 
-							rs.getInt(RATING_COL));
-				}
+			connection = pool.borrow();
+			PreparedStatement stmt = prepare(connection, selectRents + " WHERE movieid = ? AND userid = ?"
+					+ (date != null ? " AND date = ?" : ""));
+			stmt.setInt(1, movieId);
+			stmt.setInt(2, userId);
+			if (date != null) {
+				stmt.setDate(3, java.sql.Date.valueOf(DayCodec.format(DayCodec.fromDate(date))));
+			}
+			rs = stmt.executeQuery();
+			if (rs.next()) {
+				rent = createRent(rs);
 			}
 		}
 		catch (SQLException ex){
-			// handle any errors
-			System.err.println("SQLException: " + ex.getMessage());
-			System.err.println("SQLState: " + ex.getSQLState());
-			System.err.println("VendorError: " + ex.getErrorCode());
+			printError(ex);
 		}
 		finally {
-			// it is a good idea to release
-			// resources in a finally{} block
-			// in reverse-order of their creation
-			// if they are no-longer needed
-			if (rs != null) {
-				try {
-					rs.close();
-				} catch (SQLException sqlEx) { } // ignore
-				rs = null;
-			}
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException sqlEx) { } // ignore
-				stmt = null;
-			}
-		}		
+			release(connection, rs);
+		}
 		return rent;
 	}
 
+	@Override
+	public int rateOf(int movieId, int userId) {
+		Rent rent = readRent(movieId, userId, null);
+		return rent == null ? DBUser.NO_RATE : rent.getRate();
+	}
+
 	@Override
 	public DBUser readUser(int userId) {
-		Statement stmt = null;
+		SqlConnectionPool.PooledConnection connection = null;
 		ResultSet rs = null;
 		DBUser user = null;
 		try {
-			stmt = connection.createStatement();
-			rs = stmt.executeQuery("SELECT movieid, userid, rating, date FROM " + ratingTableName + " WHERE userid = " + userId);
+			connection = pool.borrow();
+			PreparedStatement stmt = prepare(connection, selectRents + " WHERE userid = ?");
+			stmt.setInt(1, userId);
+			rs = stmt.executeQuery();
 			user = createUser(userId, rs);
 		}
 		catch (SQLException ex){
-			// handle any errors
-			System.err.println("SQLException: " + ex.getMessage());
-			System.err.println("SQLState: " + ex.getSQLState());
-			System.err.println("VendorError: " + ex.getErrorCode());
+			printError(ex);
 		}
 		finally {
-			// it is a good idea to release
-			// resources in a finally{} block
-			// in reverse-order of their creation
-			// if they are no-longer needed
-			if (rs != null) {
-				try {
-					rs.close();
-				} catch (SQLException sqlEx) { } // ignore
+			release(connection, rs);
+		}
+		return user;
+	}
+
+	/**
+	 * Reads several users, 64 users per query. As in
+	 * {@link #readUser(int)} users without rents are returned empty.
+	 *
+	 * @param userIds the user ids
+	 * @return the users, in the order of their ids, <code>null</code> on DB error
+	 */
+	public DBUser[] readUsers(int[] userIds) {
+		HashMap<Integer, DBUser> users = new HashMap<Integer, DBUser>();
+		for (int userId : userIds) {
+			users.put(userId, new DBUser(userId));
+		}
+		//every user is read once, also when its id is repeated
+		int[] distinctIds = new int[users.size()];
+		int next = 0;
+		for (Integer userId : users.keySet()) {
+			distinctIds[next++] = userId;
+		}
+		StringBuilder sql = new StringBuilder(selectRents).append(" WHERE userid IN (");
+		for (int i = 0; i < IDS_PER_QUERY; i++) {
+			sql.append(i == 0 ? "?" : ", ?");
+		}
+		sql.append(')');
+		SqlConnectionPool.PooledConnection connection = null;
+		ResultSet rs = null;
+		try {
+			connection = pool.borrow();
+			PreparedStatement stmt = prepare(connection, sql.toString());
+			for (int from = 0; from < distinctIds.length; from += IDS_PER_QUERY) {
+				//the last query repeats its last id
+				for (int i = 0; i < IDS_PER_QUERY; i++) {
+					stmt.setInt(i + 1, distinctIds[Math.min(from + i, distinctIds.length - 1)]);
+				}
+				rs = stmt.executeQuery();
+				while (rs.next()) {
+					Rent rent = createRent(rs);
+					DBUser user = users.get(rent.getUserId());
+					user.addRent(rent);
+					user.updateRent(rent);
+				}
+				rs.close();
 				rs = null;
 			}
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException sqlEx) { } // ignore
-				stmt = null;
-			}
 		}
-		return user;
-	}	
+		catch (SQLException ex){
+			printError(ex);
+			return null;
+		}
+		finally {
+			release(connection, rs);
+		}
+		DBUser[] result = new DBUser[userIds.length];
+		for (int i = 0; i < userIds.length; i++) {
+			result[i] = users.get(userIds[i]);
+		}
+		return result;
+	}
 
-	@Override
-	public Iterator<Rent> rentsIterator() {
-		Statement stmt = null;
+	/**
+	 * Counts the rates of a movie by the DB server.
+	 *
+	 * @param movieId the movie id
+	 * @return the rating statistics of the movie, <code>null</code> on DB error
+	 */
+	public RatingStats getMovieRatingStats(int movieId) {
+		return readRatingStats("SELECT rating, COUNT(*) FROM " + ratingTableName
+				+ " WHERE movieid = ? GROUP BY rating", movieId);
+	}
+
+	/**
+	 * Counts the rates of a user by the DB server.
+	 *
+	 * @param userId the user id
+	 * @return the rating statistics of the user, <code>null</code> on DB error
+	 */
+	public RatingStats getUserRatingStats(int userId) {
+		return readRatingStats("SELECT rating, COUNT(*) FROM " + ratingTableName
+				+ " WHERE userid = ? GROUP BY rating", userId);
+	}
+
+	/**
+	 * Collects the rents of a user for movies rented by another user too, see
+	 * {@link DBUser#getCommonMoviesWith(DBUser)}, joining the rents by the DB server.
+	 *
+	 * @param userId the user whose rents are returned
+	 * @param otherUserId the other user
+	 * @return the rents of the user of movies common to both users, <code>null</code> on DB error
+	 */
+	public List<Rent> getCommonMovies(int userId, int otherUserId) {
+		SqlConnectionPool.PooledConnection connection = null;
 		ResultSet rs = null;
-		boolean success = false;
+		List<Rent> rents = null;
 		try {
-			stmt = connection.createStatement();
-			rs = stmt.executeQuery("SELECT movieid, userid, rating, date FROM " + ratingTableName);
-			success = true;
+			connection = pool.borrow();
+			PreparedStatement stmt = prepare(connection, "SELECT a.movieid, a.userid, a.rating, a.date FROM "
+					+ ratingTableName + " a JOIN " + ratingTableName + " b ON a.movieid = b.movieid"
+					+ " WHERE a.userid = ? AND b.userid = ?");
+			stmt.setInt(1, userId);
+			stmt.setInt(2, otherUserId);
+			rs = stmt.executeQuery();
+			rents = new ArrayList<Rent>();
+			while (rs.next()) {
+				rents.add(createRent(rs));
+			}
 		}
 		catch (SQLException ex){
-			// handle any errors
-			System.err.println("SQLException: " + ex.getMessage());
-			System.err.println("SQLState: " + ex.getSQLState());
-			System.err.println("VendorError: " + ex.getErrorCode());
+			printError(ex);
+			rents = null;
 		}
 		finally {
-			// it is a good idea to release
-			// resources in a finally{} block
-			// in reverse-order of their creation
-			// if they are no-longer needed
-			if (rs != null) {
-				try {
-					rs.close();
-				} catch (SQLException sqlEx) { } // ignore
-				rs = null;
+			release(connection, rs);
+		}
+		return rents;
+	}
+
+	/**
+	 * @param userId a user id
+	 * @param otherUserId another user id
+	 * @return the number of movies rented by both users, -1 on DB error
+	 */
+	public int getCommonMoviesCount(int userId, int otherUserId) {
+		return readCount("SELECT COUNT(*) FROM " + ratingTableName + " a JOIN " + ratingTableName
+				+ " b ON a.movieid = b.movieid WHERE a.userid = ? AND b.userid = ?", userId, otherUserId);
+	}
+
+	/**
+	 * @param movieId a movie id
+	 * @param otherMovieId another movie id
+	 * @return the number of users who rented both movies, -1 on DB error
+	 */
+	public int getCommonUsersCount(int movieId, int otherMovieId) {
+		return readCount("SELECT COUNT(*) FROM " + ratingTableName + " a JOIN " + ratingTableName
+				+ " b ON a.userid = b.userid WHERE a.movieid = ? AND b.movieid = ?", movieId, otherMovieId);
+	}
+
+	/**
+	 * Streams all the rents, on a connection of its own, not of the pool, which is
+	 * closed once the iteration ends. An iteration left unfinished should be closed
+	 * by {@link Closeable#close()} of the iterator, or is closed with the proxy.
+	 */
+	@Override
+	public Iterator<Rent> rentsIterator() {
+		return openRents(selectRents);
+	}
+
+	/**
+	 * Runs a query of rents on a connection of its own, see {@link #rentsIterator()}.
+	 * 
+	 * @return an iterator of the rents, <code>null</code> if the query failed
+	 */
+	private RentsIterator openRents(String sql, int... params) {
+		Connection connection = null;
+		PreparedStatement stmt = null;
+		try {
+			connection = pool.open();
+			stmt = connection.prepareStatement(sql,
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(FETCH_SIZE);
+			for (int i = 0; i < params.length; i++) {
+				stmt.setInt(i + 1, params[i]);
 			}
+			RentsIterator iterator = new RentsIterator(connection, stmt, stmt.executeQuery());
+			openIterators.add(iterator);
+			return iterator;
+		}
+		catch (SQLException ex){
+			printError(ex);
 			if (stmt != null) {
 				try {
 					stmt.close();
 				} catch (SQLException sqlEx) { } // ignore
-				stmt = null;
 			}
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (SQLException sqlEx) { } // ignore
+			}
+			return null;
 		}
-		if (success) {
-			return new RentsIterator(rs);
-		} else {
+	}
+
+	/**
+	 * The number of rents of every movie is read first, by a single grouped query,
+	 * so the stream is sized and split by movies into halves of about equal numbers
+	 * of rents. The rents of every range of movies are read by a query of their own,
+	 * on a connection of its own, see {@link #rentsIterator()}.
+	 */
+	@Override
+	public Stream<Rent> ratingsStream() {
+		int[][] movieCounts = readMovieCounts();
+		if (movieCounts == null) {
+			return Stream.empty();
+		}
+		int[] movieIds = movieCounts[0];
+		int[] ends = movieCounts[1];
+		for (int i = 1; i < ends.length; i++) {
+			ends[i] += ends[i - 1];
+		}
+		return StreamSupport.stream(new MoviesSpliterator(movieIds, ends, 0, movieIds.length), false);
+	}
+
+	/**
+	 * The ids of the movies are read first, so the stream is sized, and every movie
+	 * is read by {@link #readMovie(int)}.
+	 */
+	@Override
+	public Stream<DBMovie> moviesStream() {
+		int[][] movieCounts = readMovieCounts();
+		if (movieCounts == null) {
+			return Stream.empty();
+		}
+		return Arrays.stream(movieCounts[0]).mapToObj(this::readMovie);
+	}
+
+	/**
+	 * @return the ids of the movies, sorted, and the number of rents of every movie,
+	 * <code>null</code> if the query failed
+	 */
+	private int[][] readMovieCounts() {
+		SqlConnectionPool.PooledConnection connection = null;
+		ResultSet rs = null;
+		try {
+			connection = pool.borrow();
+			PreparedStatement stmt = prepare(connection, "SELECT movieid, COUNT(*) FROM "
+					+ ratingTableName + " GROUP BY movieid ORDER BY movieid");
+			rs = stmt.executeQuery();
+			int[] movieIds = new int[1024];
+			int[] counts = new int[1024];
+			int size = 0;
+			while (rs.next()) {
+				if (size == movieIds.length) {
+					movieIds = Arrays.copyOf(movieIds, size * 2);
+					counts = Arrays.copyOf(counts, size * 2);
+				}
+				movieIds[size] = rs.getInt(1);
+				counts[size++] = rs.getInt(2);
+			}
+			return new int[][] {Arrays.copyOf(movieIds, size), Arrays.copyOf(counts, size)};
+		}
+		catch (SQLException ex){
+			printError(ex);
 			return null;
 		}
+		finally {
+			release(connection, rs);
+		}
 	}
 
 	@Override
@@ -284,15 +524,105 @@ public class SqlReadOnlyNetflixDB implements NetflixDB {
 	public void writeUser(DBUser user) {
 		throw new UnsupportedOperationException("DB is read only.");
 	}
-	
+
+	@Override
+	public void removeRent(Rent rent) {
+		throw new UnsupportedOperationException("DB is read only.");
+	}
+
+	/**
+	 * The DB is read only already.
+	 */
+	@Override
+	public void freeze() {
+	}
+
+	private RatingStats readRatingStats(String sql, int id) {
+		SqlConnectionPool.PooledConnection connection = null;
+		ResultSet rs = null;
+		RatingStats stats = null;
+		try {
+			connection = pool.borrow();
+			PreparedStatement stmt = prepare(connection, sql);
+			stmt.setInt(1, id);
+			rs = stmt.executeQuery();
+			stats = new RatingStats();
+			while (rs.next()) {
+				stats.add(rs.getInt(1), rs.getLong(2));
+			}
+		}
+		catch (SQLException ex){
+			printError(ex);
+			stats = null;
+		}
+		finally {
+			release(connection, rs);
+		}
+		return stats;
+	}
+
+	private int readCount(String sql, int id, int otherId) {
+		SqlConnectionPool.PooledConnection connection = null;
+		ResultSet rs = null;
+		int count = -1;
+		try {
+			connection = pool.borrow();
+			PreparedStatement stmt = prepare(connection, sql);
+			stmt.setInt(1, id);
+			stmt.setInt(2, otherId);
+			rs = stmt.executeQuery();
+			if (rs.next()) {
+				count = rs.getInt(1);
+			}
+		}
+		catch (SQLException ex){
+			printError(ex);
+		}
+		finally {
+			release(connection, rs);
+		}
+		return count;
+	}
+
+	private static PreparedStatement prepare(SqlConnectionPool.PooledConnection connection, String sql) throws SQLException {
+		PreparedStatement stmt = connection.prepare(sql);
+		stmt.setFetchSize(FETCH_SIZE);
+		return stmt;
+	}
+
+	/**
+	 * Closes the result set and returns the connection, with its cached statements,
+	 * to the pool.
+	 */
+	private void release(SqlConnectionPool.PooledConnection connection, ResultSet rs) {
+		if (rs != null) {
+			try {
+				rs.close();
+			} catch (SQLException sqlEx) { } // ignore
+		}
+		if (connection != null) {
+			pool.release(connection);
+		}
+	}
+
+	private static void printError(SQLException ex) {
+		System.err.println("SQLException: " + ex.getMessage());
+		System.err.println("SQLState: " + ex.getSQLState());
+		System.err.println("VendorError: " + ex.getErrorCode());
+	}
+
+	private static Rent createRent(ResultSet rs) throws SQLException {
+		return new Rent(rs.getInt(MOVIE_ID_COL),
+				rs.getInt(USER_ID_COL),
+				rs.getDate(DATE_COL),
+				rs.getInt(RATING_COL));
+	}
+
 	private static DBMovie createMovie(int movieId, ResultSet rs) {
 		DBMovie movie = new DBMovie(movieId);
 		try {
-			while (rs.next()) {					
-				Rent rent = new Rent(rs.getInt(MOVIE_ID_COL), 
-						rs.getInt(USER_ID_COL), 
-						rs.getDate(DATE_COL), 
-						rs.getInt(RATING_COL));
+			while (rs.next()) {
+				Rent rent = createRent(rs);
 				movie.addRent(rent);
 				movie.updateRent(rent);
 			}
@@ -305,13 +635,10 @@ public class SqlReadOnlyNetflixDB implements NetflixDB {
 	private static DBUser createUser(int userId, ResultSet rs) {
 		DBUser user = new DBUser(userId);
 		try {
-			while (rs.next()) {					
-				Rent rent = new Rent(rs.getInt(MOVIE_ID_COL), 
-						rs.getInt(USER_ID_COL), 
-						rs.getDate(DATE_COL), 
-						rs.getInt(RATING_COL));
+			while (rs.next()) {
+				Rent rent = createRent(rs);
 				user.addRent(rent);
-				user.updateRent(rent);				
+				user.updateRent(rent);
 			}
 		} catch (SQLException e) {
 			System.err.println("DataBase error when trying to create user " + userId + ". " + e.getMessage());
@@ -319,45 +646,161 @@ public class SqlReadOnlyNetflixDB implements NetflixDB {
 		return user;
 	}
 
-	private static class RentsIterator implements Iterator<Rent> {
-	
+	/**
+	 * Spliterator of the rents of a range of movies, reading them by a single query
+	 * once it is advanced. A spliterator which was advanced is not split any more.
+	 */
+	private final class MoviesSpliterator implements Spliterator<Rent> {
+
+		private final int[] movieIds;
+
+		//ends[i] is the number of the rents of the movies up to movie i, shared by splits
+		private final int[] ends;
+
+		private int first;
+
+		private final int last;
+
+		private int row;
+
+		private RentsIterator rents;
+
+		MoviesSpliterator(int[] movieIds, int[] ends, int first, int last) {
+			this.movieIds = movieIds;
+			this.ends = ends;
+			this.first = first;
+			this.last = last;
+			this.row = first == 0 ? 0 : ends[first - 1];
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Rent> action) {
+			if (rents == null) {
+				if (first >= last) {
+					return false;
+				}
+				rents = openRents(selectRents + " WHERE movieid >= ? AND movieid <= ?",
+						movieIds[first], movieIds[last - 1]);
+				if (rents == null) {
+					throw new IllegalStateException("Rents of movies " + movieIds[first]
+							+ " to " + movieIds[last - 1] + " could not be read");
+				}
+			}
+			if (!rents.hasNext()) {
+				return false;
+			}
+			row++;
+			action.accept(rents.next());
+			return true;
+		}
+
+		@Override
+		public Spliterator<Rent> trySplit() {
+			if (rents != null || last - first < 2) {
+				return null;
+			}
+			//the first movie whose rents end at the middle rent or after it
+			int middle = (row + ends[last - 1]) >>> 1;
+			int low = first;
+			int high = last - 1;
+			while (low < high) {
+				int position = (low + high) >>> 1;
+				if (ends[position] < middle) {
+					low = position + 1;
+				} else {
+					high = position;
+				}
+			}
+			int split = Math.min(low + 1, last - 1);
+			MoviesSpliterator prefix = new MoviesSpliterator(movieIds, ends, first, split);
+			first = split;
+			row = ends[split - 1];
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return last == 0 ? 0 : ends[last - 1] - row;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+	}
+
+	/**
+	 * Iterator of a result set of all the rents, closing its connection when the
+	 * result set is exhausted or the iterator is closed.
+	 */
+	private class RentsIterator implements Iterator<Rent>, Closeable {
+
+		private Connection connection;
+
+		private PreparedStatement stmt;
+
 		private ResultSet rs;
-		
-		public RentsIterator(ResultSet rs) {
+
+		private Rent next;
+
+		public RentsIterator(Connection connection, PreparedStatement stmt, ResultSet rs) {
+			this.connection = connection;
+			this.stmt = stmt;
 			this.rs = rs;
 		}
-		
+
 		@Override
 		public boolean hasNext() {
-			try {
-				return rs.isAfterLast();
-			} catch (SQLException e) {
-				System.err.println("DataBase error when trying to check for next entry. " + e.getMessage());
-				return false;
+			if (next == null && rs != null) {
+				try {
+					if (rs.next()) {
+						next = createRent(rs);
+					} else {
+						close();
+					}
+				} catch (SQLException e) {
+					System.err.println("DataBase error when trying to check for next entry. " + e.getMessage());
+					close();
+				}
 			}
+			return next != null;
 		}
 
 		@Override
 		public Rent next() {
-			try {
-				if(rs.next()) {
-					return new Rent(rs.getInt(MOVIE_ID_COL), 
-							rs.getInt(USER_ID_COL), 
-							rs.getDate(DATE_COL), 
-							rs.getInt(RATING_COL));
-				} else {
-					System.err.println("No more rows when trying to get next entry");
-					return null;
-				}
-			} catch (SQLException e) {
-				System.err.println("DataBase error when trying to check for next entry. " + e.getMessage());
-				return null;
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
+			Rent rent = next;
+			next = null;
+			return rent;
 		}
 
 		@Override
 		public void remove() {
 			throw new UnsupportedOperationException();
 		}
+
+		/**
+		 * Ends the iteration and closes its connection.
+		 */
+		@Override
+		public synchronized void close() {
+			if (rs == null) {
+				return;
+			}
+			try {
+				rs.close();
+			} catch (SQLException sqlEx) { } // ignore
+			rs = null;
+			next = null;
+			try {
+				stmt.close();
+			} catch (SQLException sqlEx) { } // ignore
+			try {
+				connection.close();
+			} catch (SQLException sqlEx) { } // ignore
+			openIterators.remove(this);
+		}
 	}
 }
@@ -0,0 +1,264 @@
+package dbanalysis;
+
+import java.io.Serializable;
+
+import common.DayCodec;
+
+/**
+ * Rating statistics of a user or movie aggregated per calendar month or per week.
+ * Every bucket holds the count, sum and sum of squares of the rates of its rents,
+ * so statistics of a date range cost O(buckets) instead of O(rents).
+ * <p>
+ * Only the buckets between the first and the last rent are kept. Ranges are
+ * rounded to whole buckets: a range covers every bucket holding one of its days.
+ * Rents without a day ({@link DayCodec#NO_DAY}) are ignored. Instances are not
+ * thread safe.
+ *
+ * @author mizrachi
+ *
+ */
+public class TimeBucketedStats implements Serializable {
+
+	private static final long serialVersionUID = -6912873544052467780L;
+
+	/**
+	 * No time buckets.
+	 */
+	public static final int NONE = 0;
+
+	/**
+	 * A bucket per calendar month.
+	 */
+	public static final int MONTH = 1;
+
+	/**
+	 * A bucket per week, weeks start on the day of week of {@link DayCodec} day 0.
+	 */
+	public static final int WEEK = 2;
+
+	private static final int[] EMPTY = new int[0];
+
+	private int granularity;
+
+	//bucket of index 0 of the arrays
+	private int first;
+
+	private int[] counts = EMPTY;
+
+	private int[] sums = EMPTY;
+
+	private int[] sumsOfSquares = EMPTY;
+
+	/**
+	 * @param granularity {@link #MONTH} or {@link #WEEK}
+	 */
+	public TimeBucketedStats(int granularity) {
+		if (granularity != MONTH && granularity != WEEK) {
+			throw new IllegalArgumentException("Unknown granularity " + granularity);
+		}
+		this.granularity = granularity;
+	}
+
+	/**
+	 * Creates the statistics of all the rents of a store.
+	 *
+	 * @param rents the rents
+	 * @param granularity {@link #MONTH} or {@link #WEEK}
+	 * @return the statistics
+	 */
+	public static TimeBucketedStats of(RentStore rents, int granularity) {
+		TimeBucketedStats stats = new TimeBucketedStats(granularity);
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < rents.size(); i++) {
+			if (rents.getDay(i) != DayCodec.NO_DAY) {
+				int bucket = stats.bucketOf(rents.getDay(i));
+				min = Math.min(min, bucket);
+				max = Math.max(max, bucket);
+			}
+		}
+		if (min <= max) {
+			//allocating the whole range once
+			stats.ensureRange(min, max);
+			for (int i = 0; i < rents.size(); i++) {
+				stats.add(rents.getRate(i), rents.getDay(i));
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * @return {@link #MONTH} or {@link #WEEK}
+	 */
+	public int getGranularity() {
+		return granularity;
+	}
+
+	/**
+	 * @param day a day, see {@link DayCodec}
+	 * @return the bucket of the day
+	 */
+	public int bucketOf(short day) {
+		if (granularity == MONTH) {
+			return (DayCodec.getYear(day) - 1998) * 12 + DayCodec.getMonth(day) - 1;
+		}
+		//rounding down for days before day 0
+		return day >= 0 ? day / 7 : (day - 6) / 7;
+	}
+
+	/**
+	 * Adds a rate of the specified day.
+	 *
+	 * @param rate the rate
+	 * @param day the day
+	 */
+	public void add(int rate, short day) {
+		if (day == DayCodec.NO_DAY) {
+			return;
+		}
+		int bucket = bucketOf(day);
+		ensureRange(bucket, bucket);
+		int index = bucket - first;
+		counts[index]++;
+		sums[index] += rate;
+		sumsOfSquares[index] += rate * rate;
+	}
+
+	/**
+	 * Removes a rate previously added by {@link #add(int, short)}.
+	 *
+	 * @param rate the rate
+	 * @param day the day
+	 */
+	public void remove(int rate, short day) {
+		if (day == DayCodec.NO_DAY) {
+			return;
+		}
+		int index = bucketOf(day) - first;
+		if (index < 0 || index >= counts.length || counts[index] == 0) {
+			throw new IllegalStateException("No rent of day " + DayCodec.format(day) + " to remove");
+		}
+		counts[index]--;
+		sums[index] -= rate;
+		sumsOfSquares[index] -= rate * rate;
+	}
+
+	/**
+	 * Adds all the rates of the specified statistics to this statistics.
+	 *
+	 * @param other statistics of other rents of the same granularity
+	 */
+	public void merge(TimeBucketedStats other) {
+		if (other.granularity != granularity) {
+			throw new IllegalArgumentException("Cannot merge statistics of different granularity");
+		}
+		if (other.counts.length == 0) {
+			return;
+		}
+		ensureRange(other.first, other.first + other.counts.length - 1);
+		for (int i = 0; i < other.counts.length; i++) {
+			int index = other.first + i - first;
+			counts[index] += other.counts[i];
+			sums[index] += other.sums[i];
+			sumsOfSquares[index] += other.sumsOfSquares[i];
+		}
+	}
+
+	/**
+	 * @param fromDay first day of the range
+	 * @param toDay last day of the range
+	 * @return the number of rates of the range
+	 */
+	public long getCount(short fromDay, short toDay) {
+		return total(counts, fromDay, toDay);
+	}
+
+	/**
+	 * @param fromDay first day of the range
+	 * @param toDay last day of the range
+	 * @return the sum of the rates of the range
+	 */
+	public long getSum(short fromDay, short toDay) {
+		return total(sums, fromDay, toDay);
+	}
+
+	/**
+	 * @param fromDay first day of the range
+	 * @param toDay last day of the range
+	 * @return the sum of the squares of the rates of the range
+	 */
+	public long getSumOfSquares(short fromDay, short toDay) {
+		return total(sumsOfSquares, fromDay, toDay);
+	}
+
+	/**
+	 * @param fromDay first day of the range
+	 * @param toDay last day of the range
+	 * @return the mean rate of the range, {@link Double#NaN} if there are no rates
+	 */
+	public double getMean(short fromDay, short toDay) {
+		return (double) getSum(fromDay, toDay) / getCount(fromDay, toDay);
+	}
+
+	/**
+	 * @param fromDay first day of the range
+	 * @param toDay last day of the range
+	 * @return the population variance of the rates of the range, {@link Double#NaN}
+	 * if there are no rates
+	 */
+	public double getVariance(short fromDay, short toDay) {
+		double count = getCount(fromDay, toDay);
+		double mean = getSum(fromDay, toDay) / count;
+		return getSumOfSquares(fromDay, toDay) / count - mean * mean;
+	}
+
+	/**
+	 * @return the number of buckets kept
+	 */
+	public int getNumOfBuckets() {
+		return counts.length;
+	}
+
+	/**
+	 * @return estimated number of heap bytes taken by this object
+	 */
+	public long getMemoryBytes() {
+		//object header and fields, and three arrays with their headers
+		return 32 + 3 * (16 + 4L * counts.length);
+	}
+
+	private long total(int[] values, short fromDay, short toDay) {
+		int from = Math.max(bucketOf(fromDay) - first, 0);
+		int to = Math.min(bucketOf(toDay) - first, values.length - 1);
+		long total = 0;
+		for (int i = from; i <= to; i++) {
+			total += values[i];
+		}
+		return total;
+	}
+
+	private void ensureRange(int fromBucket, int toBucket) {
+		if (counts.length == 0) {
+			first = fromBucket;
+			counts = new int[toBucket - fromBucket + 1];
+			sums = new int[counts.length];
+			sumsOfSquares = new int[counts.length];
+			return;
+		}
+		int newFirst = Math.min(first, fromBucket);
+		int newLength = Math.max(first + counts.length - 1, toBucket) - newFirst + 1;
+		if (newFirst == first && newLength == counts.length) {
+			return;
+		}
+		counts = resize(counts, newFirst, newLength);
+		sums = resize(sums, newFirst, newLength);
+		sumsOfSquares = resize(sumsOfSquares, newFirst, newLength);
+		first = newFirst;
+	}
+
+	private int[] resize(int[] values, int newFirst, int newLength) {
+		int[] resized = new int[newLength];
+		System.arraycopy(values, 0, resized, first - newFirst, values.length);
+		return resized;
+	}
+}
@@ -0,0 +1,154 @@
+package dbanalysis;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Bidirectional mapping between the raw user ids of the dataset and dense
+ * indices. User ids range from 1 to 2649429 with gaps, for 480189 users, so
+ * per-user data kept in an array indexed by the dense index takes exactly one
+ * entry per user. Both directions are O(1) array lookups.
+ * <p>
+ * Indices are given in the order the ids are added, from 0 up to {@link #size()} - 1.
+ * Instances are not thread safe.
+ * 
+ * @author mizrachi
+ *
+ */
+public class UserIdMap implements Serializable {
+
+	private static final long serialVersionUID = -6837002302546281049L;
+
+	/**
+	 * Index of a user id which is not in the map.
+	 */
+	public static final int NO_INDEX = -1;
+	
+	private int size;
+	
+	//dense index to raw id
+	private int[] rawIds;
+	
+	//raw id to dense index + 1, 0 for ids which are not in the map.
+	//rebuilt from rawIds when deserialized.
+	private transient int[] indices;
+	
+	public UserIdMap() {
+		rawIds = new int[1024];
+		indices = new int[1024];
+	}
+	
+	/**
+	 * Creates a map of the specified ids, in their order.
+	 * 
+	 * @param ids distinct raw user ids
+	 * @param length number of ids to take from the array
+	 */
+	public UserIdMap(int[] ids, int length) {
+		size = length;
+		rawIds = Arrays.copyOf(ids, Math.max(length, 1));
+		rebuildIndices();
+	}
+	
+	/**
+	 * @return number of users in the map
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @param userId a raw user id
+	 * @return the dense index of the user, {@link #NO_INDEX} if it is not in the map
+	 */
+	public int indexOf(int userId) {
+		return userId >= 0 && userId < indices.length ? indices[userId] - 1 : NO_INDEX;
+	}
+	
+	/**
+	 * @param userId a raw user id
+	 * @return <code>true</code> if the user is in the map
+	 */
+	public boolean contains(int userId) {
+		return indexOf(userId) != NO_INDEX;
+	}
+	
+	/**
+	 * Returns the dense index of the specified user, adding it if it is not in the map.
+	 * 
+	 * @param userId a non negative raw user id
+	 * @return the dense index of the user
+	 */
+	public int add(int userId) {
+		int index = indexOf(userId);
+		if (index != NO_INDEX) {
+			return index;
+		}
+		if (userId < 0) {
+			throw new IllegalArgumentException("Negative user id " + userId);
+		}
+		if (userId >= indices.length) {
+			indices = Arrays.copyOf(indices, Math.max(userId + 1, indices.length + (indices.length >> 1)));
+		}
+		if (size == rawIds.length) {
+			rawIds = Arrays.copyOf(rawIds, Math.max(16, size + (size >> 1)));
+		}
+		rawIds[size] = userId;
+		indices[userId] = ++size;
+		return size - 1;
+	}
+	
+	/**
+	 * @param index a dense index
+	 * @return the raw user id of the index
+	 */
+	public int getUserId(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return rawIds[index];
+	}
+	
+	/**
+	 * @return the raw user ids, ordered by their dense index
+	 */
+	public int[] getUserIds() {
+		return Arrays.copyOf(rawIds, size);
+	}
+	
+	/**
+	 * @return the biggest raw user id of the map, -1 if the map is empty
+	 */
+	public int getMaxUserId() {
+		for (int userId = indices.length - 1; userId >= 0; userId--) {
+			if (indices[userId] != 0) {
+				return userId;
+			}
+		}
+		return -1;
+	}
+	
+	private void rebuildIndices() {
+		int maxUserId = 0;
+		for (int i = 0; i < size; i++) {
+			maxUserId = Math.max(maxUserId, rawIds[i]);
+		}
+		indices = new int[maxUserId + 1];
+		for (int i = 0; i < size; i++) {
+			indices[rawIds[i]] = i + 1;
+		}
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		rawIds = Arrays.copyOf(rawIds, Math.max(size, 1));
+		out.defaultWriteObject();
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		rebuildIndices();
+	}
+}
@@ -0,0 +1,91 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import dbanalysis.Rent;
+import dbanalysis.RentCursor;
+import dbanalysis.RentStore;
+
+/**
+ * Compares the heap taken by, and the rents per second iterated over, an
+ * <code>ArrayList&lt;Rent&gt;</code> and a {@link RentStore}.
+ *
+ * Usage: RentStorageBenchmark [number of rents]
+ */
+public class RentStorageBenchmark {
+
+	private static final int ROUNDS = 20;
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		Random random = new Random(17);
+
+		long before = usedMemory();
+		List<Rent> list = new ArrayList<Rent>();
+		for (int i = 0; i < size; i++) {
+			list.add(new Rent(1 + random.nextInt(17770), 1 + random.nextInt(2649429),
+					(short) random.nextInt(2500), 1 + random.nextInt(5)));
+		}
+		long listBytes = usedMemory() - before;
+
+		random = new Random(17);
+		before = usedMemory();
+		RentStore store = new RentStore();
+		for (int i = 0; i < size; i++) {
+			store.add(1 + random.nextInt(17770), 1 + random.nextInt(2649429),
+					(short) random.nextInt(2500), 1 + random.nextInt(5));
+		}
+		store.trimToSize();
+		long storeBytes = usedMemory() - before;
+		System.out.println("ArrayList<Rent>: " + listBytes / size + " bytes per rent");
+		System.out.println("RentStore: " + storeBytes / size + " bytes per rent");
+
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			for (Rent rent : list) {
+				checksum += rent.getRate() + rent.getMovieId();
+			}
+		}
+		report("ArrayList<Rent>", size, checksum, start);
+
+		checksum = 0;
+		start = System.nanoTime();
+		RentCursor cursor = store.cursor();
+		for (int round = 0; round < ROUNDS; round++) {
+			cursor.reset();
+			while (cursor.next()) {
+				checksum += cursor.getRate() + cursor.getMovieId();
+			}
+		}
+		report("RentCursor", size, checksum, start);
+
+		checksum = 0;
+		start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int i = 0; i < store.size(); i++) {
+				checksum += store.getRate(i) + store.getMovieId(i);
+			}
+		}
+		report("RentStore indexed", size, checksum, start);
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void report(String name, int size, long checksum, long startNanos) {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		System.out.println(name + ": " + Math.round(size * (double) ROUNDS / seconds)
+				+ " rents/sec (checksum " + checksum + ")");
+	}
+}
@@ -0,0 +1,76 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import common.DBFolderIterator;
+import common.QuestionsFileIterator;
+import common.RentHandler;
+import common.RentsFileParser;
+import dbanalysis.Rent;
+
+/**
+ * Compares the lines per second read by the {@link DBFolderIterator} and
+ * {@link QuestionsFileIterator} with the ones read by the {@link RentsFileParser}.
+ *
+ * Usage: RentsParserBenchmark &lt;training set folder&gt; [questions file]
+ */
+public class RentsParserBenchmark {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		File[] files = DBFolderIterator.listMovieFiles(args[0]);
+
+		long start = System.nanoTime();
+		long lines = 0;
+		long checksum = 0;
+		Iterator<Rent> rents = new DBFolderIterator(files);
+		while (rents.hasNext()) {
+			checksum += rents.next().getRate();
+			lines++;
+		}
+		report("DBFolderIterator", lines, checksum, start);
+
+		start = System.nanoTime();
+		ChecksumHandler handler = new ChecksumHandler();
+		lines = RentsFileParser.parseRents(files, handler);
+		report("RentsFileParser (rents)", lines, handler.checksum, start);
+
+		if (args.length > 1) {
+			start = System.nanoTime();
+			lines = 0;
+			checksum = 0;
+			QuestionsFileIterator questions = new QuestionsFileIterator(args[1]);
+			while (questions.hasNext()) {
+				checksum += questions.next().getUserId();
+				lines++;
+			}
+			questions.finish();
+			report("QuestionsFileIterator", lines, checksum, start);
+
+			start = System.nanoTime();
+			handler = new ChecksumHandler();
+			lines = RentsFileParser.parseQuestions(new File(args[1]), handler);
+			report("RentsFileParser (questions)", lines, handler.checksum, start);
+		}
+	}
+
+	private static void report(String name, long lines, long checksum, long startNanos) {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		System.out.println(name + ": " + lines + " lines in " + seconds + " sec, "
+				+ Math.round(lines / seconds) + " lines/sec (checksum " + checksum + ")");
+	}
+
+	private static class ChecksumHandler implements RentHandler {
+
+		private long checksum;
+
+		@Override
+		public void handleRent(int movieId, int userId, int rate, short day) {
+			checksum += rate > 0 ? rate : userId;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import common.DayCodec;
+
+import dbanalysis.DBMovie;
+import dbanalysis.DBUser;
+import dbanalysis.NetflixAnalyzer;
+import dbanalysis.NetflixDB;
+import dbanalysis.RatingStats;
+import dbanalysis.Rent;
+import dbanalysis.SqlReadOnlyNetflixDB;
+
+/**
+ * Checks {@link SqlReadOnlyNetflixDB} against a DB in memory. The rents of the
+ * persistent DB are loaded to the <code>rating</code> table of the specified JDBC
+ * url, usually of an embedded in-process DB, e.g. <code>jdbc:h2:mem:netflix</code>
+ * with the H2 jar on the class path, and every user, movie and aggregate read
+ * through SQL is compared to the one of the DB in memory.
+ *
+ * @author mizrachi
+ *
+ */
+public class SqlNetflixDBTest {
+
+	private static final int USERS_TO_CHECK = 1000;
+
+	private static int errors = 0;
+
+	/**
+	 * @param args JDBC url and persistent DB file
+	 */
+	public static void main(String[] args) throws SQLException {
+		NetflixDB db = NetflixAnalyzer.loadDB(args[1]);
+		int rents = load(args[0], db);
+		System.out.println("Loaded " + rents + " rents");
+
+		SqlReadOnlyNetflixDB sqlDb = new SqlReadOnlyNetflixDB(args[0], false, 2);
+		long start = System.currentTimeMillis();
+		for (DBMovie movie : db.getAllMovies()) {
+			if (movie == null) {
+				continue;
+			}
+			check("movie " + movie.getId(), movie, sqlDb.readMovie(movie.getId()));
+			check("movie stats " + movie.getId(), movie.getRatingStats(), sqlDb.getMovieRatingStats(movie.getId()));
+		}
+
+		DBUser[] users = db.getAllUsers();
+		Random random = new Random(1);
+		int[] userIds = new int[Math.min(USERS_TO_CHECK, users.length)];
+		for (int i = 0; i < userIds.length; i++) {
+			userIds[i] = users[random.nextInt(users.length)].getId();
+		}
+		DBUser[] sqlUsers = sqlDb.readUsers(userIds);
+		for (int i = 0; i < userIds.length; i++) {
+			DBUser user = db.readUser(userIds[i]);
+			check("user " + user.getId(), user, sqlDb.readUser(user.getId()));
+			check("batched user " + user.getId(), user, sqlUsers[i]);
+			check("user stats " + user.getId(), user.getRatingStats(), sqlDb.getUserRatingStats(user.getId()));
+			DBUser other = db.readUser(userIds[(i + 1) % userIds.length]);
+			List<Rent> common = user.getCommonMoviesWith(other);
+			if (common.size() != sqlDb.getCommonMoviesCount(user.getId(), other.getId())
+					|| common.size() != sqlDb.getCommonMovies(user.getId(), other.getId()).size()) {
+				error("common movies of " + user.getId() + " and " + other.getId());
+			}
+			for (Rent rent : user.getRentStore().asList()) {
+				if (!rent.equals(sqlDb.readRent(rent.getMovieId(), rent.getUserId(), DayCodec.toDate(rent.getDay())))) {
+					error("rent " + rent);
+				}
+			}
+		}
+
+		int iterated = 0;
+		for (Iterator<Rent> iterator = sqlDb.rentsIterator(); iterator.hasNext(); iterator.next()) {
+			iterated++;
+		}
+		if (iterated != rents) {
+			error("iterated " + iterated + " rents");
+		}
+		sqlDb.close();
+		System.out.println("Finished in " + (System.currentTimeMillis() - start) + " ms, " + errors + " errors");
+	}
+
+	private static int load(String url, NetflixDB db) throws SQLException {
+		//left open, in-memory DBs are dropped when their last connection is closed
+		Connection connection = DriverManager.getConnection(url);
+		Statement stmt = connection.createStatement();
+		stmt.execute("CREATE TABLE rating (movieid INT NOT NULL, userid INT NOT NULL, rating INT NOT NULL, date DATE)");
+		stmt.execute("CREATE INDEX rating_movieid ON rating (movieid)");
+		stmt.execute("CREATE INDEX rating_userid ON rating (userid)");
+		stmt.close();
+		PreparedStatement insert = connection.prepareStatement("INSERT INTO rating VALUES (?, ?, ?, ?)");
+		int rents = 0;
+		for (Iterator<Rent> iterator = db.rentsIterator(); iterator.hasNext();) {
+			Rent rent = iterator.next();
+			insert.setInt(1, rent.getMovieId());
+			insert.setInt(2, rent.getUserId());
+			insert.setInt(3, rent.getRate());
+			insert.setDate(4, java.sql.Date.valueOf(DayCodec.format(rent.getDay())));
+			insert.addBatch();
+			if (++rents % 10000 == 0) {
+				insert.executeBatch();
+			}
+		}
+		insert.executeBatch();
+		insert.close();
+		return rents;
+	}
+
+	private static void check(String name, DBUser expected, DBUser actual) {
+		if (actual == null || !expected.getRentStore().asList().containsAll(actual.getRentStore().asList())
+				|| expected.getRentStore().size() != actual.getRentStore().size()) {
+			error(name);
+		}
+	}
+
+	private static void check(String name, DBMovie expected, DBMovie actual) {
+		if (actual == null || !expected.getRentStore().asList().containsAll(actual.getRentStore().asList())
+				|| expected.getRentStore().size() != actual.getRentStore().size()) {
+			error(name);
+		}
+	}
+
+	private static void check(String name, RatingStats expected, RatingStats actual) {
+		if (actual == null || !expected.toString().equals(actual.toString())) {
+			error(name);
+		}
+	}
+
+	private static void error(String message) {
+		errors++;
+		if (errors <= 10) {
+			System.err.println("Mismatch: " + message);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package test;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+import dbanalysis.DBUser;
+import dbanalysis.NetflixAnalyzer;
+import dbanalysis.NetflixDB;
+import dbanalysis.Rent;
+
+/**
+ * Measures the voter collection loop of the recommender - finding the rate every
+ * user gave to a movie - with the old sort per call lookup, a linear scan of the
+ * rents and the binary search of a frozen user.
+ *
+ * Usage: VoterLookupBenchmark [DB file | number of users] [number of movies to look up]
+ */
+public class VoterLookupBenchmark {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		DBUser[] users;
+		if (args.length > 0 && !args[0].matches("\\d+")) {
+			NetflixDB db = NetflixAnalyzer.loadDB(args[0]);
+			users = db.getAllUsers();
+		} else {
+			users = createUsers(args.length > 0 ? Integer.parseInt(args[0]) : 20000, 200);
+		}
+		int numOfMovies = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int[] movieIds = new int[numOfMovies];
+		Random random = new Random(5);
+		for (int i = 0; i < numOfMovies; i++) {
+			movieIds[i] = 1 + random.nextInt(17770);
+		}
+		long rents = 0;
+		for (DBUser user : users) {
+			rents += user.getRentStore().size();
+		}
+		System.out.println(users.length + " users, " + rents + " rents, " + numOfMovies + " movies");
+
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int movieId : movieIds) {
+			for (DBUser user : users) {
+				for (Rent rent : DBUser.getRentsForMovieId(user.getRents(), movieId)) {
+					checksum += rent.getRate();
+				}
+			}
+		}
+		long sortPerCall = report("Sort per call", users.length, numOfMovies, checksum, start);
+
+		checksum = 0;
+		start = System.nanoTime();
+		for (int movieId : movieIds) {
+			for (DBUser user : users) {
+				checksum += user.getRateForMovieId(movieId);
+			}
+		}
+		report("Linear scan", users.length, numOfMovies, checksum, start);
+
+		for (DBUser user : users) {
+			user.freeze();
+		}
+		checksum = 0;
+		start = System.nanoTime();
+		for (int movieId : movieIds) {
+			for (DBUser user : users) {
+				checksum += user.getRateForMovieId(movieId);
+			}
+		}
+		long frozen = report("Frozen binary search", users.length, numOfMovies, checksum, start);
+		System.out.println("Speedup over sort per call: " + (sortPerCall / Math.max(1, frozen)) + "x");
+	}
+
+	private static DBUser[] createUsers(int numOfUsers, int rentsPerUser) {
+		Random random = new Random(17);
+		DBUser[] users = new DBUser[numOfUsers];
+		for (int i = 0; i < numOfUsers; i++) {
+			users[i] = new DBUser(i + 1);
+			//a user rents a movie only once
+			Set<Integer> movieIds = new LinkedHashSet<Integer>();
+			while (movieIds.size() < rentsPerUser) {
+				movieIds.add(1 + random.nextInt(17770));
+			}
+			for (int movieId : movieIds) {
+				Rent rent = new Rent(movieId, i + 1, (short) random.nextInt(2500), 1 + random.nextInt(5));
+				users[i].addRent(rent);
+				users[i].updateRent(rent);
+			}
+		}
+		return users;
+	}
+
+	private static long report(String name, int numOfUsers, int numOfMovies, long checksum,
+			long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		System.out.println(name + ": " + nanos / 1000000 + " ms, "
+				+ Math.round(numOfUsers * (double) numOfMovies / (nanos / 1e9))
+				+ " lookups/sec (checksum " + checksum + ")");
+		return nanos;
+	}
+}
@@ -9,6 +9,10 @@ public class User implements Comparable<User>, Serializable {
 
 	private int id;
 	
+	//dense index of the user + 1, see UserIdMap. 0 when the index is unknown, which
+	//is also what users serialized before the index existed read.
+	private int denseIndex;
+	
 	//for voters this is their original vote.
 	//for non-voters this is the recommended value.
 	private double value;
@@ -35,6 +39,21 @@ public class User implements Comparable<User>, Serializable {
 	public int getId() {
 		return id;
 	}
+	
+	/**
+	 * @return the dense index of the user in the {@link dbanalysis.UserIdMap} of its
+	 * graph, -1 if it is unknown.
+	 */
+	public int getIndex() {
+		return denseIndex - 1;
+	}
+	
+	/**
+	 * @param index the dense index of the user
+	 */
+	public void setIndex(int index) {
+		this.denseIndex = index + 1;
+	}
 
 	/**
 	 * @return the value
@@ -24,7 +24,16 @@ public class BestOfBreedTrustGraphGenerator extends GeneralTrustGraphGenerator {
 	private double percentOfTotalTrust;
 		
 	public BestOfBreedTrustGraphGenerator (Iterator<Rent> rents, TrustCalculator edgeWeightCalculator, double percentOfTotalTrust) {
-		super(rents);
+		this(rents, null, edgeWeightCalculator, percentOfTotalTrust);
+	}
+	
+	/**
+	 * @param userIds the user ids map of the DB of the rents, see
+	 * {@link GeneralTrustGraphGenerator#GeneralTrustGraphGenerator(Iterator, UserIdMap)}
+	 */
+	public BestOfBreedTrustGraphGenerator (Iterator<Rent> rents, UserIdMap userIds, 
+			TrustCalculator edgeWeightCalculator, double percentOfTotalTrust) {
+		super(rents, userIds);
 		this.edgeWeightCalculator = edgeWeightCalculator;		
 		this.percentOfTotalTrust = percentOfTotalTrust;
 	}
@@ -5,6 +5,7 @@ import java.util.Iterator;
 import dataframework.Trust;
 import dataframework.User;
 import dbanalysis.Rent;
+import dbanalysis.UserIdMap;
 
 /**
  * Generates a trust graph from specified {@link Rent}s set. There will be a vertex for each user
@@ -24,7 +25,16 @@ public class DefaultTrustGraphGenerator extends GeneralTrustGraphGenerator {
 	
 	public DefaultTrustGraphGenerator (Iterator<Rent> rents, TrustCalculator edgeWeightCalculator,
 			EdgeAdditionPolicer<User, Trust> edgePolicer) {
-		super(rents);
+		this(rents, null, edgeWeightCalculator, edgePolicer);
+	}
+	
+	/**
+	 * @param userIds the user ids map of the DB of the rents, see
+	 * {@link GeneralTrustGraphGenerator#GeneralTrustGraphGenerator(Iterator, UserIdMap)}
+	 */
+	public DefaultTrustGraphGenerator (Iterator<Rent> rents, UserIdMap userIds, 
+			TrustCalculator edgeWeightCalculator, EdgeAdditionPolicer<User, Trust> edgePolicer) {
+		super(rents, userIds);
 		this.edgeWeightCalculator = edgeWeightCalculator;
 		this.edgePolicer = edgePolicer;
 	}
@@ -7,6 +7,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 import dataframework.User;
 import dbanalysis.Rent;
+import dbanalysis.UserIdMap;
 
 /**
  * Generates a trust graph from specified {@link Rent}s set. There will be a vertex for each user
@@ -23,15 +24,28 @@ public abstract class GeneralTrustGraphGenerator {
 	private final static Rent POISON_PILL = new Rent(-1, -1, new Date(), -1);
 	
 	private Iterator<Rent> rents;		
+	
+	private UserIdMap userIds;
 
 	public GeneralTrustGraphGenerator (Iterator<Rent> rents) {
-		this.rents = rents;		
+		this(rents, null);
+	}
+	
+	/**
+	 * @param rents the rents
+	 * @param userIds the user ids map of the DB of the rents, which the graph indexes
+	 * its vertices by, see {@link TrustGraph#TrustGraph(UserIdMap)}. <code>null</code>
+	 * for a map of the graph.
+	 */
+	public GeneralTrustGraphGenerator (Iterator<Rent> rents, UserIdMap userIds) {
+		this.rents = rents;
+		this.userIds = userIds;
 	}
 	public TrustGraph generateGraph() {
 				
 		final BlockingQueue<Rent> queue = new LinkedBlockingQueue<Rent>(10000);
 		
-		final TrustGraph graph = new TrustGraph();
+		final TrustGraph graph = userIds == null ? new TrustGraph() : new TrustGraph(userIds);
 		
 		Thread rentsProducer = new Thread(new RentsProducer(queue, rents));
 		
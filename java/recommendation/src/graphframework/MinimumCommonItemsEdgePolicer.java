@@ -5,12 +5,14 @@ import org.jgrapht.Graph;
 import dataframework.Trust;
 import dataframework.User;
 import dbanalysis.NetflixDB;
-import dbanalysis.Rent;
+import dbanalysis.RentStore;
 
 /**
  * Edge Policer for the Netflix graph that bases its decision upon the number of common items
  * between two users. Only edges from users that share more than a predefined number of common
- * items will be allowed to participate in the graph.
+ * items will be allowed to participate in the graph. The movies of one user are looked up
+ * in the rents of the other, by a binary search when they are sorted by movie id, e.g. in a
+ * frozen DB, without creating a {@link dbanalysis.Rent} per rent.
  * 
  * @author Assaf Mizrachi
  *
@@ -43,13 +45,13 @@ public class MinimumCommonItemsEdgePolicer extends AbstractEdgeAdditionPolicer<U
 	protected boolean caculate(User from, User to,
 			Graph<User, Trust> graph) {
 		int commonItems = 0;
-		for (Rent fromRent : db.readUser(from.getId()).getRents()) {
-			for (Rent toRent : db.readUser(to.getId()).getRents()) {
-				if (fromRent.getMovieId() == toRent.getMovieId()) {
-					commonItems++;
-					if (commonItems >= minCommonItems) {
-						return true;
-					}
+		RentStore fromRents = db.readUser(from.getId()).getRentStore();
+		RentStore toRents = db.readUser(to.getId()).getRentStore();
+		for (int i = 0; i < fromRents.size(); i++) {
+			if (toRents.indexOfMovieId(fromRents.getMovieId(i)) >= 0) {
+				commonItems++;
+				if (commonItems >= minCommonItems) {
+					return true;
 				}
 			}
 		}
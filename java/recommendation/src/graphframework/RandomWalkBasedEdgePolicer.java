@@ -13,7 +13,7 @@ import dataframework.User;
 import dbanalysis.DBMovie;
 import dbanalysis.DBUser;
 import dbanalysis.NetflixDB;
-import dbanalysis.Rent;
+import dbanalysis.RentStore;
 import dbanalysis.SqlReadOnlyNetflixDB;
 
 /**
@@ -112,17 +112,17 @@ public class RandomWalkBasedEdgePolicer extends
 	}
 	
 	private DBMovie chooseRandomMovieOf(DBUser user) {
-		List<Rent> rents = user.getRents();
+		RentStore rents = user.getRentStore();
 		int size = rents.size();
 		int chosen = (int) Math.round(Math.random() * (size - 1));
-		return db.readMovie(rents.get(chosen).getMovieId());
+		return db.readMovie(rents.getMovieId(chosen));
 	}
 	
 	private DBUser chooseRandomUserOf(DBMovie movie) {
-		List<Rent> rents = movie.getRents();
+		RentStore rents = movie.getRentStore();
 		int size = rents.size();
 		int chosen = (int) Math.round(Math.random() * (size - 1));
-		return db.readUser(rents.get(chosen).getUserId());
+		return db.readUser(rents.getUserId(chosen));
 	}
 	
 	@Override
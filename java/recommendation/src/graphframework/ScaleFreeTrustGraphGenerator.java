@@ -59,7 +59,7 @@ public class ScaleFreeTrustGraphGenerator {
 	 * 
 	 */
 	public TrustGraph generateGraph() {
-		TrustGraph result = new TrustGraph();
+		TrustGraph result = new TrustGraph(db.getUserIdMap());
 		Random random = new Random();
 		int vRents, uRents, rentSum;
 		boolean isFirst = true;
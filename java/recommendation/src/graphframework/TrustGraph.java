@@ -1,12 +1,16 @@
 package graphframework;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 import org.jgrapht.DirectedGraph;
 import org.jgrapht.graph.AbstractBaseGraph;
 
 import dataframework.Trust;
 import dataframework.User;
+import dbanalysis.UserIdMap;
 
 /**
  * A trsut graph. A trust network graph is an directed graph for which  
@@ -14,6 +18,12 @@ import dataframework.User;
  * and loops are not permitted. Each node represents an agent and if
  * exists an edge from agent A to B it means that agent A trust B. The
  * level of trust is represented by the edge's weight.
+ * <p>
+ * Vertices are also kept in an array by the dense index of their user id, so
+ * {@link #getVertex(int)} is an O(1) lookup. The dense indices come from a
+ * {@link UserIdMap} of the graph, or from the map of the DB the graph is built
+ * from, which the graph only reads, so per-user arrays of the DB and of the graph
+ * share their indices.
  * 
  * @author mizrachi
  *
@@ -25,13 +35,111 @@ public class TrustGraph extends AbstractBaseGraph<User, Trust>
 
 	private static final long serialVersionUID = -642225678463301798L;
 	
+	private UserIdMap userIds;
+	
+	//true if the map is owned by a DB and must not be changed
+	private boolean sharedUserIds;
+	
+	//vertices by dense index, rebuilt when deserialized
+	private transient User[] vertices;
+	
 	/**
      * Creates a new trust graph.
-     *
-     * @param edgeClass class on which to base factory for edges
      */
 	public TrustGraph() {
+		this(new UserIdMap(), false);
+	}
+	
+	/**
+	 * Creates a new trust graph indexing its vertices by the specified map, which
+	 * is not changed. Only users of the map may be added to the graph.
+	 * 
+	 * @param userIds the user ids map, e.g. {@link dbanalysis.NetflixDB#getUserIdMap()}
+	 */
+	public TrustGraph(UserIdMap userIds) {
+		this(userIds, true);
+	}
+	
+	private TrustGraph(UserIdMap userIds, boolean sharedUserIds) {
 		super(new TrustBasedEdgeFactory(), false, false);
+		this.userIds = userIds;
+		this.sharedUserIds = sharedUserIds;
+		vertices = new User[Math.max(userIds.size(), 16)];
+	}
+	
+	/**
+	 * @throws IllegalArgumentException if the graph was created by a map of a DB
+	 * which does not have the user
+	 */
+	@Override
+	public boolean addVertex(User user) {
+		if (sharedUserIds && !userIds.contains(user.getId())) {
+			throw new IllegalArgumentException("User " + user.getId() + " is not in the user ids map");
+		}
+		if (!super.addVertex(user)) {
+			return false;
+		}
+		index(user);
+		return true;
+	}
+	
+	@Override
+	public boolean removeVertex(User user) {
+		if (!super.removeVertex(user)) {
+			return false;
+		}
+		int index = userIds.indexOf(user.getId());
+		if (index != UserIdMap.NO_INDEX && index < vertices.length) {
+			vertices[index] = null;
+		}
+		return true;
+	}
+	
+	/**
+	 * @param userId a user id
+	 * @return the vertex of the user, <code>null</code> if it is not in the graph
+	 */
+	public User getVertex(int userId) {
+		int index = userIds.indexOf(userId);
+		return index == UserIdMap.NO_INDEX || index >= vertices.length ? null : vertices[index];
+	}
+	
+	/**
+	 * @param userId a user id
+	 * @return <code>true</code> if the user is a vertex of the graph
+	 */
+	public boolean containsUser(int userId) {
+		return getVertex(userId) != null;
+	}
+	
+	/**
+	 * @return the map giving the dense indices of the vertices
+	 */
+	public UserIdMap getUserIdMap() {
+		return userIds;
+	}
+	
+	private void index(User user) {
+		int index = sharedUserIds ? userIds.indexOf(user.getId()) : userIds.add(user.getId());
+		if (index >= vertices.length) {
+			vertices = Arrays.copyOf(vertices, Math.max(index + 1, vertices.length + (vertices.length >> 1)));
+		}
+		vertices[index] = user;
+		user.setIndex(index);
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		//graphs serialized before the vertices were indexed have no map
+		if (userIds == null) {
+			userIds = new UserIdMap();
+		}
+		//the map read is a copy of its own
+		sharedUserIds = false;
+		vertices = new User[Math.max(userIds.size(), 16)];
+		for (User user : vertexSet()) {
+			index(user);
+		}
 	}
 
 	@Override
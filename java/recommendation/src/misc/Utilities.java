@@ -26,9 +26,12 @@ import org.jgrapht.alg.StrongConnectivityInspector;
 
 import dataframework.Trust;
 import dataframework.User;
+import dbanalysis.CachingNetflixDB;
+import dbanalysis.DBUser;
 import dbanalysis.NetflixDB;
 import dbanalysis.Rent;
 import dbanalysis.SqlReadOnlyNetflixDB;
+import test.NetflixRecommender;
 
 
 public class Utilities {
@@ -195,9 +198,27 @@ public class Utilities {
 	}
 	
 	public static void fillRealVotes(File recommendationsOutput) {
+		//recommendations are grouped by movie, so prefetching the neighbouring users
+		//would read unrelated rents; every rent is read by its own single row query
+		CachingNetflixDB db = new CachingNetflixDB(new SqlReadOnlyNetflixDB(true), 100000);
+		fillRealVotes(recommendationsOutput, db);
+		System.out.println("DB cache hit ratio " + db.getHitRatio());
+	}
+	
+	/**
+	 * Appends the actual rate of every recommendation. A DB held in memory, e.g. a
+	 * {@link dbanalysis.FastestNetflixDB} including the probe data, answers every
+	 * line by a single index lookup, see {@link NetflixDB#rateOf(int, int)}.
+	 * Recommendations of movies the user did not rate are kept with the rate of
+	 * {@link NetflixRecommender#CLUELESS_RECOMMENDATION}, as by the result analysis
+	 * of {@link NetflixRecommender}, and counted.
+	 * 
+	 * @param recommendationsOutput the recommendations file
+	 * @param db the DB of the actual rates
+	 */
+	public static void fillRealVotes(File recommendationsOutput, NetflixDB db) {
 		
 		System.out.println("Starting filling real votes for " + recommendationsOutput.getName());
-		NetflixDB db = new SqlReadOnlyNetflixDB(true);
 		try {
 			File fixed = new File(recommendationsOutput.getParentFile(), recommendationsOutput.getName() + "_Fixed.csv");
 			FileWriter writer = new FileWriter(fixed, false);
@@ -206,20 +227,28 @@ public class Utilities {
 			StringTokenizer commaTokenizer;
 			//writing the header line
 			String line = br.readLine();
+			int missing = 0;
 			writer.append(line).append(", Actual Rate").append(String.valueOf('\n'));
 			
-			Rent rent;
 			while (line != null) {
 				line = br.readLine();
 				if (line == null) {
 					break;
 				}
 				commaTokenizer = new StringTokenizer(line, String.valueOf(','));
-				rent = db.readRent(Integer.valueOf(commaTokenizer.nextToken()),
-						Integer.valueOf(commaTokenizer.nextToken()), null);
-				writer.append(line + String.valueOf(',') + String.valueOf(rent.getRate()))
+				int rate = db.rateOf(Integer.valueOf(commaTokenizer.nextToken()),
+						Integer.valueOf(commaTokenizer.nextToken()));
+				if (rate == DBUser.NO_RATE) {
+					missing++;
+					rate = NetflixRecommender.CLUELESS_RECOMMENDATION;
+				}
+				writer.append(line + String.valueOf(',') + String.valueOf(rate))
 					.append(String.valueOf('\n'));
 			}
+			if (missing > 0) {
+				System.err.println(missing + " recommendations have no actual rate and were given "
+						+ NetflixRecommender.CLUELESS_RECOMMENDATION + ".");
+			}
 			System.out.println("Finihed filling real votes for " + recommendationsOutput.getName());
 			writer.close();
 			br.close();
@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.Set;
 
 import dataframework.User;
+import dbanalysis.DBUser;
 import dbanalysis.NetflixDB;
 
 
@@ -43,8 +44,8 @@ public class LikeMindsVotesMapper extends AbstractDesignatedVotesMapper {
 		int i = 0;
 		for (User u : users) {
 			System.out.println("Calculates mapping for user " + i++ + " out of " + users.size());
-			valuesMap.put(u.getId(), new UserValues(db.readUser(u.getId()).getMinRate(),
-					db.readUser(u.getId()).getMaxRate()));
+			DBUser user = db.readUser(u.getId());
+			valuesMap.put(u.getId(), new UserValues(user.getMinRate(), user.getMaxRate()));
 		}
 	}
 
@@ -53,6 +53,8 @@ import common.QuestionsFileIterator;
 
 import dataframework.Trust;
 import dataframework.User;
+import dbanalysis.CachingNetflixDB;
+import dbanalysis.DBUser;
 import dbanalysis.NetflixAnalyzer;
 import dbanalysis.NetflixDB;
 import dbanalysis.Rent;
@@ -153,12 +155,12 @@ public class NetflixRecommender {
 			System.out.println(new Date().toString() + ": Building graph. This may take a while...");
 			Iterator<Rent> rents = omitProbeDb.rentsIterator();
 			if (graphBuildStrategy.equalsIgnoreCase("police")) {
-				graph = new DefaultTrustGraphGenerator(rents, calc, new MinimumCommonItemsEdgePolicer(
+				graph = new DefaultTrustGraphGenerator(rents, omitProbeDb.getUserIdMap(), calc, new MinimumCommonItemsEdgePolicer(
 						omitProbeDb, minCommonItems, new MinimumTrustEdgePolicer(minTrust, calc))).generateGraph();
 			} else if (graphBuildStrategy.equalsIgnoreCase("sclfree")) {
 				graph = new ScaleFreeTrustGraphGenerator(omitProbeDb, calc, Integer.valueOf(scalingFactor), false).generateGraph();
 			} else if (graphBuildStrategy.equalsIgnoreCase("bob")) {
-				graph = new BestOfBreedTrustGraphGenerator(rents, calc, bobPercent).generateGraph();
+				graph = new BestOfBreedTrustGraphGenerator(rents, omitProbeDb.getUserIdMap(), calc, bobPercent).generateGraph();
 			} else {
 				throw new IllegalArgumentException("Third argument must be one of 'police' or 'sclfree'");
 			}
@@ -324,14 +326,14 @@ public class NetflixRecommender {
 			lastMovieId = currentMovieId;
 			currentMovieId = question.getMovieId();
 			System.out.println(DATE_FORMAT.format(new Date())+ ": Generating recommendation for question " + question);			
-			if (graph.vertexSet().contains(new User(question.getUserId()))) {					
+			if (graph.containsUser(question.getUserId())) {					
 				if (currentMovieId != lastMovieId) {
 					if (lastMovieId != -1) {
 						//adding all voters
 						for (User voter : graph.vertexSet()) {
-							List<Rent> rents = omitProbeDb.readUser(voter.getId()).getRentsForMovieId(lastMovieId);
-							if (rents.size() > 0) {
-								votes.put(voter.getId(), (double) Utilities.getAverageRecommendation(rents));
+							int rate = omitProbeDb.readUser(voter.getId()).getRateForMovieId(lastMovieId);
+							if (rate != DBUser.NO_RATE) {
+								votes.put(voter.getId(), (double) rate);
 							}
 						}		
 						File progress;
@@ -383,7 +385,9 @@ public class NetflixRecommender {
 	private static void addResultAnalysisHelpInfo(NetflixDB omitProbeDb, File recommendationsOutput, String system) {
 
 		System.out.println("Starting adding analysis help info for " + recommendationsOutput.getName());
-		NetflixDB fullDb = new SqlReadOnlyNetflixDB(true);
+		//recommendations are grouped by movie, so prefetching the neighbouring users
+		//would read unrelated rents; every rent is read by its own single row query
+		CachingNetflixDB fullDb = new CachingNetflixDB(new SqlReadOnlyNetflixDB(true), 100000);
 		try {
 			File fixed = new File(recommendationsOutput.getParentFile(), recommendationsOutput.getName() + "_Fixed.csv");
 			FileWriter writer = new FileWriter(fixed, false);
@@ -479,7 +483,8 @@ public class NetflixRecommender {
 				.append(String.valueOf(countersMovieAvg[4]))
 				.append(String.valueOf('\n'));
 			
-			System.out.println("Finished adding analysis help info for " + recommendationsOutput.getName());
+			System.out.println("Finished adding analysis help info for " + recommendationsOutput.getName()
+					+ ". DB cache hit ratio " + fullDb.getHitRatio());
 			writer.close();
 			br.close();
 		} catch (IOException e) {